@@ -42,6 +42,10 @@ android {
             proguardFiles(getDefaultProguardFile("proguard-android-optimize.txt"), "proguard-rules.pro")
         }
     }
+    sourceSets {
+        // Exported schemas, for MigrationTestHelper
+        getByName("androidTest").assets.srcDir("$projectDir/schemas")
+    }
     compileOptions {
         sourceCompatibility = JavaVersion.VERSION_1_8
         targetCompatibility = JavaVersion.VERSION_1_8
@@ -97,9 +101,14 @@ dependencies {
     // optional - Guava support for Room, including Optional and ListenableFuture
     implementation(libs.androidx.room.guava)
 
+    // Paging of long message lists, with ListenableFuture-based paging sources
+    implementation(libs.paging.runtime)
+    implementation(libs.paging.guava)
+
     implementation(files("libs/cs522-library.aar"))
     implementation(libs.guava)
     testImplementation(libs.junit)
     androidTestImplementation(libs.androidx.junit)
     androidTestImplementation(libs.androidx.espresso.core)
+    androidTestImplementation(libs.androidx.room.testing)
 }
\ No newline at end of file
@@ -0,0 +1,137 @@
+package edu.stevens.cs522.chat.databases;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import androidx.room.Room;
+import androidx.room.testing.MigrationTestHelper;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+
+/**
+ * Migrates a version 1 database through all of ChatMigrations, validating the result
+ * against the exported schema (app/schemas) and checking that the rows survive each
+ * step.  A new migration should add its checks to migrateAll, so that it is tested on a
+ * database that has been through all the others.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ChatMigrationTest {
+
+    private static final String TEST_DB = "migration-test.db";
+
+    @Rule
+    public MigrationTestHelper helper = new MigrationTestHelper(
+            InstrumentationRegistry.getInstrumentation(), ChatDatabase.class);
+
+    @Test
+    public void migrateAll() throws IOException {
+        SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 1);
+        db.execSQL("INSERT INTO peers (id, name, timestamp, latitude, longitude) "
+                + "VALUES (1, 'alice', '2024-01-01T00:00:00Z', 40.7448, -74.0256)");
+        db.execSQL("INSERT INTO peers (id, name, timestamp, latitude, longitude) "
+                + "VALUES (2, 'bob', '2024-01-01T00:00:01.5Z', NULL, NULL)");
+        db.execSQL("INSERT INTO Chatroom (id, name) VALUES (1, 'lobby')");
+        db.execSQL("INSERT INTO messages (id, chatroom, messageText, timestamp, latitude, longitude, sender) "
+                + "VALUES (1, 'lobby', 'hello lobby', '2024-01-01T00:00:02Z', 40.7448, -74.0256, 'alice')");
+        // A chatroom only known from its messages.
+        db.execSQL("INSERT INTO messages (id, chatroom, messageText, timestamp, latitude, longitude, sender) "
+                + "VALUES (2, 'garden', 'hello garden', '2024-01-01T00:00:03.25Z', NULL, NULL, 'bob')");
+        // A message without a timestamp, alone in its chatroom.
+        db.execSQL("INSERT INTO messages (id, chatroom, messageText, timestamp, latitude, longitude, sender) "
+                + "VALUES (3, 'attic', 'no time given', NULL, NULL, NULL, 'bob')");
+        // A sender that is not a peer, which MIGRATION_3_4 cannot keep.
+        db.execSQL("PRAGMA foreign_keys = OFF");
+        db.execSQL("INSERT INTO messages (id, chatroom, messageText, timestamp, latitude, longitude, sender) "
+                + "VALUES (4, 'lobby', 'hello from nobody', '2024-01-01T00:00:04Z', NULL, NULL, 'carol')");
+        db.close();
+
+        db = helper.runMigrationsAndValidate(TEST_DB, 13, false, ChatMigrations.ALL);
+
+        // 3 to 4: chatrooms and senders by key.
+        assertEquals(3, queryLong(db, "SELECT COUNT(*) FROM messages"));
+        assertEquals(1, queryLong(db, "SELECT chatroomId FROM messages WHERE id = 1"));
+        long garden = queryLong(db, "SELECT id FROM Chatroom WHERE name = 'garden'");
+        assertEquals(garden, queryLong(db, "SELECT chatroomId FROM messages WHERE id = 2"));
+        assertEquals(2, queryLong(db, "SELECT senderId FROM messages WHERE id = 2"));
+
+        // 4 to 5: timestamps in epoch millis.
+        assertEquals(1704067200000L, queryLong(db, "SELECT timestamp FROM peers WHERE id = 1"));
+        assertEquals(1704067201500L, queryLong(db, "SELECT timestamp FROM peers WHERE id = 2"));
+        assertEquals(1704067202000L, queryLong(db, "SELECT timestamp FROM messages WHERE id = 1"));
+        assertEquals(1704067203250L, queryLong(db, "SELECT timestamp FROM messages WHERE id = 2"));
+
+        // 5 to 6: summaries of existing messages, all read, kept up to date by the triggers.
+        assertEquals(2, queryLong(db, "SELECT lastMessageId FROM chatroom_summary WHERE chatroomId = " + garden));
+        assertEquals(1, queryLong(db, "SELECT messageCount FROM chatroom_summary WHERE chatroomId = 1"));
+        assertEquals(0, queryLong(db, "SELECT unreadCount FROM chatroom_summary WHERE chatroomId = 1"));
+        db.execSQL("INSERT INTO messages (id, chatroomId, messageText, timestamp, senderId) "
+                + "VALUES (5, 1, 'later', 1704067205000, 2)");
+        assertEquals(5, queryLong(db, "SELECT lastMessageId FROM chatroom_summary WHERE chatroomId = 1"));
+        assertEquals(2, queryLong(db, "SELECT messageCount FROM chatroom_summary WHERE chatroomId = 1"));
+        assertEquals(1, queryLong(db, "SELECT unreadCount FROM chatroom_summary WHERE chatroomId = 1"));
+
+        // 6 to 7: case-insensitive names.
+        assertEquals(garden, queryLong(db, "SELECT id FROM Chatroom WHERE nameKey = 'GARDEN'"));
+
+        // 9 to 10: outbox entries are interactive unless given a priority.
+        db.execSQL("INSERT INTO outbox (messageId, destAddress, state, attempts) VALUES (5, '10.0.2.2:6666', 0, 0)");
+        assertEquals(1, queryLong(db, "SELECT priority FROM outbox WHERE messageId = 5"));
+
+        // 10 to 11: existing messages have no sequence number.
+        assertEquals(0, queryLong(db, "SELECT COUNT(seq) FROM messages"));
+
+        // 11 to 12: existing messages are in epoch zero, and a sequence number is unique
+        // for its sender only within an epoch.
+        assertEquals(0, queryLong(db, "SELECT COUNT(*) FROM messages WHERE epoch <> 0"));
+        db.execSQL("INSERT INTO messages (id, chatroomId, messageText, timestamp, senderId, seq, epoch) "
+                + "VALUES (6, 1, 'before reinstall', 1704067206000, 1, 1, 7)");
+        db.execSQL("INSERT INTO messages (id, chatroomId, messageText, timestamp, senderId, seq, epoch) "
+                + "VALUES (7, 1, 'after reinstall', 1704067207000, 1, 1, 8)");
+        db.execSQL("INSERT OR IGNORE INTO messages (id, chatroomId, messageText, timestamp, senderId, seq, epoch) "
+                + "VALUES (8, 1, 'after reinstall', 1704067207000, 1, 1, 8)");
+        assertEquals(2, queryLong(db, "SELECT COUNT(*) FROM messages WHERE senderId = 1 AND seq = 1"));
+
+        // 12 to 13: no null timestamps, for paging by (timestamp, id).
+        assertEquals(0, queryLong(db, "SELECT COUNT(*) FROM messages WHERE timestamp IS NULL"));
+        assertEquals(0, queryLong(db, "SELECT timestamp FROM messages WHERE id = 3"));
+        long attic = queryLong(db, "SELECT id FROM Chatroom WHERE name = 'attic'");
+        assertEquals(3, queryLong(db, "SELECT lastMessageId FROM chatroom_summary WHERE chatroomId = " + attic));
+        assertEquals(0, queryLong(db, "SELECT lastTimestamp FROM chatroom_summary WHERE chatroomId = " + attic));
+        db.close();
+
+        // Room accepts the migrated database, and the backfill indexes the messages from
+        // before the full-text index (those since were indexed by the triggers).
+        Context context = ApplicationProvider.getApplicationContext();
+        ChatDatabase database = Room.databaseBuilder(context, ChatDatabase.class, TEST_DB)
+                .addMigrations(ChatMigrations.ALL)
+                .setTransactionExecutor(Runnable::run)
+                .build();
+        helper.closeWhenFinished(database);
+        new FtsBackfill(database).run();
+        db = database.getOpenHelper().getWritableDatabase();
+        assertEquals(2, queryLong(db, "SELECT COUNT(*) FROM messages_fts WHERE messages_fts MATCH 'hello'"));
+        assertEquals(5, queryLong(db, "SELECT docid FROM messages_fts WHERE messages_fts MATCH 'later'"));
+        try (Cursor cursor = db.query("SELECT name FROM sqlite_master WHERE name = 'fts_backfill'")) {
+            assertFalse("Backfill table not dropped", cursor.moveToFirst());
+        }
+    }
+
+    private static long queryLong(SupportSQLiteDatabase db, String query) {
+        try (Cursor cursor = db.query(query)) {
+            assertTrue("No result for " + query, cursor.moveToFirst());
+            return cursor.getLong(0);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package edu.stevens.cs522.chat.databases;
+
+import static edu.stevens.cs522.chat.databases.QueryPlans.explain;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+
+import androidx.room.Room;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Fails if the chatroom directory stops being read in the order of the activity index on
+ * chatroom_summary, or if prefix search stops being a range of the NOCASE name index.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ChatroomQueryPlanTest {
+
+    private ChatDatabase db;
+
+    @Before
+    public void createDatabase() {
+        Context context = ApplicationProvider.getApplicationContext();
+        db = Room.inMemoryDatabaseBuilder(context, ChatDatabase.class).build();
+    }
+
+    @After
+    public void closeDatabase() {
+        db.close();
+    }
+
+    @Test
+    public void directoryUsesActivityIndex() {
+        String plan = explain(db, ChatroomDao.DIRECTORY);
+        assertTrue("Directory does not use the activity index:\n" + plan,
+                plan.contains("index_chatroom_summary_lastTimestamp_chatroomId"));
+        assertFalse("Directory sorts its results:\n" + plan, plan.contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void searchUsesNameIndex() {
+        String plan = explain(db, ChatroomDao.DIRECTORY_SEARCH);
+        assertTrue("Search does not use the name index:\n" + plan, plan.contains("index_Chatroom_nameKey"));
+        assertFalse("Search scans a table:\n" + plan, plan.contains("SCAN "));
+    }
+}
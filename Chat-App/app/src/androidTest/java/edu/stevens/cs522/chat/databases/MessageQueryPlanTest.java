@@ -0,0 +1,90 @@
+package edu.stevens.cs522.chat.databases;
+
+import static edu.stevens.cs522.chat.databases.QueryPlans.explain;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+
+import androidx.room.Room;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Fails if the chatroom queries in MessageDao stop being answered from the composite
+ * (chatroomId, timestamp, id) index, or start needing a sort or scanning a table (the
+ * joined names must be primary key lookups), or if the tail query stops being a range
+ * scan of the primary key, or the delivery status query stops reading only its index.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MessageQueryPlanTest {
+
+    private static final String INDEX = "index_messages_chatroomId_timestamp_id";
+
+    private ChatDatabase db;
+
+    @Before
+    public void createDatabase() {
+        Context context = ApplicationProvider.getApplicationContext();
+        db = Room.inMemoryDatabaseBuilder(context, ChatDatabase.class).build();
+    }
+
+    @After
+    public void closeDatabase() {
+        db.close();
+    }
+
+    @Test
+    public void latestUsesIndex() {
+        assertUsesIndex(MessageDao.LATEST);
+    }
+
+    @Test
+    public void latestBeforeUsesIndex() {
+        assertUsesIndex(MessageDao.LATEST_BEFORE);
+    }
+
+    @Test
+    public void firstAfterUsesIndex() {
+        assertUsesIndex(MessageDao.FIRST_AFTER);
+    }
+
+    @Test
+    public void allAfterUsesIndex() {
+        assertUsesIndex(MessageDao.ALL_AFTER);
+    }
+
+    @Test
+    public void fromSenderUsesIndex() {
+        String plan = explain(db, MessageDao.FROM_SENDER);
+        assertTrue("Query does not use the sender index:\n" + plan, plan.contains("index_messages_senderId ("));
+        assertFalse("Query sorts its results:\n" + plan, plan.contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void tailUsesPrimaryKey() {
+        String plan = explain(db, MessageDao.TAIL);
+        assertTrue("Tail query is not a primary key range:\n" + plan, plan.contains("PRIMARY KEY"));
+        assertFalse("Tail query sorts its results:\n" + plan, plan.contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void undeliveredUsesStatusIndex() {
+        String plan = explain(db, MessageDao.UNDELIVERED);
+        assertTrue("Query does not use the status index:\n" + plan,
+                plan.contains("COVERING INDEX index_delivery_status_chatroomId_status"));
+        assertFalse("Query scans a table:\n" + plan, plan.contains("SCAN "));
+    }
+
+    private void assertUsesIndex(String query) {
+        String plan = explain(db, query);
+        assertTrue("Query does not use " + INDEX + ":\n" + plan, plan.contains(INDEX));
+        assertFalse("Query sorts its results:\n" + plan, plan.contains("TEMP B-TREE"));
+        assertFalse("Query scans a table:\n" + plan, plan.contains("SCAN "));
+    }
+}
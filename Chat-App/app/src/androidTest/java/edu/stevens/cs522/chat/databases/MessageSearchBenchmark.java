@@ -0,0 +1,224 @@
+package edu.stevens.cs522.chat.databases;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.room.Room;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteStatement;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import edu.stevens.cs522.chat.entities.Chatroom;
+import edu.stevens.cs522.chat.entities.MessageHit;
+import edu.stevens.cs522.chat.entities.Peer;
+
+/**
+ * Latency of full-text search over 1M messages, for common and rare terms, several terms,
+ * prefixes, and with chatroom and sender filters, against a LIKE scan as the baseline.
+ *
+ * Message text is drawn from a vocabulary with a Zipf-like distribution, so that a few
+ * terms are in many messages and most are in few.  Results are in the log under this
+ * class's tag, as median and worst latency over RUNS queries.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class MessageSearchBenchmark {
+
+    private static final String TAG = MessageSearchBenchmark.class.getCanonicalName();
+
+    private static final String DATABASE_NAME = "search-benchmark.db";
+
+    private static final int MESSAGES = 1_000_000;
+
+    private static final int VOCABULARY = 5000;
+
+    private static final int WORDS_PER_MESSAGE = 8;
+
+    private static final int CHATROOMS = 20;
+
+    private static final int PEERS = 100;
+
+    private static final int LOAD_BATCH = 10_000;
+
+    private static final int RUNS = 20;
+
+    private static final int PAGE_SIZE = 20;
+
+    private Context context;
+
+    private ChatDatabase db;
+
+    private final long[] chatroomIds = new long[CHATROOMS];
+
+    private final long[] senderIds = new long[PEERS];
+
+    @Before
+    public void createDatabase() {
+        context = ApplicationProvider.getApplicationContext();
+        context.deleteDatabase(DATABASE_NAME);
+        // On disk, since the index for 1M messages is too big to be sure of fitting in memory.
+        db = Room.databaseBuilder(context, ChatDatabase.class, DATABASE_NAME).build();
+    }
+
+    @After
+    public void closeDatabase() {
+        db.close();
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void search1M() {
+        load();
+
+        MessageDao dao = db.messageDao();
+        measure("common term", () -> dao.search(MessageDao.toMatchQuery(word(0)), null, null, PAGE_SIZE, 0));
+        measure("rare term", () -> dao.search(MessageDao.toMatchQuery(word(VOCABULARY - 2)), null, null, PAGE_SIZE, 0));
+        measure("two terms", () -> dao.search(MessageDao.toMatchQuery(word(3) + " " + word(40)), null, null, PAGE_SIZE, 0));
+        measure("prefix", () -> dao.search(MessageDao.toMatchQuery("w12"), null, null, PAGE_SIZE, 0));
+        measure("second page", () -> dao.search(MessageDao.toMatchQuery(word(40)), null, null, PAGE_SIZE, PAGE_SIZE));
+        measure("in chatroom", () -> dao.search(MessageDao.toMatchQuery(word(40)), chatroomIds[7], null, PAGE_SIZE, 0));
+        measure("from sender", () -> dao.search(MessageDao.toMatchQuery(word(40)), null, senderIds[7], PAGE_SIZE, 0));
+
+        SupportSQLiteDatabase sql = db.getOpenHelper().getWritableDatabase();
+        measure("LIKE scan (baseline)", () -> {
+            try (android.database.Cursor cursor = sql.query("SELECT id FROM messages WHERE messageText LIKE ? LIMIT ?",
+                    new Object[]{"%" + word(VOCABULARY - 2) + " %", PAGE_SIZE})) {
+                List<Long> ids = new ArrayList<>();
+                while (cursor.moveToNext()) {
+                    ids.add(cursor.getLong(0));
+                }
+                return ids;
+            }
+        });
+
+        /*
+         * Hits are ranked, filtered and excerpted.
+         */
+        List<MessageHit> hits = dao.search(MessageDao.toMatchQuery(word(40)), chatroomIds[7], senderIds[7], PAGE_SIZE, 0);
+        assertFalse(hits.isEmpty());
+        for (int i = 0; i < hits.size(); i++) {
+            MessageHit hit = hits.get(i);
+            assertEquals(chatroom(7), hit.message.chatroom);
+            assertEquals(sender(7), hit.message.sender);
+            assertTrue(hit.message.messageText.contains(word(40)));
+            // Matches are prefixes, so w40 also matches w400 and so on.
+            assertTrue(hit.snippet.contains("[" + word(40)));
+            assertTrue(hit.hits >= 1);
+            if (i > 0) {
+                assertTrue(hit.hits <= hits.get(i - 1).hits);
+            }
+        }
+    }
+
+    private interface Search {
+        List<?> run();
+    }
+
+    private void measure(String name, Search search) {
+        long[] nanos = new long[RUNS];
+        int results = 0;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            results = search.run().size();
+            nanos[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+        Log.i(TAG, String.format("%,d messages, %s: %d results, median %.2f ms, max %.2f ms",
+                MESSAGES, name, results, nanos[RUNS / 2] / 1e6, nanos[RUNS - 1] / 1e6));
+    }
+
+    /*
+     * Bulk load through the messages table, so the index is maintained by its triggers.
+     */
+    private void load() {
+        List<Peer> peers = new ArrayList<>(PEERS);
+        for (int i = 0; i < PEERS; i++) {
+            Peer peer = new Peer();
+            peer.name = sender(i);
+            peer.timestamp = Instant.ofEpochSecond(1_700_000_000L);
+            peer.latitude = 0.0;
+            peer.longitude = 0.0;
+            peers.add(peer);
+        }
+        db.peerDao().upsertAll(peers);
+        for (int i = 0; i < PEERS; i++) {
+            senderIds[i] = peers.get(i).id;
+        }
+
+        List<Chatroom> chatrooms = new ArrayList<>(CHATROOMS);
+        for (int i = 0; i < CHATROOMS; i++) {
+            chatrooms.add(new Chatroom(chatroom(i)));
+        }
+        db.chatroomDao().insertAll(chatrooms);
+        for (Chatroom chatroom : db.chatroomDao().fetchChatrooms(CHATROOMS)) {
+            chatroomIds[Integer.parseInt(chatroom.name.substring("room-".length()))] = chatroom.id;
+        }
+
+        Random random = new Random(42);
+        SupportSQLiteDatabase sql = db.getOpenHelper().getWritableDatabase();
+        long start = System.nanoTime();
+        for (int i = 0; i < MESSAGES; i += LOAD_BATCH) {
+            int first = i;
+            db.runInTransaction(() -> {
+                try (SupportSQLiteStatement insert = sql.compileStatement(
+                        "INSERT INTO messages (chatroomId, messageText, timestamp, latitude, longitude, senderId) "
+                                + "VALUES (?, ?, ?, 0, 0, ?)")) {
+                    for (int j = first; j < Math.min(MESSAGES, first + LOAD_BATCH); j++) {
+                        insert.bindLong(1, chatroomIds[random.nextInt(CHATROOMS)]);
+                        insert.bindString(2, text(random));
+                        insert.bindLong(3, (1_700_000_000L + j) * 1000);
+                        insert.bindLong(4, senderIds[random.nextInt(PEERS)]);
+                        insert.executeInsert();
+                    }
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        }
+        Log.i(TAG, String.format("Loaded and indexed %,d messages in %.1f s", MESSAGES, (System.nanoTime() - start) / 1e9));
+    }
+
+    /*
+     * Word i is roughly (i + 1) times rarer than the most common word; the last word
+     * in the vocabulary never occurs.
+     */
+    private static String text(Random random) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < WORDS_PER_MESSAGE; i++) {
+            double u = random.nextDouble();
+            int rank = (int) Math.min(VOCABULARY - 1, Math.floor(Math.pow(VOCABULARY, u)) - 1);
+            text.append(word(rank)).append(' ');
+        }
+        return text.toString();
+    }
+
+    private static String word(int rank) {
+        return "w" + rank;
+    }
+
+    private static String chatroom(int i) {
+        return "room-" + i;
+    }
+
+    private static String sender(int i) {
+        return "peer-" + i;
+    }
+}
@@ -0,0 +1,177 @@
+package edu.stevens.cs522.chat.databases;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDoneException;
+import android.util.Log;
+
+import androidx.room.Room;
+import androidx.sqlite.db.SupportSQLiteStatement;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.stevens.cs522.chat.entities.Peer;
+
+/**
+ * Compares the old upsert (LIKE lookup, then insert or update, one transaction per peer)
+ * with the single-statement upsert and the batched upsertAll, against tables of 10k and
+ * 100k peers.
+ *
+ * The old path scans the whole table on every lookup, so it is only timed on a sample
+ * of operations; results are per operation, in the log under this class's tag.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class PeerUpsertBenchmark {
+
+    private static final String TAG = PeerUpsertBenchmark.class.getCanonicalName();
+
+    private static final int SAMPLE = 1000;
+
+    private static final int LOAD_BATCH = 1000;
+
+    private ChatDatabase db;
+
+    @Before
+    public void createDatabase() {
+        Context context = ApplicationProvider.getApplicationContext();
+        db = Room.inMemoryDatabaseBuilder(context, ChatDatabase.class).build();
+    }
+
+    @After
+    public void closeDatabase() {
+        db.close();
+    }
+
+    @Test
+    public void upsert10k() {
+        benchmark(10_000);
+    }
+
+    @Test
+    public void upsert100k() {
+        benchmark(100_000);
+    }
+
+    private void benchmark(int tableSize) {
+        PeerDao dao = db.peerDao();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < tableSize; i += LOAD_BATCH) {
+            List<Peer> batch = new ArrayList<>(LOAD_BATCH);
+            for (int j = i; j < Math.min(tableSize, i + LOAD_BATCH); j++) {
+                batch.add(peer(j, 0));
+            }
+            dao.upsertAll(batch);
+        }
+        report(tableSize, "load with upsertAll", tableSize, System.nanoTime() - start);
+        assertEquals(tableSize, count());
+
+        /*
+         * Update a sample of existing peers with each path, spread over the table.
+         */
+        int stride = tableSize / SAMPLE;
+
+        start = System.nanoTime();
+        for (int i = 0; i < SAMPLE; i++) {
+            legacyUpsert(peer(i * stride, 1));
+        }
+        report(tableSize, "LIKE lookup + update", SAMPLE, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        for (int i = 0; i < SAMPLE; i++) {
+            dao.upsert(peer(i * stride, 2));
+        }
+        report(tableSize, "upsert", SAMPLE, System.nanoTime() - start);
+
+        List<Peer> batch = new ArrayList<>(SAMPLE);
+        for (int i = 0; i < SAMPLE; i++) {
+            batch.add(peer(i * stride, 3));
+        }
+        start = System.nanoTime();
+        dao.upsertAll(batch);
+        report(tableSize, "upsertAll", SAMPLE, System.nanoTime() - start);
+
+        /*
+         * Every path must leave exactly one row per peer, with the latest metadata.
+         */
+        assertEquals(tableSize, count());
+        for (Peer peer : batch) {
+            assertEquals(peer.id, peerId(peer.name));
+        }
+        assertEquals(3.0, latitude(batch.get(SAMPLE / 2).name), 0.0);
+    }
+
+    /*
+     * The upsert as it was before: a transaction per peer, with a lookup by LIKE.
+     */
+    private void legacyUpsert(Peer peer) {
+        db.runInTransaction(() -> {
+            long id;
+            try (SupportSQLiteStatement lookup = db.compileStatement("SELECT id FROM Peers WHERE name LIKE ? LIMIT 1")) {
+                lookup.bindString(1, peer.name);
+                id = lookup.simpleQueryForLong();
+            } catch (SQLiteDoneException e) {
+                id = 0;
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            if (id == 0) {
+                peer.id = db.peerDao().insert(peer);
+            } else {
+                db.peerDao().updateMetadata(id, peer.timestamp, peer.latitude, peer.longitude);
+            }
+        });
+    }
+
+    private static Peer peer(int i, double version) {
+        Peer peer = new Peer();
+        peer.name = "peer-" + i;
+        peer.timestamp = Instant.ofEpochSecond(1_700_000_000L + i);
+        peer.latitude = version;
+        peer.longitude = -version;
+        return peer;
+    }
+
+    private long count() {
+        try (SupportSQLiteStatement statement = db.compileStatement("SELECT COUNT(*) FROM Peers")) {
+            return statement.simpleQueryForLong();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private long peerId(String name) {
+        try (SupportSQLiteStatement statement = db.compileStatement("SELECT id FROM Peers WHERE name = ?")) {
+            statement.bindString(1, name);
+            return statement.simpleQueryForLong();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private double latitude(String name) {
+        try (Cursor cursor = db.query("SELECT latitude FROM Peers WHERE name = ?", new Object[]{name})) {
+            cursor.moveToFirst();
+            return cursor.getDouble(0);
+        }
+    }
+
+    private static void report(int tableSize, String path, int operations, long nanos) {
+        Log.i(TAG, String.format("%,d peers, %s: %,d ops in %.1f ms (%.1f us/op)",
+                tableSize, path, operations, nanos / 1e6, nanos / 1e3 / operations));
+    }
+}
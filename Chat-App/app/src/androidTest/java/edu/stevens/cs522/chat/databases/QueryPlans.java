@@ -0,0 +1,43 @@
+package edu.stevens.cs522.chat.databases;
+
+import android.database.Cursor;
+
+import androidx.room.RoomDatabase;
+
+/**
+ * Query plans of DAO queries, for the tests that check which indices they use.
+ */
+class QueryPlans {
+
+    private QueryPlans() {
+    }
+
+    /*
+     * Substitute literals for the named parameters of a DAO query.
+     */
+    static String bind(String query) {
+        return query.replace(":chatroomId", "1")
+                .replace(":senderId", "1")
+                .replace(":timestamp", "1704067200000")
+                .replace(":lastId", "1000000")
+                .replace(":id", "1")
+                .replace(":start", "'ab'")
+                .replace(":end", "'" + ChatroomDao.prefixEnd("ab") + "'")
+                .replace(":limit", "50")
+                .replace(":offset", "0");
+    }
+
+    /*
+     * The plan SQLite chooses for a query with literals for its parameters, one step per line.
+     */
+    static String explain(RoomDatabase db, String query) {
+        StringBuilder plan = new StringBuilder();
+        try (Cursor cursor = db.query("EXPLAIN QUERY PLAN " + bind(query), null)) {
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(detail)).append('\n');
+            }
+        }
+        return plan.toString();
+    }
+}
@@ -0,0 +1,81 @@
+package edu.stevens.cs522.chat.services;
+
+import static org.junit.Assert.assertEquals;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Which acknowledgements complete a message: only one from the host it was sent to, and
+ * only once.  AckTracker logs, so this runs on a device.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AckTrackerTest {
+
+    private final List<Long> acknowledged = new ArrayList<>();
+
+    private AckTracker tracker;
+
+    @Before
+    public void createTracker() {
+        tracker = new AckTracker((address, content) -> { }, new AckTracker.Listener() {
+            @Override
+            public void onAcknowledged(long seq) {
+                acknowledged.add(seq);
+            }
+
+            @Override
+            public void onFailed(long seq) {
+            }
+        }, 60000, 3);
+    }
+
+    @After
+    public void shutdownTracker() {
+        tracker.shutdown();
+    }
+
+    @Test
+    public void ackFromDestinationCompletes() {
+        tracker.track(1, "127.0.0.1:6666", new byte[0]);
+        tracker.acknowledged(1, "127.0.0.1");
+        assertEquals(1, acknowledged.size());
+        assertEquals(0, tracker.getInFlightCount());
+    }
+
+    @Test
+    public void ackFromAnotherHostIsIgnored() {
+        tracker.track(1, "127.0.0.1:6666", new byte[0]);
+        tracker.acknowledged(1, "10.0.0.9");
+        assertEquals(0, acknowledged.size());
+        assertEquals(1, tracker.getInFlightCount());
+        // The real one still gets through.
+        tracker.acknowledged(1, "127.0.0.1");
+        assertEquals(1, acknowledged.size());
+    }
+
+    @Test
+    public void barePortIsTheEmulatorHost() {
+        tracker.track(2, "6666", new byte[0]);
+        tracker.acknowledged(2, "127.0.0.1");
+        assertEquals(0, acknowledged.size());
+        tracker.acknowledged(2, "10.0.2.2");
+        assertEquals(1, acknowledged.size());
+    }
+
+    @Test
+    public void secondAckIsADuplicate() {
+        tracker.track(3, "127.0.0.1:6666", new byte[0]);
+        tracker.acknowledged(3, "127.0.0.1");
+        tracker.acknowledged(3, "127.0.0.1");
+        assertEquals(1, acknowledged.size());
+        assertEquals(1, tracker.getAckedCount());
+    }
+}
@@ -0,0 +1,134 @@
+package edu.stevens.cs522.chat.wire;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Round trips through the JSON encoding, which uses android.util.JsonReader and so runs
+ * on a device, and decoding of packets as older peers send them.  A packet survives the
+ * round trip if decoding it and encoding it again gives the same JSON.
+ */
+@RunWith(AndroidJUnit4.class)
+public class JsonPacketCodecTest {
+
+    private static ChatPacket message(long seq, String text) {
+        ChatPacket packet = new ChatPacket();
+        packet.epoch = -6148914691236517206L;
+        packet.seq = seq;
+        packet.replyAddress = "10.0.2.2:6666";
+        packet.sender = "alice";
+        packet.chatroom = "lobby";
+        packet.messageText = text;
+        packet.timestamp = Instant.ofEpochMilli(1704067200123L);
+        packet.latitude = 40.7448;
+        packet.longitude = -74.0;
+        return packet;
+    }
+
+    private static List<ChatPacket> decode(String json) throws IOException {
+        byte[] data = json.getBytes(StandardCharsets.UTF_8);
+        return PacketCodec.decodeAll(data, 0, data.length);
+    }
+
+    private static ChatPacket roundTrip(ChatPacket packet) throws IOException {
+        String json = JsonPacketCodec.encode(packet);
+        List<ChatPacket> decoded = decode(json);
+        assertEquals(1, decoded.size());
+        assertEquals(json, JsonPacketCodec.encode(decoded.get(0)));
+        assertEquals(WireFormat.JSON, decoded.get(0).format);
+        return decoded.get(0);
+    }
+
+    @Test
+    public void messageRoundTrip() throws IOException {
+        ChatPacket decoded = roundTrip(message(42, "hello"));
+        assertEquals(ChatPacket.Type.MESSAGE, decoded.type);
+        assertEquals(-6148914691236517206L, decoded.epoch);
+        assertTrue(decoded.wantsAck());
+    }
+
+    @Test
+    public void ackRoundTrip() throws IOException {
+        ChatPacket decoded = roundTrip(ChatPacket.ack("bob", -6148914691236517206L, 300));
+        assertTrue(decoded.isAck());
+        assertEquals(-6148914691236517206L, decoded.epoch);
+        assertEquals(300, decoded.seq);
+    }
+
+    @Test
+    public void nullFieldsRoundTrip() throws IOException {
+        ChatPacket packet = message(ChatPacket.NO_SEQ, "no extras");
+        packet.timestamp = null;
+        packet.latitude = null;
+        packet.longitude = null;
+        ChatPacket decoded = roundTrip(packet);
+        assertNull(decoded.timestamp);
+        assertNull(decoded.latitude);
+        assertNull(decoded.longitude);
+    }
+
+    @Test
+    public void multiByteUtf8RoundTrip() throws IOException {
+        assertEquals("café 你好 😀", roundTrip(message(7, "café 你好 😀")).messageText);
+    }
+
+    @Test
+    public void isoAndNumericTimestamps() throws IOException {
+        Instant expected = Instant.parse("2024-01-01T00:00:00.123Z");
+        assertEquals(expected, decode("{\"name\":\"a\",\"timestamp\":\"2024-01-01T00:00:00.123Z\"}").get(0).timestamp);
+        assertEquals(expected, decode("{\"name\":\"a\",\"timestamp\":" + expected.toEpochMilli() + "}").get(0).timestamp);
+        assertNull(decode("{\"name\":\"a\",\"timestamp\":null}").get(0).timestamp);
+    }
+
+    @Test
+    public void olderPeerPacket() throws IOException {
+        ChatPacket decoded = decode("{\"name\":\"old\",\"room\":\"lobby\",\"text\":\"hi\",\"timestamp\":\"2024-01-01T00:00:00Z\","
+                + "\"latitude\":1.5,\"longitude\":-2.5,\"unknown\":{\"nested\":[1,2]}}").get(0);
+        assertEquals(ChatPacket.Type.MESSAGE, decoded.type);
+        assertEquals(ChatPacket.NO_SEQ, decoded.seq);
+        assertEquals(ChatPacket.NO_EPOCH, decoded.epoch);
+        assertEquals("hi", decoded.messageText);
+        assertEquals(-2.5, decoded.longitude, 0);
+        assertFalse(decoded.wantsAck());
+    }
+
+    @Test
+    public void arrayOfPackets() throws IOException {
+        String json = "[" + JsonPacketCodec.encode(message(1, "one")) + ","
+                + JsonPacketCodec.encode(ChatPacket.ack("alice", -6148914691236517206L, 9)) + "]";
+        List<ChatPacket> decoded = decode(json);
+        assertEquals(2, decoded.size());
+        assertEquals("one", decoded.get(0).messageText);
+        assertTrue(decoded.get(1).isAck());
+    }
+
+    @Test
+    public void truncatedPacketIsRejected() throws IOException {
+        String json = JsonPacketCodec.encode(message(42, "hello"));
+        try {
+            decode(json.substring(0, json.length() / 2));
+            fail("Decoded a truncated packet");
+        } catch (IOException e) {
+            // Expected: JsonReader reports the end of input as an IOException
+        }
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void emptyPacketIsRejected() throws IOException {
+        decode(" ");
+    }
+}
@@ -15,10 +15,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.os.Bundle;
-import android.os.Handler;
 import android.os.IBinder;
-import android.os.Looper;
-import android.os.ResultReceiver;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -34,24 +31,27 @@ import androidx.core.view.ViewCompat;
 import androidx.core.view.WindowInsetsCompat;
 import androidx.lifecycle.ViewModelProvider;
 
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+
 import java.time.Instant;
 import java.util.Objects;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
 
 import edu.stevens.cs522.chat.R;
-import edu.stevens.cs522.chat.databases.ChatDatabase;
-import edu.stevens.cs522.chat.databases.ChatroomDao;
 import edu.stevens.cs522.chat.dialog.SendMessage;
 import edu.stevens.cs522.chat.entities.Chatroom;
+import edu.stevens.cs522.chat.entities.Message;
 import edu.stevens.cs522.chat.location.CurrentLocation;
+import edu.stevens.cs522.chat.repository.ChatRepository;
 import edu.stevens.cs522.chat.services.ChatService;
 import edu.stevens.cs522.chat.services.IChatService;
-import edu.stevens.cs522.chat.services.PostMessageResultReceiver;
+import edu.stevens.cs522.chat.services.OutboxWorker;
+import edu.stevens.cs522.chat.services.OutgoingMessage;
 import edu.stevens.cs522.chat.settings.Settings;
 import edu.stevens.cs522.chat.viewmodels.SharedViewModel;
 
-public class ChatActivity extends AppCompatActivity implements ChatroomsFragment.IChatroomListener, MessagesFragment.IChatListener, SendMessage.IMessageSender, ServiceConnection, PostMessageResultReceiver.IReceive {
+public class ChatActivity extends AppCompatActivity implements ChatroomsFragment.IChatroomListener, MessagesFragment.IChatListener, SendMessage.IMessageSender, ServiceConnection {
 
     /*
      * We are using AppCompat to support Floating Action Button.
@@ -83,17 +83,10 @@ public class ChatActivity extends AppCompatActivity implements ChatroomsFragment
      */
     private IChatService chatService;
 
-    /*
-     * For receiving ack when message is sent.
-     */
-    private ResultReceiver sendResultReceiver;
-
     /*
      * For inserting a chatroom.
      */
-    private final Executor executor = Executors.newSingleThreadExecutor();
-
-    private ChatroomDao chatroomDao;
+    private ChatRepository chatRepository;
 
 
     /*
@@ -129,15 +122,12 @@ public class ChatActivity extends AppCompatActivity implements ChatroomsFragment
         sharedViewModel = new ViewModelProvider(this).get(SharedViewModel.class);
         sharedViewModel.select(null);
 
-        // TODO initialize sendResultReceiver (for receiving notification of message sent)
-        sendResultReceiver = new ResultReceiver(new Handler(Looper.getMainLooper()));
-
         // TODO initiate binding to the service
         Intent bindIntent = new Intent(this, ChatService.class);
         bindService(bindIntent, this, Context.BIND_AUTO_CREATE);
 
         // Only used to insert a chatroom
-        chatroomDao = ChatDatabase.getInstance(getApplicationContext()).chatroomDao();
+        chatRepository = ChatRepository.getInstance(getApplicationContext());
 
         isTwoPane = getResources().getBoolean(R.bool.is_two_pane);
         if (isTwoPane) {
@@ -232,26 +222,29 @@ public class ChatActivity extends AppCompatActivity implements ChatroomsFragment
             CurrentLocation location = CurrentLocation.getLocation(this);
 
             // TODO use chatService to send the message
-            chatService.send(destinationAddr, chatroomName, text, timestamp, location.getLatitude(), location.getLongitude(), sendResultReceiver);
+            chatService.send(destinationAddr, chatroomName, text, timestamp, location.getLatitude(), location.getLongitude());
             Log.i(TAG, "Sent message: " + text);
 
-        }
-    }
+        } else {
+            /*
+             * Not bound (yet), so queue the message in the outbox and have the service
+             * started to send it.
+             */
+            CurrentLocation location = CurrentLocation.getLocation(this);
+            Message message = new OutgoingMessage(destinationAddr, chatroomName, text, Instant.now(),
+                    location.getLatitude(), location.getLongitude()).toMessage(Settings.getSenderName(this));
+            Futures.addCallback(chatRepository.enqueueMessage(message, destinationAddr), new FutureCallback<Long>() {
+                @Override
+                public void onSuccess(Long outboxId) {
+                    Log.i(TAG, "Queued message: " + text);
+                    OutboxWorker.drain(getApplicationContext());
+                }
 
-    @Override
-    /**
-     * Show a text message when notified that sending a message succeeded or failed
-     */
-    public void onReceiveResult(int resultCode, Bundle data) {
-        switch (resultCode) {
-            case RESULT_OK:
-                // TODO show a success toast message
-                Toast.makeText(this, R.string.message_received, Toast.LENGTH_LONG).show();
-                break;
-            default:
-                // TODO show a failure toast message
-                Toast.makeText(this, "Receive failed!", Toast.LENGTH_LONG).show();
-                break;
+                @Override
+                public void onFailure(Throwable t) {
+                    Log.e(TAG, "Problems queueing message " + text, t);
+                }
+            }, MoreExecutors.directExecutor());
         }
     }
 
@@ -260,12 +253,18 @@ public class ChatActivity extends AppCompatActivity implements ChatroomsFragment
      * Called by ChatroomsFragment when a new chatroom is added.
      */
     public void addChatroom(String chatroomName) {
-        Chatroom chatroom = new Chatroom();
-        chatroom.name = chatroomName;
-        executor.execute(() -> {
-            chatroomDao.insert(chatroom);
-            Log.d(TAG, "Chatroom added: " + chatroom );
-        });
+        Chatroom chatroom = new Chatroom(chatroomName);
+        Futures.addCallback(chatRepository.insertChatroom(chatroom), new FutureCallback<Long>() {
+            @Override
+            public void onSuccess(Long id) {
+                Log.d(TAG, "Chatroom added: " + chatroom);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                Log.e(TAG, "Problems adding chatroom " + chatroom, t);
+            }
+        }, MoreExecutors.directExecutor());
     }
 
     @Override
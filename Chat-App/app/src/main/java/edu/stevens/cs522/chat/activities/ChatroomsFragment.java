@@ -2,39 +2,39 @@ package edu.stevens.cs522.chat.activities;
 
 import android.content.Context;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.Editable;
+import android.text.TextWatcher;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
 import android.widget.EditText;
-import android.widget.ListView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.fragment.app.Fragment;
-import androidx.lifecycle.LiveData;
 import androidx.lifecycle.ViewModelProvider;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import java.util.List;
-
 import edu.stevens.cs522.chat.R;
 import edu.stevens.cs522.chat.entities.Chatroom;
-import edu.stevens.cs522.chat.ui.TextAdapter;
+import edu.stevens.cs522.chat.entities.ChatroomPreview;
+import edu.stevens.cs522.chat.ui.ChatroomPagingAdapter;
 import edu.stevens.cs522.chat.viewmodels.ChatroomViewModel;
 
-public class ChatroomsFragment extends Fragment implements View.OnClickListener, TextAdapter.OnItemClickListener<Chatroom> {
+public class ChatroomsFragment extends Fragment implements View.OnClickListener, ChatroomPagingAdapter.OnItemClickListener {
 
     @SuppressWarnings("unused")
     private final static String TAG = ChatroomsFragment.class.getCanonicalName();
 
     /**
-     * The serialization (saved instance state) Bundle key representing the activated item position. Only used on tablets.
+     * The serialization (saved instance state) Bundle key representing the activated chatroom. Only used on tablets.
      */
-    private static final String STATE_ACTIVATED_POSITION = "activated_position";
+    private static final String STATE_ACTIVATED_ID = "activated_id";
 
     public interface IChatroomListener {
         void addChatroom(String chatroomName);
@@ -45,15 +45,22 @@ public class ChatroomsFragment extends Fragment implements View.OnClickListener,
 
     private ChatroomViewModel chatroomViewModel;
 
-    private TextAdapter<Chatroom> chatroomsAdapter;
+    private ChatroomPagingAdapter chatroomsAdapter;
 
     // For adding a new chatroom.
     private EditText chatroomName;
 
-    /**
-     * The current activated item position. Only used in landscape.
+    /*
+     * The search box.  The directory is only searched once typing has paused for
+     * searchDelayMillis, rather than on every keystroke.
      */
-    private int activatedPosition = ListView.INVALID_POSITION;
+    private EditText chatroomSearch;
+
+    private final Handler searchHandler = new Handler(Looper.getMainLooper());
+
+    private final Runnable search = this::search;
+
+    private int searchDelayMillis;
 
     /**
      * Mandatory empty constructor for the fragment manager to instantiate the fragment (e.g. upon screen orientation changes).
@@ -84,11 +91,30 @@ public class ChatroomsFragment extends Fragment implements View.OnClickListener,
         chatroomList.setLayoutManager(new LinearLayoutManager(requireActivity()));
 
         // TODO Initialize the recyclerview and adapter for messages
-        chatroomsAdapter = new TextAdapter<>(chatroomList, this);
+        // Each chatroom is shown with its unread count and last message (see ChatroomPreview).
+        chatroomsAdapter = new ChatroomPagingAdapter(this);
         chatroomList.setAdapter(chatroomsAdapter);
         Log.d(TAG, "RecyclerView and Adapter initialized");
         chatroomName = rootView.findViewById(R.id.chatroom_add_text);
 
+        searchDelayMillis = requireActivity().getResources().getInteger(R.integer.chatroom_search_delay_millis);
+        chatroomSearch = rootView.findViewById(R.id.chatroom_search_text);
+        chatroomSearch.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence text, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence text, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable text) {
+                searchHandler.removeCallbacks(search);
+                searchHandler.postDelayed(search, searchDelayMillis);
+            }
+        });
+
         Button chatroomButton = rootView.findViewById(R.id.chatroom_add_button);
         chatroomButton.setOnClickListener(this);
 
@@ -100,23 +126,36 @@ public class ChatroomsFragment extends Fragment implements View.OnClickListener,
         super.onViewCreated(view, savedInstanceState);
 
         // Called after onCreateView() returns.
-        // Restore the previously serialized activated item position.
-        if (savedInstanceState != null && savedInstanceState.containsKey(STATE_ACTIVATED_POSITION)) {
-            setActivatedPosition(savedInstanceState.getInt(STATE_ACTIVATED_POSITION));
+        // Restore the previously serialized activated chatroom.
+        if (savedInstanceState != null && savedInstanceState.containsKey(STATE_ACTIVATED_ID)) {
+            chatroomsAdapter.setSelectedId(savedInstanceState.getLong(STATE_ACTIVATED_ID));
         }
 
         // TODO initialize the chatroom view model
         chatroomViewModel = new ViewModelProvider(requireActivity()).get(ChatroomViewModel.class);
 
         // TODO query the database asynchronously, and use messagesAdapter to display the result
+        // The queries run on the database threads, a page at a time (see ChatroomDirectorySource).
         chatroomViewModel.fetchAllChatrooms().observe(getViewLifecycleOwner(), chatrooms -> {
-            chatroomsAdapter.setDataset(chatrooms);
-            chatroomsAdapter.notifyDataSetChanged();
+            chatroomsAdapter.submitData(getViewLifecycleOwner().getLifecycle(), chatrooms);
 
-            Log.d("ChatroomsFragment", "Chatrooms updated: " + chatrooms.size());
+            Log.d("ChatroomsFragment", "Chatrooms updated");
         });
     }
 
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        searchHandler.removeCallbacks(search);
+    }
+
+    /*
+     * Typing has paused: search for what is in the search box now.
+     */
+    private void search() {
+        chatroomViewModel.setSearch(chatroomSearch.getText().toString());
+    }
+
     @Override
     public void onDetach() {
         super.onDetach();
@@ -146,32 +185,21 @@ public class ChatroomsFragment extends Fragment implements View.OnClickListener,
     }
 
     @Override
-    public void onItemClick(RecyclerView parent, View view, int position, Chatroom chatroom) {
+    public void onItemClick(int position, ChatroomPreview preview) {
         Log.d(TAG, "Click on chatroom at position "+position);
-        setActivatedPosition(position);
         // TODO ask the activity to respond to the selection (in single-pane layout, it will push detail fragment)
         if (listener != null) {
-            listener.setChatroom(chatroom);
+            listener.setChatroom(preview.chatroom);
         }
     }
 
     @Override
     public void onSaveInstanceState(@NonNull Bundle outState) {
         super.onSaveInstanceState(outState);
-        if (activatedPosition != ListView.INVALID_POSITION) {
-            // Serialize and persist the activated item position.
-            outState.putInt(STATE_ACTIVATED_POSITION, activatedPosition);
-        }
-    }
-
-    private void setActivatedPosition(int position) {
-
-        if (position == ListView.INVALID_POSITION) {
-            chatroomsAdapter.setItemChecked(activatedPosition);
-        } else {
-            chatroomsAdapter.setItemChecked(position);
+        if (chatroomsAdapter != null && chatroomsAdapter.getSelectedId() != RecyclerView.NO_ID) {
+            // Serialize and persist the activated chatroom.
+            outState.putLong(STATE_ACTIVATED_ID, chatroomsAdapter.getSelectedId());
         }
-        activatedPosition = position;
     }
 
 }
\ No newline at end of file
@@ -21,23 +21,24 @@ import android.widget.TextView;
 
 import androidx.annotation.NonNull;
 import androidx.fragment.app.Fragment;
-import androidx.lifecycle.LiveData;
 import androidx.lifecycle.ViewModelProvider;
+import androidx.recyclerview.widget.ConcatAdapter;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Collections;
+import java.util.Map;
 
 import edu.stevens.cs522.chat.R;
+import edu.stevens.cs522.chat.databases.MessageTail;
 import edu.stevens.cs522.chat.entities.Chatroom;
+import edu.stevens.cs522.chat.entities.DeliveryStatus;
 import edu.stevens.cs522.chat.entities.Message;
 import edu.stevens.cs522.chat.settings.Settings;
-import edu.stevens.cs522.chat.ui.MessageAdapter;
-import edu.stevens.cs522.chat.ui.MessageSenderAdapter;
-import edu.stevens.cs522.chat.ui.TextAdapter;
+import edu.stevens.cs522.chat.ui.MessagePagingAdapter;
+import edu.stevens.cs522.chat.ui.MessageTailAdapter;
 import edu.stevens.cs522.chat.viewmodels.ChatViewModel;
 import edu.stevens.cs522.chat.viewmodels.SharedViewModel;
 
@@ -58,14 +59,21 @@ public class MessagesFragment extends Fragment implements OnClickListener {
     // Query the messages database
     private ChatViewModel chatViewModel;
 
-    // Need to remove observer when we leave chatroom
-    private LiveData<List<Message>> messages;
-
     // Current chatroom selection, shared between activity and messages fragment
     private SharedViewModel sharedViewModel;
 
     // Display list of messages in a chatroom (with senders identified in message headings)
-    private MessageAdapter messagesAdapter;
+    private MessagePagingAdapter messagesAdapter;
+
+    // Display messages added since the chatroom was opened, after those in messagesAdapter
+    private MessageTailAdapter newMessagesAdapter;
+
+    private RecyclerView messageList;
+
+    private LinearLayoutManager layoutManager;
+
+    // Status of the messages sent to this chatroom that are not yet delivered, by id
+    private Map<Long, Integer> deliveryStatus = Collections.emptyMap();
 
 
     public MessagesFragment() {
@@ -104,17 +112,28 @@ public class MessagesFragment extends Fragment implements OnClickListener {
         /*
          * Widget for list of messages
          */
-        RecyclerView messageList = rootView.findViewById(R.id.message_list);
-        messageList.setLayoutManager(new LinearLayoutManager(requireActivity()));
+        messageList = rootView.findViewById(R.id.message_list);
+        layoutManager = new LinearLayoutManager(requireActivity());
+        // Open at the latest messages, which is where the first page is loaded.
+        layoutManager.setStackFromEnd(true);
+        messageList.setLayoutManager(layoutManager);
 
         // TODO Initialize the recyclerview and adapter for messages
-        messagesAdapter = new MessageAdapter() {
+        messagesAdapter = new MessagePagingAdapter() {
+            @Override
+            public String getHeading(Message message) {
+                return heading(message);
+            }
+        };
+        newMessagesAdapter = new MessageTailAdapter() {
             @Override
             public String getHeading(Message message) {
-                return message.getSender();
+                return heading(message);
             }
         };
-        messageList.setAdapter(messagesAdapter);
+        // Both adapters inflate the same view holders, so they can share the view pool.
+        ConcatAdapter.Config config = new ConcatAdapter.Config.Builder().setIsolateViewTypes(false).build();
+        messageList.setAdapter(new ConcatAdapter(config, messagesAdapter, newMessagesAdapter));
         return rootView;
     }
 
@@ -125,7 +144,17 @@ public class MessagesFragment extends Fragment implements OnClickListener {
         chatViewModel = new ViewModelProvider(requireActivity()).get(ChatViewModel.class);
         sharedViewModel = new ViewModelProvider(requireActivity()).get(SharedViewModel.class);
 
-        // Rely on live data to requery the messages if the chatroom selection changes
+        /*
+         * The messages follow the chatroom selection in the view model, so they are
+         * observed just once here, rather than each time the selection changes.
+         */
+        chatViewModel.getMessages().observe(getViewLifecycleOwner(), pagingData -> {
+            // Only the pages that changed are diffed and rebound.
+            messagesAdapter.submitData(getViewLifecycleOwner().getLifecycle(), pagingData);
+        });
+        chatViewModel.getNewMessages().observe(getViewLifecycleOwner(), this::showNewMessages);
+        chatViewModel.getDeliveryStatus().observe(getViewLifecycleOwner(), this::showDeliveryStatus);
+
         queryMessages(sharedViewModel.getSelected());
         sharedViewModel.observe(getViewLifecycleOwner(), this::queryMessages);
     }
@@ -137,28 +166,55 @@ public class MessagesFragment extends Fragment implements OnClickListener {
         String header = getString(R.string.messages_heading, Settings.getSenderName(requireActivity()), chatroomName);
         messagesHeader.setText(header);
 
-        if (chatroom == null) {
-            // messagesAdapter.notifyItemRangeChanged(0, 1);
-            messagesAdapter.notifyItemRangeRemoved(0, messagesAdapter.getItemCount());
-            messagesAdapter.setMessage(new ArrayList<>(0));
-            // TODO remove any observers of messages as we leave the chatroom
-            if (messages != null) {
-                messages.removeObservers(getViewLifecycleOwner());
-                messages = null;
-            }
-            return;
+        chatViewModel.selectChatroom(chatroom);
+    }
+
+    private void showNewMessages(MessageTail.Delta delta) {
+        Log.d(TAG, "New messages: " + delta.appended.size());
+        // Follow the conversation, if the user was already at the end of it.
+        boolean atEnd = layoutManager.findLastVisibleItemPosition() >= messageList.getAdapter().getItemCount() - 1;
+        newMessagesAdapter.apply(delta);
+        if (!delta.appended.isEmpty()) {
+            // They are on screen, so they do not count as unread.
+            chatViewModel.markRead();
         }
+        if (atEnd && !delta.appended.isEmpty()) {
+            messageList.scrollToPosition(messageList.getAdapter().getItemCount() - 1);
+        }
+    }
 
-        // TODO query the database asynchronously, and use messagesAdapter to display the result
-        // The messages live data will need an observer for when new messages are inserted.
-        messages = chatViewModel.fetchAllMessages(chatroom);
-        messages.observe(getViewLifecycleOwner(), messages -> {
-            for (Message msg : messages) {
-                Log.d("MessagesFragment", "Message: " + msg.messageText);
-            }
-            messagesAdapter.setMessage(messages);
-            messagesAdapter.notifyDataSetChanged();
-        });
+    /*
+     * One update for however many messages changed status.  Only the rows on screen are
+     * rebound, so it is cheaper to rebind them all than to find the rows that changed.
+     */
+    private void showDeliveryStatus(Map<Long, Integer> status) {
+        Log.d(TAG, "Undelivered messages: " + status.size());
+        deliveryStatus = status;
+        messagesAdapter.notifyItemRangeChanged(0, messagesAdapter.getItemCount());
+        newMessagesAdapter.notifyItemRangeChanged(0, newMessagesAdapter.getItemCount());
+    }
+
+    /*
+     * The sender, and for a message that has not been delivered, how it stands.
+     */
+    private String heading(Message message) {
+        Integer status = deliveryStatus.get(message.id);
+        if (status == null) {
+            return message.getSender();
+        }
+        int label;
+        switch (status) {
+            case DeliveryStatus.QUEUED:
+                label = R.string.status_queued;
+                break;
+            case DeliveryStatus.SENT:
+                label = R.string.status_sent;
+                break;
+            default:
+                label = R.string.status_failed;
+                break;
+        }
+        return getString(R.string.message_heading_status, message.getSender(), getString(label));
     }
 
     public void onResume() {
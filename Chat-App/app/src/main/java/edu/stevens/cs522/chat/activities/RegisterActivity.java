@@ -12,8 +12,6 @@ package edu.stevens.cs522.chat.activities;
 
 import android.content.Context;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Looper;
 import android.util.Log;
 import android.view.View;
 import android.view.View.OnClickListener;
@@ -27,15 +25,15 @@ import androidx.core.view.ViewCompat;
 import androidx.core.view.WindowInsetsCompat;
 import androidx.fragment.app.FragmentActivity;
 
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+
 import java.time.Instant;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
 
 import edu.stevens.cs522.chat.R;
-import edu.stevens.cs522.chat.databases.ChatDatabase;
-import edu.stevens.cs522.chat.databases.PeerDao;
 import edu.stevens.cs522.chat.entities.Peer;
 import edu.stevens.cs522.chat.location.CurrentLocation;
+import edu.stevens.cs522.chat.repository.ChatRepository;
 import edu.stevens.cs522.chat.settings.Settings;
 
 public class RegisterActivity extends FragmentActivity implements OnClickListener {
@@ -44,11 +42,7 @@ public class RegisterActivity extends FragmentActivity implements OnClickListene
 
     // protected PeerViewModel peerViewModel;
 
-    protected Executor executor = Executors.newSingleThreadExecutor();
-
-    protected PeerDao peerDao;
-
-    protected Handler mainLoop = new Handler(Looper.getMainLooper());
+    protected ChatRepository chatRepository;
 
     /*
      * Widgets for server Uri, chat name, register button.
@@ -70,7 +64,7 @@ public class RegisterActivity extends FragmentActivity implements OnClickListene
             return insets;
         });
 
-        peerDao = ChatDatabase.getInstance(getApplicationContext()).peerDao();
+        chatRepository = ChatRepository.getInstance(getApplicationContext());
 
         userNameText = findViewById(R.id.chat_name_text);
 
@@ -125,21 +119,8 @@ public class RegisterActivity extends FragmentActivity implements OnClickListene
              */
             final Context context = getApplicationContext();
 
-            executor.execute(() -> {
-
-                long id = peerDao.insert(peer);
-                Log.d(TAG, "Inserted peer record for this peer, id ="+id);
-
-                mainLoop.post(() -> {
-                    if (id < 0) {
-                        Toast.makeText(context, R.string.already_taken, Toast.LENGTH_LONG).show();
-                    } else {
-                        Settings.register(context, peer.name, id);
-                        Log.d(TAG, "Registered "+Settings.getSenderName(RegisterActivity.this));
-                        Toast.makeText(context, R.string.register_success, Toast.LENGTH_LONG).show();
-                    }
-                });
-            });
+            Futures.addCallback(chatRepository.insertPeer(peer), new RegisterCallback(context, peer.name),
+                    chatRepository.getMainExecutor());
 
         } else {
 
@@ -150,4 +131,36 @@ public class RegisterActivity extends FragmentActivity implements OnClickListene
         }
     }
 
-}
\ No newline at end of file
+    /*
+     * Static, so that it holds no reference to the activity while the insert is pending.
+     */
+    private static class RegisterCallback implements FutureCallback<Long> {
+
+        private final Context context;
+
+        private final String name;
+
+        RegisterCallback(Context context, String name) {
+            this.context = context;
+            this.name = name;
+        }
+
+        @Override
+        public void onSuccess(Long id) {
+            Log.d(TAG, "Inserted peer record for this peer, id ="+id);
+            if (id < 0) {
+                Toast.makeText(context, R.string.already_taken, Toast.LENGTH_LONG).show();
+            } else {
+                Settings.register(context, name, id);
+                Log.d(TAG, "Registered "+Settings.getSenderName(context));
+                Toast.makeText(context, R.string.register_success, Toast.LENGTH_LONG).show();
+            }
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+            Log.e(TAG, "Problems inserting peer record for this peer.", t);
+        }
+    }
+
+}
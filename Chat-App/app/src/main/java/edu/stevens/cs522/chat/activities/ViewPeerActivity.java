@@ -82,7 +82,6 @@ public class ViewPeerActivity extends FragmentActivity {
         peerViewModel.fetchMessagesFromPeer(peer).observe(this, messages -> {
             if (messages != null) {
                 messagesAdapter.setMessage(messages);
-                messagesAdapter.notifyDataSetChanged();
             } else {
                 Log.d(TAG, "No messages");
             }
@@ -49,7 +49,7 @@ public class ViewPeersActivity extends FragmentActivity implements TextAdapter.O
         RecyclerView peersList = findViewById(R.id.peer_list);
         peersList.setLayoutManager(new LinearLayoutManager(this));
 
-        peerAdapter = new TextAdapter<>(peersList, this);
+        peerAdapter = new TextAdapter<>(peersList, peer -> peer.id, this);
         peersList.setAdapter(peerAdapter);
 
         // TODO create the view model and query for a list of all peers
@@ -59,7 +59,6 @@ public class ViewPeersActivity extends FragmentActivity implements TextAdapter.O
         peersViewModel.fetchAllPeers().observe(this, peers -> {
             if (peers != null) {
                 peerAdapter.setDataset(peers);
-                peerAdapter.notifyDataSetChanged();
             }
         });
     }
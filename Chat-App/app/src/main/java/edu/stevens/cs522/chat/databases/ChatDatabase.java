@@ -2,13 +2,21 @@ package edu.stevens.cs522.chat.databases;
 
 import android.content.Context;
 
+import androidx.annotation.NonNull;
 import androidx.room.Database;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
 import androidx.room.TypeConverters;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+
+import java.util.concurrent.Executor;
 
 import edu.stevens.cs522.chat.entities.Chatroom;
-import edu.stevens.cs522.chat.entities.Message;
+import edu.stevens.cs522.chat.entities.ChatroomSummary;
+import edu.stevens.cs522.chat.entities.DeliveryStatus;
+import edu.stevens.cs522.chat.entities.MessageFts;
+import edu.stevens.cs522.chat.entities.MessageRecord;
+import edu.stevens.cs522.chat.entities.OutboxEntry;
 import edu.stevens.cs522.chat.entities.Peer;
 import edu.stevens.cs522.chat.entities.TimestampConverter;
 
@@ -19,25 +27,40 @@ import edu.stevens.cs522.chat.entities.TimestampConverter;
  */
 
 // TODO Add annotations (including @TypeConverters)
-@Database(entities = {Peer.class, Message.class, Chatroom.class}, version = 1)
+@Database(entities = {Peer.class, MessageRecord.class, MessageFts.class, Chatroom.class, ChatroomSummary.class, OutboxEntry.class, DeliveryStatus.class}, version = 13)
 @TypeConverters({TimestampConverter.class})
 public abstract class ChatDatabase extends RoomDatabase {
 
     private static final String DATABASE_NAME = "messages.db";
 
-    private static ChatDatabase instance;
-
     public abstract PeerDao peerDao();
 
     public abstract ChatroomDao chatroomDao();
 
     public abstract MessageDao messageDao();
 
-    public static ChatDatabase getInstance(Context context) {
-        if (instance == null) {
-            instance = Room.databaseBuilder(context, ChatDatabase.class, DATABASE_NAME).allowMainThreadQueries().build();
-        }
-        return instance;
+    public abstract OutboxDao outboxDao();
+
+    /**
+     * Open the database, with queries run on queryExecutor and writes on transactionExecutor.
+     * Main thread queries are not allowed.  There should be only one instance, so this is
+     * only called by ChatRepository (use ChatRepository.getInstance instead).
+     */
+    public static ChatDatabase create(Context context, Executor queryExecutor, Executor transactionExecutor) {
+        ChatDatabase database = Room.databaseBuilder(context, ChatDatabase.class, DATABASE_NAME)
+                .addMigrations(ChatMigrations.ALL)
+                .addCallback(new Callback() {
+                    @Override
+                    public void onCreate(@NonNull SupportSQLiteDatabase db) {
+                        ChatMigrations.createSummaryTriggers(db);
+                    }
+                })
+                .setQueryExecutor(queryExecutor)
+                .setTransactionExecutor(transactionExecutor)
+                .build();
+        // Finish indexing messages from before the full-text index, if need be.
+        database.getTransactionExecutor().execute(new FtsBackfill(database));
+        return database;
     }
 
-}
\ No newline at end of file
+}
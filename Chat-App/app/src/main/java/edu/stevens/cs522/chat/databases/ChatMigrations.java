@@ -0,0 +1,283 @@
+package edu.stevens.cs522.chat.databases;
+
+import androidx.annotation.NonNull;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+
+/**
+ * Schema migrations for ChatDatabase, one per version step.
+ */
+public class ChatMigrations {
+
+    /*
+     * Composite index for reading a chatroom in (timestamp, id) order.
+     */
+    public static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_messages_chatroom_timestamp_id` ON `messages` (`chatroom`, `timestamp`, `id`)");
+        }
+    };
+
+    /*
+     * Full-text index of message bodies, kept in step by the same triggers Room creates
+     * for a new database.  Existing messages are indexed afterwards, a chunk at a time, by
+     * FtsBackfill, which works through the ids up to lastId recorded here; later messages
+     * are indexed by the triggers.
+     */
+    public static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `messages_fts` USING FTS4(`messageText` TEXT, content=`messages`)");
+            createFtsTriggers(db);
+            FtsBackfill.create(db);
+        }
+    };
+
+    /*
+     * Messages refer to their chatroom and sender by key rather than by name.  SQLite
+     * cannot change columns in place, so the table is rebuilt, keeping message ids (which
+     * are also the docids in the full-text index).  Chatrooms only known from messages
+     * are added to Chatroom first; messages whose sender is not a peer cannot be kept,
+     * though the old foreign key on sender should have prevented any.
+     */
+    public static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `messages_new` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                    + "`chatroomId` INTEGER NOT NULL, `messageText` TEXT, `timestamp` TEXT, `latitude` REAL, `longitude` REAL, "
+                    + "`senderId` INTEGER NOT NULL, "
+                    + "FOREIGN KEY(`chatroomId`) REFERENCES `Chatroom`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE , "
+                    + "FOREIGN KEY(`senderId`) REFERENCES `peers`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )");
+            db.execSQL("INSERT OR IGNORE INTO `Chatroom` (`name`) SELECT DISTINCT `chatroom` FROM `messages` "
+                    + "WHERE `chatroom` IS NOT NULL");
+            db.execSQL("INSERT INTO `messages_new` (`id`, `chatroomId`, `messageText`, `timestamp`, `latitude`, `longitude`, `senderId`) "
+                    + "SELECT m.`id`, c.`id`, m.`messageText`, m.`timestamp`, m.`latitude`, m.`longitude`, p.`id` "
+                    + "FROM `messages` AS m JOIN `Chatroom` AS c ON c.`name` = m.`chatroom` JOIN `Peers` AS p ON p.`name` = m.`sender`");
+            // Also drops the old indices, and the full-text triggers.
+            db.execSQL("DROP TABLE `messages`");
+            db.execSQL("ALTER TABLE `messages_new` RENAME TO `messages`");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_messages_senderId` ON `messages` (`senderId`)");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_messages_chatroomId_timestamp_id` ON `messages` (`chatroomId`, `timestamp`, `id`)");
+            createFtsTriggers(db);
+        }
+    };
+
+    /*
+     * Timestamps are stored as INTEGER epoch millis rather than ISO-8601 text.  The declared
+     * type of a column cannot be changed in place, and Room checks it, so both tables with
+     * timestamps are rebuilt, converting in SQL as the rows are copied (see epochMillis).
+     * Keys are kept, so foreign keys and full-text docids still hold.
+     */
+    public static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `peers_new` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `name` TEXT, "
+                    + "`timestamp` INTEGER, `latitude` REAL, `longitude` REAL)");
+            db.execSQL("INSERT INTO `peers_new` (`id`, `name`, `timestamp`, `latitude`, `longitude`) "
+                    + "SELECT `id`, `name`, " + epochMillis("`timestamp`") + ", `latitude`, `longitude` FROM `peers`");
+            // Foreign keys are not enforced during migrations, so this does not cascade to messages.
+            db.execSQL("DROP TABLE `peers`");
+            db.execSQL("ALTER TABLE `peers_new` RENAME TO `peers`");
+            db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_peers_name` ON `peers` (`name`)");
+
+            db.execSQL("CREATE TABLE IF NOT EXISTS `messages_new` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                    + "`chatroomId` INTEGER NOT NULL, `messageText` TEXT, `timestamp` INTEGER, `latitude` REAL, `longitude` REAL, "
+                    + "`senderId` INTEGER NOT NULL, "
+                    + "FOREIGN KEY(`chatroomId`) REFERENCES `Chatroom`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE , "
+                    + "FOREIGN KEY(`senderId`) REFERENCES `peers`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )");
+            db.execSQL("INSERT INTO `messages_new` (`id`, `chatroomId`, `messageText`, `timestamp`, `latitude`, `longitude`, `senderId`) "
+                    + "SELECT `id`, `chatroomId`, `messageText`, " + epochMillis("`timestamp`") + ", `latitude`, `longitude`, `senderId` "
+                    + "FROM `messages`");
+            db.execSQL("DROP TABLE `messages`");
+            db.execSQL("ALTER TABLE `messages_new` RENAME TO `messages`");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_messages_senderId` ON `messages` (`senderId`)");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_messages_chatroomId_timestamp_id` ON `messages` (`chatroomId`, `timestamp`, `id`)");
+            createFtsTriggers(db);
+        }
+    };
+
+    /*
+     * Totals for the chatroom list, in chatroom_summary.  The existing messages are counted
+     * once, here (a few index seeks per chatroom), and are all taken to have been read;
+     * from then on the triggers keep the totals up to date.
+     */
+    public static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `chatroom_summary` (`chatroomId` INTEGER NOT NULL, "
+                    + "`lastMessageId` INTEGER NOT NULL, `lastTimestamp` INTEGER, `messageCount` INTEGER NOT NULL, "
+                    + "`unreadCount` INTEGER NOT NULL, PRIMARY KEY(`chatroomId`), "
+                    + "FOREIGN KEY(`chatroomId`) REFERENCES `Chatroom`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )");
+            db.execSQL("INSERT OR IGNORE INTO `chatroom_summary` "
+                    + "(`chatroomId`, `lastMessageId`, `lastTimestamp`, `messageCount`, `unreadCount`) "
+                    + "SELECT c.`id`, COALESCE(l.`id`, 0), l.`timestamp`, "
+                    + "(SELECT COUNT(*) FROM `messages` WHERE `chatroomId` = c.`id`), 0 "
+                    + "FROM `Chatroom` AS c LEFT JOIN `messages` AS l ON l.`id` = "
+                    + "(SELECT `id` FROM `messages` WHERE `chatroomId` = c.`id` ORDER BY `timestamp` DESC, `id` DESC LIMIT 1)");
+            createSummaryTriggers(db);
+        }
+    };
+
+    /*
+     * The chatroom directory: nameKey, a case-insensitive copy of the name, indexed for
+     * prefix search, and an index on chatroom_summary in order of recent activity.
+     */
+    public static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `Chatroom` ADD COLUMN `nameKey` TEXT COLLATE NOCASE");
+            db.execSQL("UPDATE `Chatroom` SET `nameKey` = `name`");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_Chatroom_nameKey` ON `Chatroom` (`nameKey`)");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_chatroom_summary_lastTimestamp_chatroomId` "
+                    + "ON `chatroom_summary` (`lastTimestamp`, `chatroomId`)");
+        }
+    };
+
+    /*
+     * The outbox of messages waiting to be delivered (see OutboxEntry).
+     */
+    public static final Migration MIGRATION_7_8 = new Migration(7, 8) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `outbox` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                    + "`messageId` INTEGER NOT NULL, `destAddress` TEXT, `state` INTEGER NOT NULL, `attempts` INTEGER NOT NULL, "
+                    + "FOREIGN KEY(`messageId`) REFERENCES `messages`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_outbox_state_id` ON `outbox` (`state`, `id`)");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_outbox_messageId` ON `outbox` (`messageId`)");
+        }
+    };
+
+    /*
+     * Delivery status of sent messages (see DeliveryStatus).  Messages still in the
+     * outbox start as queued or sent, as they are there; the status of messages sent
+     * before this is not known, so they have none, as if received.
+     */
+    public static final Migration MIGRATION_8_9 = new Migration(8, 9) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `delivery_status` (`messageId` INTEGER NOT NULL, "
+                    + "`chatroomId` INTEGER NOT NULL, `status` INTEGER NOT NULL, PRIMARY KEY(`messageId`), "
+                    + "FOREIGN KEY(`messageId`) REFERENCES `messages`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_delivery_status_chatroomId_status` "
+                    + "ON `delivery_status` (`chatroomId`, `status`)");
+            db.execSQL("INSERT OR IGNORE INTO `delivery_status` (`messageId`, `chatroomId`, `status`) "
+                    + "SELECT o.`messageId`, m.`chatroomId`, o.`state` FROM `outbox` AS o "
+                    + "JOIN `messages` AS m ON m.`id` = o.`messageId`");
+        }
+    };
+
+    /*
+     * Priority class of outbox entries (see SendPriority); those already queued are
+     * interactive, as all messages were.
+     */
+    public static final Migration MIGRATION_9_10 = new Migration(9, 10) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `outbox` ADD COLUMN `priority` INTEGER NOT NULL DEFAULT 1");
+        }
+    };
+
+    /*
+     * Received messages keep their sender's sequence number, unique for the sender.
+     * Messages already stored have none, so cannot collide.
+     */
+    public static final Migration MIGRATION_10_11 = new Migration(10, 11) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `messages` ADD COLUMN `seq` INTEGER");
+            db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_messages_senderId_seq` ON `messages` (`senderId`, `seq`)");
+        }
+    };
+
+    /*
+     * Sequence numbers are unique for a sender only within its epoch, which starts again
+     * when it is reinstalled.  Messages already stored are given epoch zero, as if from a
+     * peer that sends none, and so stay distinct.
+     */
+    public static final Migration MIGRATION_11_12 = new Migration(11, 12) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `messages` ADD COLUMN `epoch` INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("DROP INDEX IF EXISTS `index_messages_senderId_seq`");
+            db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_messages_senderId_epoch_seq` ON `messages` (`senderId`, `epoch`, `seq`)");
+        }
+    };
+
+    /*
+     * Messages are paged by (timestamp, id), and the keyset predicates never match a null
+     * timestamp, so messages received without one are now stamped on receipt.  Those
+     * already stored get the epoch, which keeps them first in a chatroom, where nulls
+     * sorted, as does the summary of a chatroom whose last message was one of them.
+     */
+    public static final Migration MIGRATION_12_13 = new Migration(12, 13) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("UPDATE `messages` SET `timestamp` = 0 WHERE `timestamp` IS NULL");
+            db.execSQL("UPDATE `chatroom_summary` SET `lastTimestamp` = 0 "
+                    + "WHERE `lastTimestamp` IS NULL AND `lastMessageId` <> 0");
+        }
+    };
+
+    /*
+     * The triggers that maintain chatroom_summary: a new chatroom gets a row, and a new
+     * message is counted (as unread) and becomes the last message if it is the latest.
+     * They run in the transaction of the insert, whichever path it comes by.  Room does
+     * not know about them, so they are also created with a new database (see ChatDatabase).
+     */
+    static void createSummaryTriggers(SupportSQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS chatroom_summary_AFTER_INSERT_Chatroom AFTER INSERT ON `Chatroom` "
+                + "BEGIN INSERT OR IGNORE INTO `chatroom_summary` "
+                + "(`chatroomId`, `lastMessageId`, `lastTimestamp`, `messageCount`, `unreadCount`) "
+                + "VALUES (NEW.`id`, 0, NULL, 0, 0); END");
+        String isLatest = "(`lastMessageId` = 0 OR NEW.`timestamp` > `lastTimestamp` "
+                + "OR (NEW.`timestamp` = `lastTimestamp` AND NEW.`id` > `lastMessageId`))";
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS chatroom_summary_AFTER_INSERT_messages AFTER INSERT ON `messages` "
+                + "BEGIN INSERT OR IGNORE INTO `chatroom_summary` "
+                + "(`chatroomId`, `lastMessageId`, `lastTimestamp`, `messageCount`, `unreadCount`) "
+                + "VALUES (NEW.`chatroomId`, 0, NULL, 0, 0); "
+                + "UPDATE `chatroom_summary` SET `messageCount` = `messageCount` + 1, `unreadCount` = `unreadCount` + 1, "
+                + "`lastMessageId` = CASE WHEN " + isLatest + " THEN NEW.`id` ELSE `lastMessageId` END, "
+                + "`lastTimestamp` = CASE WHEN " + isLatest + " THEN NEW.`timestamp` ELSE `lastTimestamp` END "
+                + "WHERE `chatroomId` = NEW.`chatroomId`; END");
+    }
+
+    /*
+     * SQL for the epoch millis of an ISO-8601 instant as written by Instant.toString(),
+     * e.g. 2024-05-01T12:34:56.123456Z: whole seconds from strftime, plus the first three
+     * digits of any fraction, truncated as Instant.toEpochMilli() does.  Null stays null.
+     */
+    private static String epochMillis(String column) {
+        return "(strftime('%s', substr(" + column + ", 1, 19)) * 1000 "
+                + "+ CAST(substr(rtrim(substr(" + column + ", 21), 'Z') || '000', 1, 3) AS INTEGER))";
+    }
+
+    /*
+     * The triggers Room creates to keep the full-text index in step with messages.
+     */
+    private static void createFtsTriggers(SupportSQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_messages_fts_BEFORE_UPDATE BEFORE UPDATE ON `messages` "
+                + "BEGIN DELETE FROM `messages_fts` WHERE `docid`=OLD.`rowid`; END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_messages_fts_BEFORE_DELETE BEFORE DELETE ON `messages` "
+                + "BEGIN DELETE FROM `messages_fts` WHERE `docid`=OLD.`rowid`; END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_messages_fts_AFTER_UPDATE AFTER UPDATE ON `messages` "
+                + "BEGIN INSERT INTO `messages_fts`(`docid`, `messageText`) VALUES (NEW.`rowid`, NEW.`messageText`); END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_messages_fts_AFTER_INSERT AFTER INSERT ON `messages` "
+                + "BEGIN INSERT INTO `messages_fts`(`docid`, `messageText`) VALUES (NEW.`rowid`, NEW.`messageText`); END");
+    }
+
+    public static final Migration[] ALL = {
+            MIGRATION_1_2,
+            MIGRATION_2_3,
+            MIGRATION_3_4,
+            MIGRATION_4_5,
+            MIGRATION_5_6,
+            MIGRATION_6_7,
+            MIGRATION_7_8,
+            MIGRATION_8_9,
+            MIGRATION_9_10,
+            MIGRATION_10_11,
+            MIGRATION_11_12,
+            MIGRATION_12_13
+    };
+}
@@ -6,9 +6,12 @@ import androidx.room.Insert;
 import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
 
+import com.google.common.util.concurrent.ListenableFuture;
+
 import java.util.List;
 
 import edu.stevens.cs522.chat.entities.Chatroom;
+import edu.stevens.cs522.chat.entities.ChatroomPreview;
 
 @Dao
 /*
@@ -19,7 +22,116 @@ public abstract class ChatroomDao {
     @Query("SELECT * FROM Chatroom")
     public abstract LiveData<List<Chatroom>> fetchAllChatrooms();
 
+    /*
+     * A chatroom with its summary, and the sender and text of its last message.  The
+     * message and sender are primary key lookups.
+     */
+    private static final String SELECT_PREVIEWS = "SELECT c.id AS id, c.name AS name, c.nameKey AS nameKey, "
+            + "s.lastTimestamp AS lastTimestamp, s.messageCount AS messageCount, s.unreadCount AS unreadCount, "
+            + "p.name AS lastSender, m.messageText AS lastMessageText ";
+
+    private static final String JOIN_LAST_MESSAGE = "LEFT JOIN messages AS m ON m.id = s.lastMessageId "
+            + "LEFT JOIN Peers AS p ON p.id = m.senderId ";
+
+    /*
+     * The chatroom directory, a page at a time, most recently active first (chatrooms with
+     * no messages last).  Every chatroom has a summary, so the directory is read in the
+     * order of the (lastTimestamp, chatroomId) index on chatroom_summary, with no sort;
+     * the page costs its offset plus its length in index steps.
+     */
+    public static final String DIRECTORY = SELECT_PREVIEWS
+            + "FROM chatroom_summary AS s CROSS JOIN Chatroom AS c ON c.id = s.chatroomId " + JOIN_LAST_MESSAGE
+            + "ORDER BY s.lastTimestamp DESC, s.chatroomId DESC LIMIT :limit OFFSET :offset";
+
+    /*
+     * The chatrooms whose names start with a prefix, ignoring case, in the same order.
+     * The prefix is the range [:start, :end) of the NOCASE index on nameKey (see
+     * prefixEnd), so only the matching chatrooms are read, and only they are sorted.
+     */
+    public static final String DIRECTORY_SEARCH = SELECT_PREVIEWS
+            + "FROM Chatroom AS c CROSS JOIN chatroom_summary AS s ON s.chatroomId = c.id " + JOIN_LAST_MESSAGE
+            + "WHERE c.nameKey >= :start AND c.nameKey < :end "
+            + "ORDER BY s.lastTimestamp DESC, c.id DESC LIMIT :limit OFFSET :offset";
+
+    /**
+     * A page of the chatroom directory, most recently active first.
+     */
+    @Query(DIRECTORY)
+    public abstract List<ChatroomPreview> fetchDirectory(int limit, int offset);
+
+    @Query(DIRECTORY_SEARCH)
+    protected abstract List<ChatroomPreview> searchDirectoryRange(String start, String end, int limit, int offset);
+
+    /**
+     * A page of the chatrooms whose names start with a prefix (see toPrefix), most
+     * recently active first.
+     */
+    public List<ChatroomPreview> searchDirectory(String prefix, int limit, int offset) {
+        return searchDirectoryRange(prefix, prefixEnd(prefix), limit, offset);
+    }
+
+    /**
+     * Turn text typed by the user into a prefix to search for, folded to lower case as
+     * NOCASE folds it (ASCII letters only).  Returns null if there is nothing to search for.
+     */
+    public static String toPrefix(String text) {
+        String trimmed = text == null ? "" : text.trim();
+        if (trimmed.isEmpty()) {
+            return null;
+        }
+        StringBuilder prefix = new StringBuilder(trimmed.length());
+        for (int i = 0; i < trimmed.length(); i++) {
+            char c = trimmed.charAt(i);
+            prefix.append(c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c);
+        }
+        return prefix.toString();
+    }
+
+    /*
+     * The least string greater than every string that starts with the prefix, as NOCASE
+     * compares them: the prefix with its last character incremented.  After '@' comes 'A',
+     * which NOCASE takes for 'a', so the next character that NOCASE leaves alone is '['.
+     */
+    static String prefixEnd(String prefix) {
+        int last = prefix.codePointBefore(prefix.length());
+        int next = last + 1;
+        if (next == 'A') {
+            next = '[';
+        } else if (next >= Character.MIN_SURROGATE && next <= Character.MAX_SURROGATE) {
+            next = Character.MAX_SURROGATE + 1;
+        }
+        return new StringBuilder(prefix.substring(0, prefix.length() - Character.charCount(last)))
+                .appendCodePoint(next).toString();
+    }
+
+    /**
+     * The chatroom has been read, up to its latest message.
+     */
+    @Query("UPDATE chatroom_summary SET unreadCount = 0 WHERE chatroomId = :chatroomId AND unreadCount > 0")
+    public abstract ListenableFuture<Integer> markRead(long chatroomId);
+
     @Insert(onConflict = OnConflictStrategy.IGNORE)
     public abstract void insert(Chatroom chatroom);
 
+    /**
+     * Insert a chatroom on the transaction executor; the key is -1 if it already exists.
+     */
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    public abstract ListenableFuture<Long> insertAsync(Chatroom chatroom);
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    public abstract void insertAll(List<Chatroom> chatrooms);
+
+    /**
+     * Get some chatrooms, synchronously (e.g. to warm a cache).
+     */
+    @Query("SELECT * FROM Chatroom LIMIT :limit")
+    public abstract List<Chatroom> fetchChatrooms(int limit);
+
+    /**
+     * The chatrooms with these names, synchronously, for their primary keys.
+     */
+    @Query("SELECT * FROM Chatroom WHERE name IN (:names)")
+    public abstract List<Chatroom> fetchChatroomsNamed(List<String> names);
+
 }
@@ -0,0 +1,118 @@
+package edu.stevens.cs522.chat.databases;
+
+import androidx.annotation.NonNull;
+import androidx.paging.ListenableFuturePagingSource;
+import androidx.paging.PagingState;
+import androidx.room.InvalidationTracker;
+import androidx.room.RoomDatabase;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.List;
+import java.util.Set;
+
+import edu.stevens.cs522.chat.entities.ChatroomPreview;
+import kotlin.Unit;
+
+/**
+ * Pages of the chatroom directory, most recently active first, or of the chatrooms whose
+ * names start with a prefix (see ChatroomDao.toPrefix), if there is one.
+ *
+ * The keys are offsets into the directory.  Unlike the history of a chatroom, the order of
+ * the directory changes with every message, so there is no stable cursor to page from;
+ * instead the source is invalidated whenever a chatroom or its summary changes, and the
+ * refresh reloads the same positions, so the list stays where the user is looking.
+ */
+public class ChatroomDirectorySource extends ListenableFuturePagingSource<Integer, ChatroomPreview> {
+
+    private static final String[] TABLES = { "Chatroom", "chatroom_summary" };
+
+    private final RoomDatabase database;
+
+    private final ChatroomDao chatroomDao;
+
+    private final String prefix;
+
+    private final InvalidationTracker.Observer observer;
+
+    private boolean observing;
+
+    public ChatroomDirectorySource(RoomDatabase database, ChatroomDao chatroomDao, String prefix) {
+        this.database = database;
+        this.chatroomDao = chatroomDao;
+        this.prefix = prefix;
+        this.observer = new InvalidationTracker.Observer(TABLES) {
+            @Override
+            public void onInvalidated(@NonNull Set<String> tables) {
+                invalidate();
+            }
+        };
+        registerInvalidatedCallback(() -> {
+            database.getQueryExecutor().execute(this::syncObserver);
+            return Unit.INSTANCE;
+        });
+    }
+
+    @NonNull
+    @Override
+    public ListenableFuture<LoadResult<Integer, ChatroomPreview>> loadFuture(@NonNull LoadParams<Integer> params) {
+        return Futures.submit(() -> load(params), database.getQueryExecutor());
+    }
+
+    private LoadResult<Integer, ChatroomPreview> load(LoadParams<Integer> params) {
+        // Before the first page is read, so that no change after it is missed.
+        syncObserver();
+
+        int offset = params.getKey() == null ? 0 : params.getKey();
+        int limit = params.getLoadSize();
+        if (params instanceof LoadParams.Prepend) {
+            // The page before offset, which may be shorter than a load if it is the first.
+            limit = Math.min(limit, offset);
+            offset -= limit;
+        }
+
+        try {
+            List<ChatroomPreview> chatrooms = prefix == null
+                    ? chatroomDao.fetchDirectory(limit, offset)
+                    : chatroomDao.searchDirectory(prefix, limit, offset);
+            if (getInvalid()) {
+                return new LoadResult.Invalid<>();
+            }
+            return new LoadResult.Page<>(chatrooms,
+                    offset > 0 ? offset : null,
+                    chatrooms.size() < limit ? null : offset + chatrooms.size());
+
+        } catch (RuntimeException e) {
+            return new LoadResult.Error<>(e);
+        }
+    }
+
+    /*
+     * Observe the tables while the source is valid.  Adding and removing the observer
+     * touch the database, so they are done on a query thread, never the main thread.
+     */
+    private synchronized void syncObserver() {
+        boolean valid = !getInvalid();
+        if (valid && !observing) {
+            database.getInvalidationTracker().addObserver(observer);
+        } else if (!valid && observing) {
+            database.getInvalidationTracker().removeObserver(observer);
+        }
+        observing = valid;
+    }
+
+    /*
+     * Reload from the start of the page where the user is looking.  Every page but the
+     * first has its own offset as its previous key.
+     */
+    @Override
+    public Integer getRefreshKey(@NonNull PagingState<Integer, ChatroomPreview> state) {
+        Integer anchor = state.getAnchorPosition();
+        if (anchor == null) {
+            return null;
+        }
+        LoadResult.Page<Integer, ChatroomPreview> page = state.closestPageToPosition(anchor);
+        return page == null ? null : page.getPrevKey();
+    }
+}
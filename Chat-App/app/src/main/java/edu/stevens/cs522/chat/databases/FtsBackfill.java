@@ -0,0 +1,91 @@
+package edu.stevens.cs522.chat.databases;
+
+import android.database.Cursor;
+import android.util.Log;
+
+import androidx.sqlite.db.SupportSQLiteDatabase;
+
+/**
+ * Indexes the messages that were stored before the full-text index existed.
+ *
+ * Indexing a large history in the migration itself would hold up opening the database,
+ * so the migration only records the range of ids to index, in the fts_backfill table, and
+ * this works through it in chunks, one short transaction each, resubmitting itself to
+ * the transaction executor between chunks so that other writes are not held up.  The
+ * table is dropped when the backfill is done.  Until then, search results may miss older
+ * messages.
+ */
+public class FtsBackfill implements Runnable {
+
+    private static final String TAG = FtsBackfill.class.getCanonicalName();
+
+    private static final String TABLE = "fts_backfill";
+
+    private static final int CHUNK_SIZE = 1000;
+
+    private final ChatDatabase chatDatabase;
+
+    public FtsBackfill(ChatDatabase chatDatabase) {
+        this.chatDatabase = chatDatabase;
+    }
+
+    /*
+     * Record the messages to be indexed; called from the migration.
+     */
+    static void create(SupportSQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS `" + TABLE + "` (`id` INTEGER PRIMARY KEY CHECK (`id` = 0), "
+                + "`nextId` INTEGER NOT NULL, `lastId` INTEGER NOT NULL)");
+        db.execSQL("INSERT OR IGNORE INTO `" + TABLE + "` SELECT 0, 1, COALESCE(MAX(id), 0) FROM messages");
+    }
+
+    @Override
+    public void run() {
+        boolean more;
+        try {
+            more = chatDatabase.runInTransaction(this::indexChunk);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Problems indexing messages, will retry when the database is next opened.", e);
+            return;
+        }
+        if (more) {
+            chatDatabase.getTransactionExecutor().execute(this);
+        }
+    }
+
+    /*
+     * Index the next chunk of messages, returning true if there are more to do.
+     */
+    private boolean indexChunk() {
+        SupportSQLiteDatabase db = chatDatabase.getOpenHelper().getWritableDatabase();
+
+        long nextId;
+        long lastId;
+        try (Cursor cursor = db.query("SELECT name FROM sqlite_master WHERE type = 'table' AND name = ?",
+                new Object[]{TABLE})) {
+            if (!cursor.moveToFirst()) {
+                // A new database, or already done.
+                return false;
+            }
+        }
+        try (Cursor cursor = db.query("SELECT nextId, lastId FROM `" + TABLE + "` WHERE id = 0")) {
+            if (!cursor.moveToFirst()) {
+                return false;
+            }
+            nextId = cursor.getLong(0);
+            lastId = cursor.getLong(1);
+        }
+
+        if (nextId > lastId) {
+            db.execSQL("DROP TABLE `" + TABLE + "`");
+            Log.i(TAG, "Full-text index of existing messages complete.");
+            return false;
+        }
+
+        long end = Math.min(lastId, nextId + CHUNK_SIZE - 1);
+        db.execSQL("INSERT INTO messages_fts(docid, messageText) SELECT id, messageText FROM messages "
+                + "WHERE id BETWEEN ? AND ?", new Object[]{nextId, end});
+        db.execSQL("UPDATE `" + TABLE + "` SET nextId = ? WHERE id = 0", new Object[]{end + 1});
+        Log.d(TAG, "Indexed messages " + nextId + " to " + end + " of " + lastId);
+        return true;
+    }
+}
@@ -3,22 +3,182 @@ package edu.stevens.cs522.chat.databases;
 import androidx.lifecycle.LiveData;
 import androidx.room.Dao;
 import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
 
+import java.time.Instant;
 import java.util.List;
 
+import edu.stevens.cs522.chat.entities.DeliveryStatus;
 import edu.stevens.cs522.chat.entities.Message;
+import edu.stevens.cs522.chat.entities.MessageHit;
+import edu.stevens.cs522.chat.entities.MessageRecord;
 
 // TODO add annotations for Repository pattern
 @Dao
-public interface MessageDao {
-    @Query("SELECT * FROM Messages WHERE chatroom = :chatroom")
-    public abstract LiveData<List<Message>> fetchAllMessages(String chatroom);
+public abstract class MessageDao {
 
-    @Query("SELECT * FROM Messages WHERE sender = :peerName")
-    public LiveData<List<Message>> fetchMessagesFromPeer(String peerName);
+    /*
+     * Messages are stored with their chatroom and sender as keys (see MessageRecord), and
+     * read with the names joined back in.  The joins are written as CROSS JOINs, which
+     * SQLite never reorders, so messages is always the outer loop (driven by its own
+     * indices) and the names are primary key lookups.
+     */
+    private static final String SELECT_MESSAGES = "SELECT m.id AS id, c.name AS chatroom, m.messageText AS messageText, "
+            + "m.timestamp AS timestamp, m.latitude AS latitude, m.longitude AS longitude, p.name AS sender "
+            + "FROM messages AS m CROSS JOIN Chatroom AS c ON c.id = m.chatroomId "
+            + "CROSS JOIN Peers AS p ON p.id = m.senderId ";
+
+    /*
+     * Messages in a chatroom are ordered by (timestamp, id), which is also the key of the
+     * composite index on messages, so that all these queries are index range scans with
+     * no sort.  The keyset queries take the (timestamp, id) of a message as their cursor,
+     * and only see messages up to :lastId, the last message when the chatroom was opened;
+     * later messages are delivered by the TAIL query instead.  No timestamp is null,
+     * which the predicates would never match (see GroupCommitWriter).
+     */
+    public static final String LATEST = SELECT_MESSAGES + "WHERE m.chatroomId = :chatroomId AND m.id <= :lastId "
+            + "ORDER BY m.timestamp DESC, m.id DESC LIMIT :limit";
+
+    public static final String LATEST_BEFORE = SELECT_MESSAGES + "WHERE m.chatroomId = :chatroomId AND m.id <= :lastId "
+            + "AND m.timestamp <= :timestamp AND (m.timestamp < :timestamp OR m.id < :id) "
+            + "ORDER BY m.timestamp DESC, m.id DESC LIMIT :limit";
+
+    public static final String FIRST_AFTER = SELECT_MESSAGES + "WHERE m.chatroomId = :chatroomId AND m.id <= :lastId "
+            + "AND m.timestamp >= :timestamp AND (m.timestamp > :timestamp OR m.id > :id) "
+            + "ORDER BY m.timestamp, m.id LIMIT :limit";
+
+    public static final String ALL_AFTER = SELECT_MESSAGES + "WHERE m.chatroomId = :chatroomId "
+            + "AND m.timestamp >= :timestamp AND (m.timestamp > :timestamp OR m.id > :id) "
+            + "ORDER BY m.timestamp, m.id";
+
+    public static final String COUNT_BEFORE = "SELECT COUNT(*) FROM messages WHERE chatroomId = :chatroomId AND id <= :lastId "
+            + "AND timestamp <= :timestamp AND (timestamp < :timestamp OR id < :id)";
+
+    public static final String COUNT_AFTER = "SELECT COUNT(*) FROM messages WHERE chatroomId = :chatroomId AND id <= :lastId "
+            + "AND timestamp >= :timestamp AND (timestamp > :timestamp OR id > :id)";
+
+    /*
+     * Messages inserted since :id, in insertion order.  The unary + keeps SQLite from
+     * using the chatroom index, so this is a range scan of the primary key, and costs
+     * only the number of new messages.
+     */
+    public static final String TAIL = SELECT_MESSAGES + "WHERE m.id > :id AND +m.chatroomId = :chatroomId ORDER BY m.id";
+
+    /*
+     * The messages in a chatroom that have not been delivered (queued, sent or failed):
+     * one seek of the (chatroomId, status) index per status, reading only the index.
+     */
+    public static final String UNDELIVERED = "SELECT * FROM delivery_status WHERE chatroomId = :chatroomId "
+            + "AND status IN (" + DeliveryStatus.QUEUED + ", " + DeliveryStatus.SENT + ", " + DeliveryStatus.FAILED + ")";
+
+    public static final String FROM_SENDER = SELECT_MESSAGES + "WHERE m.senderId = :senderId ORDER BY m.id";
+
+    /*
+     * Full-text search, ranked by the number of matches (each match is four numbers in
+     * the result of offsets()), then most recent first.  A null chatroom or sender
+     * matches any.
+     */
+    public static final String SEARCH = "SELECT m.id AS id, c.name AS chatroom, m.messageText AS messageText, "
+            + "m.timestamp AS timestamp, m.latitude AS latitude, m.longitude AS longitude, p.name AS sender, "
+            + "snippet(messages_fts, '[', ']', '\u2026', -1, 10) AS snippet, "
+            + "(length(offsets(messages_fts)) - length(replace(offsets(messages_fts), ' ', '')) + 1) / 4 AS hits "
+            + "FROM messages_fts CROSS JOIN messages AS m ON m.id = messages_fts.docid "
+            + "CROSS JOIN Chatroom AS c ON c.id = m.chatroomId CROSS JOIN Peers AS p ON p.id = m.senderId "
+            + "WHERE messages_fts MATCH :query "
+            + "AND (:chatroomId IS NULL OR m.chatroomId = :chatroomId) AND (:senderId IS NULL OR m.senderId = :senderId) "
+            + "ORDER BY hits DESC, m.timestamp DESC, m.id DESC LIMIT :limit OFFSET :offset";
+
+    /**
+     * The id of the last message stored, in any chatroom, or 0 if there are none.
+     */
+    @Query("SELECT COALESCE(MAX(id), 0) FROM Messages")
+    public abstract long fetchLastId();
+
+    /**
+     * Messages in a chatroom inserted after the message with the given id, oldest first.
+     */
+    @Query(TAIL)
+    public abstract List<Message> fetchTail(long chatroomId, long id);
+
+    /**
+     * The latest messages in a chatroom, newest first.
+     */
+    @Query(LATEST)
+    public abstract List<Message> fetchLatest(long chatroomId, long lastId, int limit);
+
+    /**
+     * The latest messages in a chatroom before the cursor, newest first.
+     */
+    @Query(LATEST_BEFORE)
+    public abstract List<Message> fetchLatestBefore(long chatroomId, long lastId, Instant timestamp, long id, int limit);
+
+    /**
+     * The first messages in a chatroom after the cursor, oldest first.
+     */
+    @Query(FIRST_AFTER)
+    public abstract List<Message> fetchFirstAfter(long chatroomId, long lastId, Instant timestamp, long id, int limit);
+
+    /**
+     * All messages in a chatroom after the cursor, oldest first.
+     */
+    @Query(ALL_AFTER)
+    public abstract List<Message> fetchAllAfter(long chatroomId, Instant timestamp, long id);
+
+    @Query(COUNT_BEFORE)
+    public abstract int countBefore(long chatroomId, long lastId, Instant timestamp, long id);
+
+    @Query(COUNT_AFTER)
+    public abstract int countAfter(long chatroomId, long lastId, Instant timestamp, long id);
+
+    /**
+     * A page of the messages matching a full-text query (see toMatchQuery), best first,
+     * optionally only those in a chatroom or from a sender.
+     */
+    @Query(SEARCH)
+    public abstract List<MessageHit> search(String query, Long chatroomId, Long senderId, int limit, int offset);
+
+    /**
+     * Turn text typed by the user into a full-text query for the words in it, all of
+     * which must match, the last one as a prefix (it may not have been finished yet).
+     * Returns null if there are no words to search for.
+     */
+    public static String toMatchQuery(String text) {
+        StringBuilder query = new StringBuilder();
+        for (String word : text.split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                if (query.length() > 0) {
+                    query.append("\" ");
+                }
+                query.append('"').append(word);
+            }
+        }
+        if (query.length() == 0) {
+            return null;
+        }
+        // The prefix marker goes inside the quotes.
+        return query.append("*\"").toString();
+    }
+
+    /**
+     * The delivery status of the messages in a chatroom that have not been acknowledged,
+     * as one list, queried again whenever a status is written.  A message that drops
+     * out of the list has been delivered.
+     */
+    @Query(UNDELIVERED)
+    public abstract LiveData<List<DeliveryStatus>> fetchUndelivered(long chatroomId);
+
+    @Query(FROM_SENDER)
+    public abstract LiveData<List<Message>> fetchMessagesFromPeer(long senderId);
 
     @Insert
-    public void persist(Message message);
+    public abstract long insert(MessageRecord message);
+
+    /*
+     * Room inserts the whole list in one transaction.  A message already stored (same
+     * sender and seq) is skipped, and its id returned as -1.
+     */
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    public abstract List<Long> insertAll(List<MessageRecord> messages);
 
 }
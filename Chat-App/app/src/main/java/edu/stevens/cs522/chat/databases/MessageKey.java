@@ -0,0 +1,44 @@
+package edu.stevens.cs522.chat.databases;
+
+import java.time.Instant;
+import java.util.Objects;
+
+import edu.stevens.cs522.chat.entities.Message;
+
+/**
+ * Position of a message in a chatroom, for the keyset queries in MessageDao.
+ */
+public final class MessageKey {
+
+    public final Instant timestamp;
+
+    public final long id;
+
+    public MessageKey(Instant timestamp, long id) {
+        this.timestamp = timestamp;
+        this.id = id;
+    }
+
+    public static MessageKey of(Message message) {
+        return new MessageKey(message.timestamp, message.id);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof MessageKey)) {
+            return false;
+        }
+        MessageKey key = (MessageKey) other;
+        return id == key.id && Objects.equals(timestamp, key.timestamp);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(timestamp, id);
+    }
+
+    @Override
+    public String toString() {
+        return "(" + timestamp + ", " + id + ")";
+    }
+}
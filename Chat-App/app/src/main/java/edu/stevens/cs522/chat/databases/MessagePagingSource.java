@@ -0,0 +1,176 @@
+package edu.stevens.cs522.chat.databases;
+
+import androidx.annotation.NonNull;
+import androidx.paging.ListenableFuturePagingSource;
+import androidx.paging.PagingState;
+import androidx.room.RoomDatabase;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import edu.stevens.cs522.chat.entities.Message;
+
+/**
+ * Pages of the history of a chatroom, oldest first, loaded with the keyset queries in
+ * MessageDao, so that each page costs an index seek however deep into the history it is.
+ *
+ * The initial page is the latest messages (or those around the key being refreshed), with
+ * the number of messages before and after it counted for placeholders.  Older pages are
+ * prepended, newer ones appended.  The latest messages are taken from the recent message
+ * cache if it has them, so that opening a chatroom does not wait for the disk; they are
+ * then not counted, and there are no placeholders for older messages.  On a miss, the
+ * cache is seeded with the latest messages, read in the same query.
+ *
+ * The history is the messages up to lastId, the last message when the chatroom was
+ * opened.  Messages are never updated, so the history never changes, and unlike Room's
+ * own paging sources this one does not invalidate (and reload) on every insert: later
+ * messages are delivered separately, by a MessageTail.
+ */
+public class MessagePagingSource extends ListenableFuturePagingSource<MessageKey, Message> {
+
+    private final RoomDatabase database;
+
+    private final MessageDao messageDao;
+
+    private final RecentMessageCache recentMessages;
+
+    private final long chatroomId;
+
+    private final long lastId;
+
+    public MessagePagingSource(RoomDatabase database, MessageDao messageDao, RecentMessageCache recentMessages,
+                               long chatroomId, long lastId) {
+        this.database = database;
+        this.messageDao = messageDao;
+        this.recentMessages = recentMessages;
+        this.chatroomId = chatroomId;
+        this.lastId = lastId;
+    }
+
+    @NonNull
+    @Override
+    public ListenableFuture<LoadResult<MessageKey, Message>> loadFuture(@NonNull LoadParams<MessageKey> params) {
+        return Futures.submit(() -> load(params), database.getQueryExecutor());
+    }
+
+    private LoadResult<MessageKey, Message> load(LoadParams<MessageKey> params) {
+        int loadSize = params.getLoadSize();
+        MessageKey key = params.getKey();
+
+        try {
+            if (params instanceof LoadParams.Prepend) {
+                List<Message> older = reversed(messageDao.fetchLatestBefore(chatroomId, lastId, key.timestamp, key.id, loadSize));
+                return page(older, older.size() < loadSize ? null : first(older), last(older));
+            }
+
+            if (params instanceof LoadParams.Append) {
+                List<Message> newer = messageDao.fetchFirstAfter(chatroomId, lastId, key.timestamp, key.id, loadSize);
+                return page(newer, first(newer), newer.size() < loadSize ? null : last(newer));
+            }
+
+            /*
+             * Refresh: the latest messages, or half a load either side of the key.
+             */
+            List<Message> messages;
+            if (key == null) {
+                messages = recentMessages.getLatest(chatroomId, lastId, loadSize);
+                if (messages == null) {
+                    messages = loadLatest(loadSize);
+                }
+                if (messages != null) {
+                    if (getInvalid()) {
+                        return new LoadResult.Invalid<>();
+                    }
+                    // Fewer than asked for means there are no older messages.
+                    boolean older = messages.size() == loadSize;
+                    return new LoadResult.Page<>(messages, older ? first(messages) : null, null,
+                            older ? LoadResult.Page.COUNT_UNDEFINED : 0, 0);
+                }
+                messages = reversed(messageDao.fetchLatest(chatroomId, lastId, loadSize));
+            } else {
+                messages = reversed(messageDao.fetchLatestBefore(chatroomId, lastId, key.timestamp, key.id, loadSize / 2));
+                // The message at the key itself is the first one after (timestamp, id - 1).
+                messages.addAll(messageDao.fetchFirstAfter(chatroomId, lastId, key.timestamp, key.id - 1, loadSize - messages.size()));
+            }
+            if (messages.isEmpty()) {
+                return new LoadResult.Page<>(Collections.emptyList(), null, null, 0, 0);
+            }
+            MessageKey first = first(messages);
+            MessageKey last = last(messages);
+            int itemsBefore = params.getPlaceholdersEnabled() ? messageDao.countBefore(chatroomId, lastId, first.timestamp, first.id) : 0;
+            int itemsAfter = params.getPlaceholdersEnabled() ? messageDao.countAfter(chatroomId, lastId, last.timestamp, last.id) : 0;
+            if (getInvalid()) {
+                return new LoadResult.Invalid<>();
+            }
+            return new LoadResult.Page<>(messages,
+                    itemsBefore > 0 ? first : null,
+                    itemsAfter > 0 ? last : null,
+                    params.getPlaceholdersEnabled() ? itemsBefore : LoadResult.Page.COUNT_UNDEFINED,
+                    params.getPlaceholdersEnabled() ? itemsAfter : LoadResult.Page.COUNT_UNDEFINED);
+
+        } catch (RuntimeException e) {
+            return new LoadResult.Error<>(e);
+        }
+    }
+
+    /*
+     * Seed the cache with the latest messages in the chatroom (whatever their ids), and
+     * take the latest up to lastId from them if there are enough.  Returns null if there
+     * are not, or if another load is already seeding the cache.
+     */
+    private List<Message> loadLatest(int loadSize) {
+        Object token = recentMessages.beginLoad(chatroomId);
+        if (token == null) {
+            return null;
+        }
+        int windowSize = recentMessages.getMaxPerChatroom();
+        List<Message> window;
+        try {
+            window = reversed(messageDao.fetchLatest(chatroomId, Long.MAX_VALUE, windowSize));
+        } catch (RuntimeException e) {
+            recentMessages.cancelLoad(chatroomId, token);
+            throw e;
+        }
+        boolean complete = window.size() < windowSize;
+        recentMessages.completeLoad(chatroomId, token, window, complete);
+        return RecentMessageCache.latest(window, complete, lastId, loadSize);
+    }
+
+    private LoadResult<MessageKey, Message> page(List<Message> messages, MessageKey prevKey, MessageKey nextKey) {
+        if (getInvalid()) {
+            return new LoadResult.Invalid<>();
+        }
+        return new LoadResult.Page<>(messages, prevKey, nextKey);
+    }
+
+    /*
+     * Reload around the message closest to where the user is looking.
+     */
+    @Override
+    public MessageKey getRefreshKey(@NonNull PagingState<MessageKey, Message> state) {
+        Integer anchor = state.getAnchorPosition();
+        if (anchor == null) {
+            return null;
+        }
+        Message message = state.closestItemToPosition(anchor);
+        return message == null ? null : MessageKey.of(message);
+    }
+
+    private static List<Message> reversed(List<Message> messages) {
+        List<Message> result = new ArrayList<>(messages);
+        Collections.reverse(result);
+        return result;
+    }
+
+    private static MessageKey first(List<Message> messages) {
+        return messages.isEmpty() ? null : MessageKey.of(messages.get(0));
+    }
+
+    private static MessageKey last(List<Message> messages) {
+        return messages.isEmpty() ? null : MessageKey.of(messages.get(messages.size() - 1));
+    }
+}
@@ -0,0 +1,169 @@
+package edu.stevens.cs522.chat.databases;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.LiveData;
+import androidx.room.InvalidationTracker;
+import androidx.room.RoomDatabase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import edu.stevens.cs522.chat.entities.Message;
+
+/**
+ * The messages added to a chatroom since it was opened, delivered as deltas.
+ *
+ * Room's LiveData queries re-run the whole query whenever the table changes, so every new
+ * message cost a requery of the chatroom history and a rebind of the whole list.  Here the
+ * cursor is the id of the last message delivered: when the messages table changes, only
+ * the messages after it are read (a primary key range), and only those are emitted, as the
+ * positions they were appended at.  Receiving a message costs work for that message alone.
+ *
+ * Observers must apply every delta in order; one that has missed some, such as the
+ * adapter of a recreated view, starts over from a snapshot (see Delta#snapshot).
+ */
+public class MessageTail extends LiveData<MessageTail.Delta> {
+
+    private static final String TABLE = "messages";
+
+    /**
+     * Messages appended to the tail, at positions start onward.
+     */
+    public static class Delta {
+
+        /*
+         * No chatroom is open.
+         */
+        public static final Delta NONE = new Delta(null, 0, Collections.emptyList());
+
+        private final MessageTail tail;
+
+        public final int start;
+
+        public final List<Message> appended;
+
+        private Delta(MessageTail tail, int start, List<Message> appended) {
+            this.tail = tail;
+            this.start = start;
+            this.appended = appended;
+        }
+
+        public int end() {
+            return start + appended.size();
+        }
+
+        public boolean isFrom(Delta other) {
+            return other != null && tail == other.tail;
+        }
+
+        /**
+         * The whole tail up to the end of this delta.  Main thread only.
+         */
+        public List<Message> snapshot() {
+            if (tail == null) {
+                return new ArrayList<>();
+            }
+            return new ArrayList<>(tail.messages.subList(0, end()));
+        }
+    }
+
+    private final RoomDatabase database;
+
+    private final MessageDao messageDao;
+
+    private final long chatroomId;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private final InvalidationTracker.Observer observer;
+
+    /*
+     * Main thread only.
+     */
+    private final List<Message> messages = new ArrayList<>();
+
+    /*
+     * Guarded by this; the query executor may run several refreshes at once.
+     */
+    private long lastId;
+
+    private boolean observing = false;
+
+    private volatile boolean active = false;
+
+    private final AtomicBoolean refreshPending = new AtomicBoolean(false);
+
+    public MessageTail(RoomDatabase database, MessageDao messageDao, long chatroomId, long lastId) {
+        this.database = database;
+        this.messageDao = messageDao;
+        this.chatroomId = chatroomId;
+        this.lastId = lastId;
+        this.observer = new InvalidationTracker.Observer(TABLE) {
+            @Override
+            public void onInvalidated(@NonNull Set<String> tables) {
+                scheduleRefresh();
+            }
+        };
+    }
+
+    @Override
+    protected void onActive() {
+        if (getValue() == null) {
+            setValue(new Delta(this, 0, Collections.emptyList()));
+        }
+        active = true;
+        // Catch up on anything inserted while there were no observers.
+        database.getQueryExecutor().execute(this::syncObserver);
+        scheduleRefresh();
+    }
+
+    @Override
+    protected void onInactive() {
+        active = false;
+        database.getQueryExecutor().execute(this::syncObserver);
+    }
+
+    /*
+     * Adding and removing the observer touch the database, so they are done on the
+     * query executor, in whatever order the tasks run, towards the latest state.
+     */
+    private synchronized void syncObserver() {
+        if (active && !observing) {
+            database.getInvalidationTracker().addObserver(observer);
+            observing = true;
+        } else if (!active && observing) {
+            database.getInvalidationTracker().removeObserver(observer);
+            observing = false;
+        }
+    }
+
+    private void scheduleRefresh() {
+        // A burst of invalidations needs only one refresh that has not started yet.
+        if (refreshPending.compareAndSet(false, true)) {
+            database.getQueryExecutor().execute(this::refresh);
+        }
+    }
+
+    private synchronized void refresh() {
+        refreshPending.set(false);
+        List<Message> appended = messageDao.fetchTail(chatroomId, lastId);
+        if (appended.isEmpty()) {
+            return;
+        }
+        lastId = appended.get(appended.size() - 1).id;
+        // Posted in cursor order, since refreshes are serialized.
+        mainHandler.post(() -> append(appended));
+    }
+
+    private void append(List<Message> appended) {
+        int start = messages.size();
+        messages.addAll(appended);
+        setValue(new Delta(this, start, appended));
+    }
+}
@@ -0,0 +1,152 @@
+package edu.stevens.cs522.chat.databases;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.Query;
+import androidx.room.Transaction;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.stevens.cs522.chat.entities.DeliveryStatus;
+import edu.stevens.cs522.chat.entities.MessageRecord;
+import edu.stevens.cs522.chat.entities.OutboxEntry;
+import edu.stevens.cs522.chat.entities.OutboxMessage;
+
+/**
+ * The outbox of messages to be delivered (see OutboxEntry).  All of these run
+ * synchronously, on the service's threads or the transaction executor.
+ *
+ * Each change of state is also written to the delivery status of the messages (see
+ * DeliveryStatus), in the same transaction, so the two always agree.
+ */
+@Dao
+public abstract class OutboxDao {
+
+    /*
+     * Most keys bound to one statement, under SQLite's limit of 999 variables.
+     */
+    private static final int MAX_IDS = 500;
+
+    /*
+     * The oldest queued entries, in order of the (state, id) index, with their messages
+     * (the names are primary key lookups, as in MessageDao).
+     */
+    public static final String QUEUED = "SELECT o.id AS outboxId, o.destAddress AS destAddress, o.priority AS priority, "
+            + "m.id AS id, c.name AS chatroom, m.messageText AS messageText, m.timestamp AS timestamp, "
+            + "m.latitude AS latitude, m.longitude AS longitude, p.name AS sender "
+            + "FROM outbox AS o CROSS JOIN messages AS m ON m.id = o.messageId "
+            + "CROSS JOIN Chatroom AS c ON c.id = m.chatroomId CROSS JOIN Peers AS p ON p.id = m.senderId "
+            + "WHERE o.state = 0 ORDER BY o.id LIMIT :limit";
+
+    @Insert
+    protected abstract List<Long> insertMessages(List<MessageRecord> messages);
+
+    @Insert
+    protected abstract List<Long> insertEntries(List<OutboxEntry> entries);
+
+    @Insert
+    protected abstract void insertStatuses(List<DeliveryStatus> statuses);
+
+    /**
+     * Store messages, and queue each with its outbox entry (see OutboxEntry.of), in one
+     * transaction.  Sets the keys of the records, and returns the outbox keys (the
+     * sequence numbers to send with).
+     */
+    @Transaction
+    public List<Long> enqueue(List<MessageRecord> messages, List<OutboxEntry> entries) {
+        List<Long> messageIds = insertMessages(messages);
+        List<DeliveryStatus> statuses = new ArrayList<>(messages.size());
+        for (int i = 0; i < messageIds.size(); i++) {
+            messages.get(i).id = messageIds.get(i);
+            entries.get(i).messageId = messageIds.get(i);
+            statuses.add(DeliveryStatus.queued(messages.get(i)));
+        }
+        insertStatuses(statuses);
+        return insertEntries(entries);
+    }
+
+    /**
+     * The oldest queued messages, up to limit, oldest first.
+     */
+    @Query(QUEUED)
+    public abstract List<OutboxMessage> fetchQueued(int limit);
+
+    @Query("UPDATE delivery_status SET status = :status WHERE messageId IN (SELECT messageId FROM outbox WHERE id IN (:ids))")
+    protected abstract void setStatus(List<Long> ids, int status);
+
+    @Query("UPDATE outbox SET state = 1, attempts = attempts + 1 WHERE id IN (:ids)")
+    protected abstract void markEntriesSending(List<Long> ids);
+
+    /**
+     * The entries have been handed to the transport, one more time.
+     */
+    @Transaction
+    public void markSending(List<Long> ids) {
+        markEntriesSending(ids);
+        setStatus(ids, DeliveryStatus.SENT);
+    }
+
+    @Query("DELETE FROM outbox WHERE id IN (:ids)")
+    protected abstract void deleteAll(List<Long> ids);
+
+    @Query("UPDATE delivery_status SET status = 0 WHERE messageId IN "
+            + "(SELECT messageId FROM outbox WHERE id IN (:ids) AND attempts < :maxAttempts)")
+    protected abstract void setRequeuedStatus(List<Long> ids, int maxAttempts);
+
+    @Query("UPDATE delivery_status SET status = 3 WHERE messageId IN "
+            + "(SELECT messageId FROM outbox WHERE id IN (:ids) AND attempts >= :maxAttempts)")
+    protected abstract void setFailedStatus(List<Long> ids, int maxAttempts);
+
+    @Query("UPDATE outbox SET state = 0 WHERE id IN (:ids) AND attempts < :maxAttempts")
+    protected abstract int requeueAll(List<Long> ids, int maxAttempts);
+
+    @Query("DELETE FROM outbox WHERE id IN (:ids) AND attempts >= :maxAttempts")
+    protected abstract void deleteFailed(List<Long> ids, int maxAttempts);
+
+    /**
+     * Record the outcome of a batch of entries, in one transaction: the acknowledged ones
+     * are done with, and the failed ones are queued to be sent again, unless they have
+     * already been sent maxAttempts times, in which case they are given up on.  Returns
+     * the number queued again.
+     */
+    @Transaction
+    public int settle(List<Long> acked, List<Long> failed, int maxAttempts) {
+        for (int i = 0; i < acked.size(); i += MAX_IDS) {
+            List<Long> ids = acked.subList(i, Math.min(i + MAX_IDS, acked.size()));
+            setStatus(ids, DeliveryStatus.ACKED);
+            deleteAll(ids);
+        }
+        int requeued = 0;
+        for (int i = 0; i < failed.size(); i += MAX_IDS) {
+            List<Long> ids = failed.subList(i, Math.min(i + MAX_IDS, failed.size()));
+            setRequeuedStatus(ids, maxAttempts);
+            setFailedStatus(ids, maxAttempts);
+            requeued += requeueAll(ids, maxAttempts);
+            deleteFailed(ids, maxAttempts);
+        }
+        return requeued;
+    }
+
+    @Query("UPDATE delivery_status SET status = 0 WHERE messageId IN (SELECT messageId FROM outbox WHERE state = 1)")
+    protected abstract void requeueSendingStatus();
+
+    @Query("UPDATE outbox SET state = 0 WHERE state = 1")
+    protected abstract int requeueSendingEntries();
+
+    /**
+     * Queue again the entries that were waiting for acknowledgements when the process
+     * last ended, since those will never come (or be waited for) now.
+     */
+    @Transaction
+    public int requeueSending() {
+        requeueSendingStatus();
+        return requeueSendingEntries();
+    }
+
+    @Query("SELECT COUNT(*) FROM outbox WHERE state = 0")
+    public abstract int countQueued();
+
+    @Query("SELECT COUNT(*) FROM outbox")
+    public abstract int count();
+}
@@ -1,25 +1,52 @@
 package edu.stevens.cs522.chat.databases;
 
+import android.os.Build;
+
 import androidx.lifecycle.LiveData;
 import androidx.room.Dao;
 import androidx.room.Insert;
 import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
+import androidx.room.RoomDatabase;
 import androidx.room.Transaction;
-import androidx.room.Update;
+import androidx.sqlite.db.SupportSQLiteStatement;
+
+import com.google.common.util.concurrent.ListenableFuture;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Instant;
 import java.util.List;
 
 import edu.stevens.cs522.chat.entities.Peer;
+import edu.stevens.cs522.chat.entities.TimestampConverter;
 
 /*
  * TODO add annotations (NB insert should ignore conflicts, for upsert)
  *
- * We will continue to allow insertion to be done on main thread for noew.
+ * Nothing may be done on the main thread: use the async methods, or go through ChatRepository.
  */
 @Dao
 public abstract class PeerDao {
 
+    private static final String UPSERT_SQL = "INSERT INTO Peers (name, timestamp, latitude, longitude) VALUES (?, ?, ?, ?) "
+            + "ON CONFLICT(name) DO UPDATE SET timestamp = excluded.timestamp, latitude = excluded.latitude, longitude = excluded.longitude";
+
+    private static final String UPDATE_SQL = "UPDATE Peers SET timestamp = ?2, latitude = ?3, longitude = ?4 WHERE name = ?1";
+
+    private static final String INSERT_SQL = "INSERT INTO Peers (name, timestamp, latitude, longitude) VALUES (?, ?, ?, ?)";
+
+    private static final String LOOKUP_SQL = "SELECT id FROM Peers WHERE name = ?";
+
+    private final RoomDatabase database;
+
+    /*
+     * Room passes in the database, for the statements Room cannot generate.
+     */
+    public PeerDao(RoomDatabase database) {
+        this.database = database;
+    }
+
     /**
      * Get all peers in the database.
      * @return
@@ -28,12 +55,10 @@ public abstract class PeerDao {
     public abstract LiveData<List<Peer>> fetchAllPeers();
 
     /**
-     * Get the database primary key for a peer, based on chat name.
-     * @param name
-     * @return
+     * Get some peers, synchronously (e.g. to warm a cache).
      */
-    @Query("SELECT id FROM Peers WHERE name LIKE :name LIMIT 1")
-    protected abstract long getPeerId(String name);
+    @Query("SELECT * FROM Peers LIMIT :limit")
+    public abstract List<Peer> fetchPeers(int limit);
 
     /**
      *  Insert a peer and return their primary key (must not already be in database)
@@ -44,29 +69,126 @@ public abstract class PeerDao {
     public abstract long insert(Peer peer);
 
     /**
-     * Update the metadata for a peer (GPS coordinates, last seen)
-     * @param peer
+     * Insert a peer on the transaction executor; the key is -1 if the name is already taken.
      */
-    @Update
-    protected abstract void update(Peer peer);
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    public abstract ListenableFuture<Long> insertAsync(Peer peer);
+
+    /**
+     * Update the metadata for a peer whose primary key is already known.
+     */
+    @Query("UPDATE Peers SET timestamp = :timestamp, latitude = :latitude, longitude = :longitude WHERE id = :id")
+    public abstract void updateMetadata(long id, Instant timestamp, Double latitude, Double longitude);
 
-    @Transaction
     /**
-     * TODO Add a peer record if it does not already exist;
+     * Add a peer record if it does not already exist;
      * update information if it is already defined.
-     * This operation must be transactional, to avoid race condition
-     * between search and insert
+     * Sets the primary key of the peer.
      */
+    @Transaction
     public void upsert(Peer peer) {
-        // TODO
-        long id = getPeerId(peer.name);
-        if (id == 0) {
-            // TODO
-            insert(peer);
-        } else {
-            // TODO
-            peer.id = id;
-            update(peer);
+        try (Upserter upserter = new Upserter()) {
+            upserter.upsert(peer);
+        }
+    }
+
+    /**
+     * Upsert a batch of peers, in one transaction, with statements compiled once
+     * for the whole batch.  Sets the primary key of each peer.
+     */
+    @Transaction
+    public void upsertAll(List<Peer> peers) {
+        try (Upserter upserter = new Upserter()) {
+            for (Peer peer : peers) {
+                upserter.upsert(peer);
+            }
+        }
+    }
+
+    /*
+     * SQLite only has an upsert clause since 3.24, which Android only ships from API 30.
+     * Before that, try an update by name, and insert if it matched nothing: still two
+     * index seeks, but no SELECT in between.  Either way the primary key is then looked
+     * up by name (an update does not report the row id).
+     */
+    private final class Upserter implements Closeable {
+
+        private final boolean nativeUpsert = Build.VERSION.SDK_INT >= Build.VERSION_CODES.R;
+
+        private final SupportSQLiteStatement write;
+
+        private final SupportSQLiteStatement insert;
+
+        private final SupportSQLiteStatement lookup;
+
+        Upserter() {
+            if (nativeUpsert) {
+                write = database.compileStatement(UPSERT_SQL);
+                insert = null;
+            } else {
+                write = database.compileStatement(UPDATE_SQL);
+                insert = database.compileStatement(INSERT_SQL);
+            }
+            lookup = database.compileStatement(LOOKUP_SQL);
+        }
+
+        void upsert(Peer peer) {
+            if (nativeUpsert) {
+                bind(write, peer);
+                write.executeInsert();
+            } else {
+                bind(write, peer);
+                if (write.executeUpdateDelete() == 0) {
+                    bind(insert, peer);
+                    peer.id = insert.executeInsert();
+                    return;
+                }
+            }
+            lookup.bindString(1, peer.name);
+            peer.id = lookup.simpleQueryForLong();
+        }
+
+        /*
+         * All the statements take name, timestamp, latitude and longitude, in that order.
+         */
+        private void bind(SupportSQLiteStatement statement, Peer peer) {
+            statement.bindString(1, peer.name);
+            bindNullable(statement, 2, TimestampConverter.serialize(peer.timestamp));
+            bindNullable(statement, 3, peer.latitude);
+            bindNullable(statement, 4, peer.longitude);
+        }
+
+        private void bindNullable(SupportSQLiteStatement statement, int index, Long value) {
+            if (value == null) {
+                statement.bindNull(index);
+            } else {
+                statement.bindLong(index, value);
+            }
+        }
+
+        private void bindNullable(SupportSQLiteStatement statement, int index, Double value) {
+            if (value == null) {
+                statement.bindNull(index);
+            } else {
+                statement.bindDouble(index, value);
+            }
+        }
+
+        @Override
+        public void close() {
+            closeQuietly(write);
+            closeQuietly(insert);
+            closeQuietly(lookup);
+        }
+
+        private void closeQuietly(SupportSQLiteStatement statement) {
+            try {
+                if (statement != null) {
+                    statement.close();
+                }
+            } catch (IOException e) {
+                // Nothing to do
+            }
         }
     }
 }
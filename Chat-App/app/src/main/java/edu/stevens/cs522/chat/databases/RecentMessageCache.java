@@ -0,0 +1,260 @@
+package edu.stevens.cs522.chat.databases;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.stevens.cs522.chat.entities.Message;
+
+/**
+ * The most recent messages in each chatroom, held in memory for the whole process, so that
+ * the first screen of a chatroom can be shown without going to disk.
+ *
+ * Each chatroom has a window of up to maxPerChatroom messages, in (timestamp, id) order.
+ * A window is always exactly the latest messages in its chatroom (or all of them, if it is
+ * complete): it is seeded from the database (see beginLoad and completeLoad), and then
+ * kept up to date by the service, which adds every message it stores.  Messages are
+ * never updated or deleted, so nothing else can make a window stale.
+ *
+ * Windows are evicted least recently used first, once the cache holds more than
+ * maxMessages messages or maxBytes (estimated) bytes in all.
+ */
+public class RecentMessageCache {
+
+    /*
+     * Rough size of a message in memory, apart from its strings.
+     */
+    private static final int MESSAGE_OVERHEAD = 96;
+
+    private static final Comparator<Message> ORDER = Comparator
+            .comparing((Message message) -> message.timestamp, Comparator.nullsFirst(Comparator.naturalOrder()))
+            .thenComparingLong(message -> message.id);
+
+    /*
+     * The latest messages in a chatroom, oldest first.  While it is loading, messages
+     * added by the service are kept, but the window is not served.
+     */
+    private static final class Window {
+
+        final List<Message> messages = new ArrayList<>();
+
+        long bytes;
+
+        boolean loading = true;
+
+        // All the messages in the chatroom, not just the latest (until some are dropped).
+        boolean complete = true;
+    }
+
+    // In order of use, least recent first (see touch).
+    private final Map<Long, Window> windows = new LinkedHashMap<>();
+
+    private final int maxPerChatroom;
+
+    private final int maxMessages;
+
+    private final long maxBytes;
+
+    private int messageCount;
+
+    private long byteCount;
+
+    /*
+     * Metrics
+     */
+    private long hits;
+
+    private long misses;
+
+    private long evictions;
+
+    public RecentMessageCache(int maxPerChatroom, int maxMessages, long maxBytes) {
+        this.maxPerChatroom = maxPerChatroom;
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+    }
+
+    public int getMaxPerChatroom() {
+        return maxPerChatroom;
+    }
+
+    /**
+     * The latest count messages in a chatroom with ids up to lastId, oldest first, or null
+     * if the cache cannot say what they are.
+     */
+    public synchronized List<Message> getLatest(long chatroomId, long lastId, int count) {
+        Window window = windows.get(chatroomId);
+        if (window != null && !window.loading) {
+            List<Message> result = latest(window.messages, window.complete, lastId, count);
+            if (result != null) {
+                hits++;
+                touch(chatroomId, window);
+                return result;
+            }
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * The latest count messages with ids up to lastId, oldest first, from the latest
+     * messages in a chatroom (all of them, if complete), or null if there are too few.
+     */
+    public static List<Message> latest(List<Message> window, boolean complete, long lastId, int count) {
+        /*
+         * Messages after lastId are skipped.  Any message not in the window is older than
+         * all those in it, so what is left is the latest up to lastId, as long as there
+         * are enough of them (or there are no others).
+         */
+        List<Message> result = new ArrayList<>(count);
+        for (int i = window.size() - 1; i >= 0 && result.size() < count; i--) {
+            Message message = window.get(i);
+            if (message.id <= lastId) {
+                result.add(message);
+            }
+        }
+        if (result.size() < count && !complete) {
+            return null;
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    /**
+     * Start loading the window for a chatroom from the database.  Messages added from now
+     * on are kept, so that none committed during the load are missed.  Returns null if the
+     * chatroom is already cached (or being loaded).
+     */
+    public synchronized Object beginLoad(long chatroomId) {
+        if (windows.containsKey(chatroomId)) {
+            return null;
+        }
+        Window window = new Window();
+        windows.put(chatroomId, window);
+        return window;
+    }
+
+    /**
+     * Finish loading a window with the latest messages in the chatroom, read after
+     * beginLoad, oldest first; complete if there are no others.  If the window was
+     * evicted meanwhile, it is not reinstated, since messages may have been missed.
+     */
+    public synchronized void completeLoad(long chatroomId, Object token, List<Message> latest, boolean complete) {
+        Window window = windows.get(chatroomId);
+        if (window == null || window != token) {
+            return;
+        }
+        window.complete &= complete;
+        for (Message message : latest) {
+            insert(window, message);
+        }
+        window.loading = false;
+        evict();
+    }
+
+    /**
+     * Give up loading a window, e.g. because the read failed.
+     */
+    public synchronized void cancelLoad(long chatroomId, Object token) {
+        Window window = windows.get(chatroomId);
+        if (window != null && window == token) {
+            remove(chatroomId, window);
+        }
+    }
+
+    /**
+     * Add a message, once it has been stored (so that it has its id).  Only chatrooms
+     * already cached are affected; others will be loaded from the database when needed.
+     */
+    public synchronized void add(long chatroomId, Message message) {
+        Window window = windows.get(chatroomId);
+        if (window != null) {
+            insert(window, message);
+            evict();
+        }
+    }
+
+    /*
+     * Insert a message in order (it is usually the latest), ignoring duplicates, and keep
+     * the window within maxPerChatroom.
+     */
+    private void insert(Window window, Message message) {
+        List<Message> messages = window.messages;
+        int i = messages.size();
+        while (i > 0 && ORDER.compare(messages.get(i - 1), message) > 0) {
+            i--;
+        }
+        if (i > 0 && messages.get(i - 1).id == message.id) {
+            return;
+        }
+        if (i == 0 && !window.complete && !window.loading && messages.size() >= maxPerChatroom) {
+            // Older than anything in a full window, so it is not among the latest.
+            return;
+        }
+        messages.add(i, message);
+        long size = sizeOf(message);
+        window.bytes += size;
+        byteCount += size;
+        messageCount++;
+        while (messages.size() > maxPerChatroom) {
+            Message oldest = messages.remove(0);
+            size = sizeOf(oldest);
+            window.bytes -= size;
+            byteCount -= size;
+            messageCount--;
+            window.complete = false;
+        }
+    }
+
+    /*
+     * Evict the least recently used chatrooms until the cache is within its limits.
+     */
+    private void evict() {
+        Iterator<Window> it = windows.values().iterator();
+        while ((messageCount > maxMessages || byteCount > maxBytes) && it.hasNext()) {
+            Window window = it.next();
+            it.remove();
+            messageCount -= window.messages.size();
+            byteCount -= window.bytes;
+            evictions++;
+        }
+    }
+
+    /*
+     * Only the UI reading a chatroom counts as a use, not the service adding to it.
+     */
+    private void touch(long chatroomId, Window window) {
+        windows.remove(chatroomId);
+        windows.put(chatroomId, window);
+    }
+
+    private void remove(long chatroomId, Window window) {
+        windows.remove(chatroomId);
+        messageCount -= window.messages.size();
+        byteCount -= window.bytes;
+    }
+
+    private static long sizeOf(Message message) {
+        return MESSAGE_OVERHEAD + 2L * (length(message.messageText) + length(message.chatroom) + length(message.sender));
+    }
+
+    private static int length(String s) {
+        return s == null ? 0 : s.length();
+    }
+
+    public synchronized double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    public synchronized void dump(PrintWriter pw) {
+        pw.println("Recent message cache:");
+        pw.printf("  chatrooms=%d messages=%d/%d bytes=%d/%d%n", windows.size(), messageCount, maxMessages, byteCount, maxBytes);
+        pw.printf("  hits=%d misses=%d hit rate=%.2f evictions=%d%n", hits, misses, getHitRate(), evictions);
+    }
+}
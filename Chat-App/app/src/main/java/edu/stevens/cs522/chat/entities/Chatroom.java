@@ -3,6 +3,7 @@ package edu.stevens.cs522.chat.entities;
 import android.os.Parcel;
 import android.os.Parcelable;
 
+import androidx.room.ColumnInfo;
 import androidx.room.Entity;
 import androidx.room.Ignore;
 import androidx.room.Index;
@@ -12,7 +13,7 @@ import androidx.room.PrimaryKey;
  * Created by dduggan.
  */
 
-@Entity(indices = {@Index(value = {"name"}, unique = true)})
+@Entity(indices = {@Index(value = {"name"}, unique = true), @Index(value = {"nameKey"})})
 public class Chatroom implements Parcelable {
 
     // Primary key in the database
@@ -22,11 +23,20 @@ public class Chatroom implements Parcelable {
     // Name of the chat room
     public String name;
 
+    /*
+     * The name again, compared ignoring (ASCII) case, for prefix search in the chatroom
+     * directory (see ChatroomDao).  The name itself stays case sensitive, so that its
+     * uniqueness is unchanged.
+     */
+    @ColumnInfo(collate = ColumnInfo.NOCASE)
+    public String nameKey;
+
     public Chatroom() { }
 
     @Ignore
     public Chatroom(String name) {
         this.name = name;
+        this.nameKey = name;
     }
 
     @Override
@@ -37,6 +47,7 @@ public class Chatroom implements Parcelable {
     protected Chatroom(Parcel in) {
         id = in.readLong();
         name = in.readString();
+        nameKey = name;
     }
 
     @Override
@@ -0,0 +1,43 @@
+package edu.stevens.cs522.chat.entities;
+
+import androidx.room.Embedded;
+
+import java.time.Instant;
+
+/**
+ * A chatroom as shown in the chatroom list: its summary, and a preview of its last message.
+ */
+public class ChatroomPreview {
+
+    private static final int PREVIEW_LENGTH = 40;
+
+    @Embedded
+    public Chatroom chatroom;
+
+    public Instant lastTimestamp;
+
+    public int messageCount;
+
+    public int unreadCount;
+
+    public String lastSender;
+
+    public String lastMessageText;
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder(chatroom.name);
+        if (unreadCount > 0) {
+            text.append(" (").append(unreadCount).append(')');
+        }
+        if (lastMessageText != null) {
+            text.append('\n').append(lastSender).append(": ");
+            if (lastMessageText.length() > PREVIEW_LENGTH) {
+                text.append(lastMessageText, 0, PREVIEW_LENGTH).append('\u2026');
+            } else {
+                text.append(lastMessageText);
+            }
+        }
+        return text.toString();
+    }
+}
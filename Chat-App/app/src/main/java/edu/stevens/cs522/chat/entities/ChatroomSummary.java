@@ -0,0 +1,37 @@
+package edu.stevens.cs522.chat.entities;
+
+import androidx.room.Entity;
+import androidx.room.ForeignKey;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+import java.time.Instant;
+
+/**
+ * Per-chatroom totals for the chatroom list, kept up to date by triggers on Chatroom and
+ * messages (see ChatMigrations.createSummaryTriggers), so that the list costs a row per
+ * chatroom rather than an aggregate over all messages.  The last message is the latest
+ * in (timestamp, id) order, as in the chatroom itself, and lastMessageId is 0 if there
+ * are no messages.  Messages are never deleted, so the totals only ever go up, apart
+ * from unreadCount, which is reset when the chatroom is read.
+ *
+ * The index on (lastTimestamp, chatroomId) is the order of the chatroom directory, most
+ * recently active first, so that a page of it is read straight off the index.
+ */
+@Entity(tableName = "chatroom_summary",
+        indices = {@Index(value = {"lastTimestamp", "chatroomId"})},
+        foreignKeys = @ForeignKey(entity = Chatroom.class, onDelete = ForeignKey.CASCADE,
+                parentColumns = "id", childColumns = "chatroomId"))
+public class ChatroomSummary {
+
+    @PrimaryKey
+    public long chatroomId;
+
+    public long lastMessageId;
+
+    public Instant lastTimestamp;
+
+    public int messageCount;
+
+    public int unreadCount;
+}
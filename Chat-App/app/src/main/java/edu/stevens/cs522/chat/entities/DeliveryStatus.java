@@ -0,0 +1,73 @@
+package edu.stevens.cs522.chat.entities;
+
+import androidx.room.Entity;
+import androidx.room.ForeignKey;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+import java.util.Objects;
+
+/**
+ * The delivery status of a message sent from this device, updated by the outbox (see
+ * OutboxDao) as it is sent and acknowledged.  Received messages have none.
+ *
+ * It is kept out of messages, since any update of a row there also rewrites its entry
+ * in the full-text index (see MessageFts).  The chatroom key is copied from the message,
+ * so that the undelivered messages in a chatroom are a few seeks of the (chatroomId,
+ * status) index, which also covers the query.
+ *
+ * Equal if the status is, so an unchanged list of these need not be dispatched again.
+ */
+@Entity(tableName = "delivery_status",
+        foreignKeys = @ForeignKey(entity = MessageRecord.class, onDelete = ForeignKey.CASCADE,
+                parentColumns = "id", childColumns = "messageId"),
+        indices = @Index(value = {"chatroomId", "status"}))
+public class DeliveryStatus {
+
+    /*
+     * Waiting in the outbox (the same values as OutboxEntry.state while it is there).
+     */
+    public static final int QUEUED = 0;
+
+    /*
+     * Sent, and waiting for an acknowledgement.
+     */
+    public static final int SENT = 1;
+
+    public static final int ACKED = 2;
+
+    /*
+     * Given up on, after outbox_max_deliveries.
+     */
+    public static final int FAILED = 3;
+
+    // Primary key of the MessageRecord
+    @PrimaryKey
+    public long messageId;
+
+    public long chatroomId;
+
+    public int status;
+
+    public static DeliveryStatus queued(MessageRecord message) {
+        DeliveryStatus status = new DeliveryStatus();
+        status.messageId = message.id;
+        status.chatroomId = message.chatroomId;
+        status.status = QUEUED;
+        return status;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof DeliveryStatus)) {
+            return false;
+        }
+        DeliveryStatus that = (DeliveryStatus) other;
+        return messageId == that.messageId && chatroomId == that.chatroomId && status == that.status;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(messageId, chatroomId, status);
+    }
+}
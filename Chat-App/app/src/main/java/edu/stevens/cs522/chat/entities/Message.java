@@ -3,28 +3,18 @@ package edu.stevens.cs522.chat.entities;
 import android.os.Parcel;
 import android.os.Parcelable;
 
-import androidx.room.Entity;
-import androidx.room.ForeignKey;
-import androidx.room.Index;
-import androidx.room.PrimaryKey;
-
 import java.time.Instant;
 
 /**
  * Created by dduggan.
+ *
+ * A message as the app sees it, with its chatroom and sender by name.  It is stored as a
+ * MessageRecord, which refers to them by key instead; the queries in MessageDao join the
+ * names back in.
  */
-
-// TODO annotate (including FK constraints)
-// You must also declare indices on the FK columns, otherwise integrity checking
-// may trigger a linear search of this table.
-@Entity(tableName="messages",
-        foreignKeys = @ForeignKey(
-                entity = Peer.class, onDelete=ForeignKey.CASCADE, parentColumns = "name", childColumns = "sender"),
-        indices = {@Index(value = "sender")})
 public class Message implements Parcelable {
 
-    // TODO annotate
-    @PrimaryKey(autoGenerate = true)
+    // Primary key of the MessageRecord
     public long id;
 
     public String chatroom;
@@ -46,7 +36,7 @@ public class Message implements Parcelable {
         id = in.readLong();
         chatroom = in.readString();
         messageText = in.readString();
-        timestamp = TimestampConverter.deserialize(in.readString());
+        timestamp = TimestampConverter.deserialize((Long) in.readValue(Long.class.getClassLoader()));
         latitude = in.readDouble();
         longitude = in.readDouble();
         sender = in.readString();
@@ -67,7 +57,7 @@ public class Message implements Parcelable {
         out.writeLong(id);
         out.writeString(chatroom);
         out.writeString(messageText);
-        out.writeString(TimestampConverter.serialize(timestamp));
+        out.writeValue(TimestampConverter.serialize(timestamp));
         out.writeDouble(latitude);
         out.writeDouble(longitude);
         out.writeString(sender);
@@ -0,0 +1,19 @@
+package edu.stevens.cs522.chat.entities;
+
+import androidx.room.Entity;
+import androidx.room.Fts4;
+
+/**
+ * Full-text index of message bodies.
+ *
+ * The index is external content: the text itself is only stored in messages, and Room
+ * keeps the index in step with triggers on that table.  Rows of the index share their
+ * rowid (docid) with the message they index.
+ */
+@Fts4(contentEntity = MessageRecord.class)
+@Entity(tableName = "messages_fts")
+public class MessageFts {
+
+    public String messageText;
+
+}
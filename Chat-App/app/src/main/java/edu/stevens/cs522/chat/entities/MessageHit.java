@@ -0,0 +1,18 @@
+package edu.stevens.cs522.chat.entities;
+
+import androidx.room.Embedded;
+
+/**
+ * A message matching a full-text search, with an excerpt of its text around the matching
+ * terms (marked by [ and ]), and the number of terms it matched.
+ */
+public class MessageHit {
+
+    @Embedded
+    public Message message;
+
+    public String snippet;
+
+    public int hits;
+
+}
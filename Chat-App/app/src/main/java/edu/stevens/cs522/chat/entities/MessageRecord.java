@@ -0,0 +1,65 @@
+package edu.stevens.cs522.chat.entities;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.ForeignKey;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+import java.time.Instant;
+
+/**
+ * A message as stored: the chatroom and sender are foreign keys, rather than names
+ * repeated in every row, so rows and indices are smaller and filters compare integers.
+ *
+ * The FK columns are indexed, otherwise integrity checking would trigger a linear search
+ * of this table; the chatroom key leads the index for reading a chatroom in order.
+ *
+ * A received message also keeps the sequence number its sender gave it, which with the
+ * sender and the sender's epoch identifies it: the unique index on the three keeps out
+ * duplicates (see DuplicateFilter).  Messages without one (our own, or from older peers)
+ * have a null seq, and SQLite never considers nulls equal.  Peers that send no epoch
+ * have epoch zero.
+ */
+@Entity(tableName = "messages",
+        foreignKeys = {
+                @ForeignKey(entity = Chatroom.class, onDelete = ForeignKey.CASCADE,
+                        parentColumns = "id", childColumns = "chatroomId"),
+                @ForeignKey(entity = Peer.class, onDelete = ForeignKey.CASCADE,
+                        parentColumns = "id", childColumns = "senderId")},
+        indices = {@Index(value = "senderId"), @Index(value = {"chatroomId", "timestamp", "id"}),
+                @Index(value = {"senderId", "epoch", "seq"}, unique = true)})
+public class MessageRecord {
+
+    @PrimaryKey(autoGenerate = true)
+    public long id;
+
+    public long chatroomId;
+
+    public String messageText;
+
+    public Instant timestamp;
+
+    public Double latitude;
+
+    public Double longitude;
+
+    public long senderId;
+
+    public Long seq;
+
+    @ColumnInfo(defaultValue = "0")
+    public long epoch;
+
+    public static MessageRecord of(Message message, long chatroomId, long senderId) {
+        MessageRecord record = new MessageRecord();
+        record.id = message.id;
+        record.chatroomId = chatroomId;
+        record.messageText = message.messageText;
+        record.timestamp = message.timestamp;
+        record.latitude = message.latitude;
+        record.longitude = message.longitude;
+        record.senderId = senderId;
+        return record;
+    }
+}
@@ -0,0 +1,66 @@
+package edu.stevens.cs522.chat.entities;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.ForeignKey;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+/**
+ * A message waiting to be delivered to a peer.  The message itself is stored first, in
+ * messages, and the entry refers to it, so both survive the process until the peer
+ * acknowledges the message (when the entry is deleted).
+ *
+ * The primary key is also the sequence number the message is sent with, so that it is
+ * the same on every retransmission, even after a restart.  AUTOINCREMENT means keys are
+ * never reused, so sequence numbers keep increasing.
+ *
+ * The index on (state, id) gives the queued entries in order, for the outbox to be
+ * drained in batches without a sort.
+ *
+ * The priority class (see SendPriority) is kept with the entry, so that a message sent
+ * again after a restart is scheduled as it was the first time.
+ */
+@Entity(tableName = "outbox",
+        foreignKeys = @ForeignKey(entity = MessageRecord.class, onDelete = ForeignKey.CASCADE,
+                parentColumns = "id", childColumns = "messageId"),
+        indices = {@Index(value = {"state", "id"}), @Index(value = "messageId")})
+public class OutboxEntry {
+
+    /*
+     * Waiting to be sent.
+     */
+    public static final int QUEUED = 0;
+
+    /*
+     * Sent, and waiting for an acknowledgement (see AckTracker).
+     */
+    public static final int SENDING = 1;
+
+    @PrimaryKey(autoGenerate = true)
+    public long id;
+
+    public long messageId;
+
+    public String destAddress;
+
+    public int state;
+
+    // How many times the entry has been sent (each time retransmitted up to ack_max_attempts)
+    public int attempts;
+
+    // Ordinal of the SendPriority
+    @ColumnInfo(defaultValue = "1")
+    public int priority;
+
+    /*
+     * An entry for a message that is about to be stored (see OutboxDao.enqueue).
+     */
+    public static OutboxEntry of(String destAddress, int priority) {
+        OutboxEntry entry = new OutboxEntry();
+        entry.destAddress = destAddress;
+        entry.state = QUEUED;
+        entry.priority = priority;
+        return entry;
+    }
+}
@@ -0,0 +1,20 @@
+package edu.stevens.cs522.chat.entities;
+
+import androidx.room.Embedded;
+
+/**
+ * A queued outbox entry with its message, as read for sending.
+ */
+public class OutboxMessage {
+
+    // Primary key of the OutboxEntry, and sequence number of the message
+    public long outboxId;
+
+    public String destAddress;
+
+    // Ordinal of the SendPriority
+    public int priority;
+
+    @Embedded
+    public Message message;
+}
@@ -42,7 +42,7 @@ public class Peer implements Parcelable {
         // TODO
         id = in.readLong();
         name = in.readString();
-        timestamp = TimestampConverter.deserialize(in.readString());
+        timestamp = TimestampConverter.deserialize((Long) in.readValue(Long.class.getClassLoader()));
         latitude = in.readDouble();
         longitude = in.readDouble();
     }
@@ -57,7 +57,7 @@ public class Peer implements Parcelable {
         // TODO
         out.writeLong(id);
         out.writeString(name);
-        out.writeString(TimestampConverter.serialize(timestamp));
+        out.writeValue(TimestampConverter.serialize(timestamp));
         out.writeDouble(latitude);
         out.writeDouble(longitude);
     }
@@ -0,0 +1,245 @@
+package edu.stevens.cs522.chat.repository;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.lifecycle.LiveData;
+import androidx.paging.PagingSource;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.stevens.cs522.chat.R;
+import edu.stevens.cs522.chat.databases.ChatDatabase;
+import edu.stevens.cs522.chat.databases.ChatroomDao;
+import edu.stevens.cs522.chat.databases.ChatroomDirectorySource;
+import edu.stevens.cs522.chat.databases.MessageKey;
+import edu.stevens.cs522.chat.databases.MessagePagingSource;
+import edu.stevens.cs522.chat.databases.MessageTail;
+import edu.stevens.cs522.chat.databases.RecentMessageCache;
+import edu.stevens.cs522.chat.entities.Chatroom;
+import edu.stevens.cs522.chat.entities.ChatroomPreview;
+import edu.stevens.cs522.chat.entities.DeliveryStatus;
+import edu.stevens.cs522.chat.entities.Message;
+import edu.stevens.cs522.chat.entities.MessageRecord;
+import edu.stevens.cs522.chat.entities.OutboxEntry;
+import edu.stevens.cs522.chat.entities.Peer;
+import edu.stevens.cs522.chat.services.SendPriority;
+
+/**
+ * The one way into ChatDatabase, for the UI and the service.
+ *
+ * The database is opened once per process (however many callers race to be first), with
+ * main thread queries turned off.  Queries run on a pool of database_query_threads; all
+ * writes run on one transaction thread, since SQLite only has one writer anyway, so that
+ * writes queue up behind each other rather than holding query threads while they wait
+ * for the write lock.  Reads are LiveData (Room runs them on the query pool); writes
+ * return ListenableFutures, completed on the transaction thread.  Use getMainExecutor()
+ * for callbacks that touch the UI.
+ */
+public class ChatRepository {
+
+    private static final String TAG = ChatRepository.class.getCanonicalName();
+
+    private static volatile ChatRepository instance;
+
+    private final ChatDatabase chatDatabase;
+
+    private final ThreadPoolExecutor queryExecutor;
+
+    private final ThreadPoolExecutor transactionExecutor;
+
+    private final Executor mainExecutor;
+
+    private final RecentMessageCache recentMessages;
+
+    public static ChatRepository getInstance(Context context) {
+        ChatRepository repository = instance;
+        if (repository == null) {
+            synchronized (ChatRepository.class) {
+                repository = instance;
+                if (repository == null) {
+                    repository = new ChatRepository(context.getApplicationContext());
+                    instance = repository;
+                }
+            }
+        }
+        return repository;
+    }
+
+    private ChatRepository(Context context) {
+        int queryThreads = context.getResources().getInteger(R.integer.database_query_threads);
+        Log.d(TAG, "Opening database with " + queryThreads + " query threads");
+        queryExecutor = newExecutor("db-query", queryThreads);
+        transactionExecutor = newExecutor("db-transaction", 1);
+        Handler mainHandler = new Handler(Looper.getMainLooper());
+        mainExecutor = mainHandler::post;
+        chatDatabase = ChatDatabase.create(context, queryExecutor, transactionExecutor);
+        recentMessages = new RecentMessageCache(
+                context.getResources().getInteger(R.integer.recent_messages_per_chatroom),
+                context.getResources().getInteger(R.integer.recent_messages_max_count),
+                context.getResources().getInteger(R.integer.recent_messages_max_bytes));
+    }
+
+    /*
+     * A fixed pool of named threads (so they can be told apart in traces), which are
+     * allowed to time out when the database is idle.
+     */
+    private static ThreadPoolExecutor newExecutor(String name, int threads) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = runnable -> new Thread(runnable, name + "-" + count.incrementAndGet());
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), factory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * The database itself, for code that is already off the main thread and needs more
+     * than this class offers (e.g. the receive pipeline in the service).
+     */
+    public ChatDatabase getDatabase() {
+        return chatDatabase;
+    }
+
+    /**
+     * The latest messages in each chatroom, shared by everything in the process.  Whatever
+     * stores a message must add it here once it has committed.
+     */
+    public RecentMessageCache getRecentMessages() {
+        return recentMessages;
+    }
+
+    /**
+     * Runs tasks on the main thread, e.g. callbacks for the futures returned here.
+     */
+    public Executor getMainExecutor() {
+        return mainExecutor;
+    }
+
+    /*
+     * Reads
+     */
+
+    /**
+     * The chatroom directory, with a preview and unread count for each (see ChatroomSummary),
+     * a page at a time, or just the chatrooms whose names start with the text typed in the
+     * search box (see ChatroomDirectorySource).
+     */
+    public PagingSource<Integer, ChatroomPreview> fetchDirectory(String search) {
+        return new ChatroomDirectorySource(chatDatabase, chatDatabase.chatroomDao(), ChatroomDao.toPrefix(search));
+    }
+
+    public LiveData<List<Peer>> fetchAllPeers() {
+        return chatDatabase.peerDao().fetchAllPeers();
+    }
+
+    public LiveData<List<Message>> fetchMessagesFromPeer(Peer peer) {
+        return chatDatabase.messageDao().fetchMessagesFromPeer(peer.id);
+    }
+
+    /**
+     * Messages in a chatroom up to lastId, a page at a time (see MessagePagingSource).
+     */
+    public PagingSource<MessageKey, Message> fetchMessagePages(long chatroomId, long lastId) {
+        return new MessagePagingSource(chatDatabase, chatDatabase.messageDao(), recentMessages, chatroomId, lastId);
+    }
+
+    /**
+     * Messages added to a chatroom after lastId, as they are stored (see MessageTail).
+     */
+    public MessageTail fetchNewMessages(long chatroomId, long lastId) {
+        return new MessageTail(chatDatabase, chatDatabase.messageDao(), chatroomId, lastId);
+    }
+
+    /**
+     * The delivery status of the messages sent to a chatroom that are not yet delivered
+     * (see DeliveryStatus), as one list for the whole chatroom.
+     */
+    public LiveData<List<DeliveryStatus>> fetchUndelivered(long chatroomId) {
+        return chatDatabase.messageDao().fetchUndelivered(chatroomId);
+    }
+
+    /**
+     * The id of the last message stored, computed on the query pool.
+     */
+    public ListenableFuture<Long> fetchLastId() {
+        return Futures.submit(() -> chatDatabase.messageDao().fetchLastId(), queryExecutor);
+    }
+
+    /*
+     * Writes
+     */
+
+    /**
+     * Add a chatroom; the result is its key, or -1 if it already exists.
+     */
+    public ListenableFuture<Long> insertChatroom(Chatroom chatroom) {
+        return chatDatabase.chatroomDao().insertAsync(chatroom);
+    }
+
+    /**
+     * Mark all the messages in a chatroom as read.
+     */
+    public ListenableFuture<Integer> markRead(long chatroomId) {
+        return chatDatabase.chatroomDao().markRead(chatroomId);
+    }
+
+    /**
+     * Add a peer; the result is its key, or -1 if the name is already taken.
+     */
+    public ListenableFuture<Long> insertPeer(Peer peer) {
+        return chatDatabase.peerDao().insertAsync(peer);
+    }
+
+    /**
+     * Store a message to be sent, with its chatroom and sender, and queue it in the outbox
+     * for delivery by the service (see OutboxWorker).  The result is its outbox key.
+     */
+    public ListenableFuture<Long> enqueueMessage(Message message, String destAddress) {
+        return Futures.submit(() -> {
+            List<MessageRecord> records = new ArrayList<>(1);
+            long outboxId = chatDatabase.runInTransaction(() -> {
+                ChatroomDao chatroomDao = chatDatabase.chatroomDao();
+                chatroomDao.insert(new Chatroom(message.chatroom));
+                long chatroomId = chatroomDao.fetchChatroomsNamed(Collections.singletonList(message.chatroom)).get(0).id;
+                Peer sender = new Peer();
+                sender.name = message.sender;
+                sender.timestamp = message.timestamp;
+                sender.latitude = message.latitude;
+                sender.longitude = message.longitude;
+                chatDatabase.peerDao().upsert(sender);
+                records.add(MessageRecord.of(message, chatroomId, sender.id));
+                List<OutboxEntry> entries = Collections.singletonList(OutboxEntry.of(destAddress, SendPriority.INTERACTIVE.ordinal()));
+                return chatDatabase.outboxDao().enqueue(records, entries).get(0);
+            });
+            // Only cache the message once it has been committed.
+            MessageRecord record = records.get(0);
+            message.id = record.id;
+            recentMessages.add(record.chatroomId, message);
+            return outboxId;
+        }, transactionExecutor);
+    }
+
+    public void dump(PrintWriter pw) {
+        recentMessages.dump(pw);
+        pw.println("Database executors:");
+        pw.printf("  query: threads=%d active=%d queued=%d completed=%d%n", queryExecutor.getPoolSize(),
+                queryExecutor.getActiveCount(), queryExecutor.getQueue().size(), queryExecutor.getCompletedTaskCount());
+        pw.printf("  transaction: threads=%d active=%d queued=%d completed=%d%n", transactionExecutor.getPoolSize(),
+                transactionExecutor.getActiveCount(), transactionExecutor.getQueue().size(), transactionExecutor.getCompletedTaskCount());
+    }
+}
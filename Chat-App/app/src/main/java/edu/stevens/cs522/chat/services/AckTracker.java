@@ -0,0 +1,231 @@
+package edu.stevens.cs522.chat.services;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.stevens.cs522.chat.transport.NioDatagramConnection;
+
+/**
+ * Tracks messages that have been sent but not yet acknowledged.
+ *
+ * Each message is registered under its sequence number when it is first sent.  If no
+ * acknowledgement arrives within the timeout, the datagram is sent again, with the
+ * timeout doubling on each attempt, until maxAttempts is reached.  The outcome is
+ * reported to the listener (see DeliveryStatusWriter) from the thread that learns of it,
+ * so the send thread never waits and any number of messages may be in flight.
+ * Sequence numbers are the keys of the outbox (see OutboxEntry).
+ *
+ * Only an acknowledgement from the host the message was sent to counts: anyone else
+ * could otherwise stop the retransmission of a message that never arrived.
+ */
+public class AckTracker {
+
+    private static final String TAG = AckTracker.class.getCanonicalName();
+
+    public interface Transmitter {
+        void transmit(String address, byte[] content) throws IOException;
+    }
+
+    public interface Listener {
+        void onAcknowledged(long seq);
+
+        void onFailed(long seq);
+    }
+
+    private static final class Pending {
+        final long seq;
+        final String address;
+        // Host the acknowledgement must come from, as a literal address if it resolves.
+        final String host;
+        final byte[] content;
+        final long firstSentNanos;
+        int attempts = 1;
+        long timeoutMillis;
+        ScheduledFuture<?> retransmission;
+
+        Pending(long seq, String address, byte[] content, long timeoutMillis) {
+            this.seq = seq;
+            this.address = address;
+            this.host = hostAddress(address);
+            this.content = content;
+            this.timeoutMillis = timeoutMillis;
+            this.firstSentNanos = System.nanoTime();
+        }
+    }
+
+    private final Transmitter transmitter;
+
+    private final Listener listener;
+
+    private final long initialTimeoutMillis;
+
+    private final int maxAttempts;
+
+    private final Map<Long, Pending> pending = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService timer;
+
+    /*
+     * Metrics
+     */
+    private final AtomicLong acked = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final AtomicLong retransmitted = new AtomicLong();
+
+    private final AtomicLong duplicateAcks = new AtomicLong();
+
+    private final AtomicLong foreignAcks = new AtomicLong();
+
+    private final AtomicLong totalRoundTripNanos = new AtomicLong();
+
+    public AckTracker(Transmitter transmitter, Listener listener, long initialTimeoutMillis, int maxAttempts) {
+        this.transmitter = transmitter;
+        this.listener = listener;
+        this.initialTimeoutMillis = initialTimeoutMillis;
+        this.maxAttempts = maxAttempts;
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        executor.setRemoveOnCancelPolicy(true);
+        this.timer = executor;
+    }
+
+    /**
+     * Start waiting for the acknowledgement of a packet that has just been sent, in its
+     * raw encoding (it is retransmitted on its own, even if it was first sent in a frame).
+     */
+    public void track(long seq, String address, byte[] content) {
+        Pending entry = new Pending(seq, address, content, initialTimeoutMillis);
+        pending.put(seq, entry);
+        schedule(entry);
+    }
+
+    /**
+     * Called by the receive pipeline when an acknowledgement arrives from the host
+     * source (see InboundPacket.getAddress).
+     */
+    public void acknowledged(long seq, String source) {
+        Pending entry = pending.get(seq);
+        if (entry != null && !entry.host.equals(source)) {
+            Log.w(TAG, "Ignoring ack of message " + seq + " from " + source + ", it was sent to " + entry.address);
+            foreignAcks.incrementAndGet();
+            return;
+        }
+        if (entry == null || !pending.remove(seq, entry)) {
+            // Late ack for a message that was already acked (or given up on).
+            duplicateAcks.incrementAndGet();
+            return;
+        }
+        cancel(entry);
+        acked.incrementAndGet();
+        totalRoundTripNanos.addAndGet(System.nanoTime() - entry.firstSentNanos);
+        Log.d(TAG, "Message " + seq + " acknowledged after " + entry.attempts + " attempt(s).");
+        listener.onAcknowledged(seq);
+    }
+
+    /*
+     * Messages still in flight stay in the outbox, to be sent again by the next service,
+     * so they are not reported as failed to the listener.
+     */
+    public void shutdown() {
+        timer.shutdownNow();
+        pending.clear();
+    }
+
+    private void schedule(Pending entry) {
+        synchronized (entry) {
+            entry.retransmission = timer.schedule(() -> onTimeout(entry.seq), entry.timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void cancel(Pending entry) {
+        synchronized (entry) {
+            if (entry.retransmission != null) {
+                entry.retransmission.cancel(false);
+            }
+        }
+    }
+
+    private void onTimeout(long seq) {
+        Pending entry = pending.get(seq);
+        if (entry == null) {
+            return;
+        }
+        if (entry.attempts >= maxAttempts) {
+            if (pending.remove(seq) != null) {
+                Log.w(TAG, "Giving up on message " + seq + " after " + entry.attempts + " attempts.");
+                fail(entry);
+            }
+            return;
+        }
+        entry.attempts++;
+        entry.timeoutMillis *= 2;
+        retransmitted.incrementAndGet();
+        Log.d(TAG, "Retransmitting message " + seq + " (attempt " + entry.attempts + ")");
+        try {
+            transmitter.transmit(entry.address, entry.content);
+        } catch (IOException e) {
+            Log.e(TAG, "Problems retransmitting message " + seq, e);
+        }
+        if (pending.containsKey(seq)) {
+            schedule(entry);
+        }
+    }
+
+    /*
+     * Sources are formatted as literal addresses, so resolve the destination host (it
+     * was resolved to send to, so this should not wait on the network).
+     */
+    private static String hostAddress(String address) {
+        String host = NioDatagramConnection.hostOf(address);
+        try {
+            return InetAddress.getByName(host).getHostAddress();
+        } catch (UnknownHostException e) {
+            return host;
+        }
+    }
+
+    private void fail(Pending entry) {
+        failed.incrementAndGet();
+        listener.onFailed(entry.seq);
+    }
+
+    public int getInFlightCount() {
+        return pending.size();
+    }
+
+    public long getAckedCount() {
+        return acked.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    public long getRetransmittedCount() {
+        return retransmitted.get();
+    }
+
+    public double getAverageRoundTripMillis() {
+        long n = acked.get();
+        return n == 0 ? 0 : totalRoundTripNanos.get() / 1e6 / n;
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.println("Acknowledgements:");
+        pw.printf("  in-flight=%d acked=%d failed=%d retransmitted=%d duplicate-acks=%d foreign-acks=%d avg-rtt=%.1fms%n",
+                getInFlightCount(), getAckedCount(), getFailedCount(), getRetransmittedCount(),
+                duplicateAcks.get(), foreignAcks.get(), getAverageRoundTripMillis());
+    }
+}
@@ -1,9 +1,9 @@
 package edu.stevens.cs522.chat.services;
 
-import static android.app.Activity.RESULT_OK;
-
 import android.app.Service;
 import android.content.Intent;
+import android.net.ConnectivityManager;
+import android.net.Network;
 import android.os.Binder;
 import android.os.Bundle;
 import android.os.Handler;
@@ -11,79 +11,246 @@ import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Looper;
 import android.os.Process;
-import android.os.ResultReceiver;
-import android.util.JsonReader;
-import android.util.JsonWriter;
+import android.os.SystemClock;
 import android.util.Log;
 
+import java.io.FileDescriptor;
 import java.io.IOException;
-import java.io.StringReader;
-import java.io.StringWriter;
+import java.io.PrintWriter;
 import java.net.UnknownHostException;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import edu.stevens.cs522.base.Datagram;
 import edu.stevens.cs522.base.DatagramConnectionFactory;
 import edu.stevens.cs522.base.IDatagramConnection;
 import edu.stevens.cs522.chat.R;
 import edu.stevens.cs522.chat.databases.ChatDatabase;
-import edu.stevens.cs522.chat.entities.Chatroom;
+import edu.stevens.cs522.chat.databases.OutboxDao;
 import edu.stevens.cs522.chat.entities.Message;
+import edu.stevens.cs522.chat.entities.MessageRecord;
+import edu.stevens.cs522.chat.entities.OutboxEntry;
+import edu.stevens.cs522.chat.entities.OutboxMessage;
 import edu.stevens.cs522.chat.entities.Peer;
-import edu.stevens.cs522.chat.entities.TimestampConverter;
+import edu.stevens.cs522.chat.repository.ChatRepository;
 import edu.stevens.cs522.chat.settings.Settings;
+import edu.stevens.cs522.chat.transport.IByteDatagramConnection;
+import edu.stevens.cs522.chat.transport.InboundPacket;
+import edu.stevens.cs522.chat.transport.NioDatagramConnection;
+import edu.stevens.cs522.chat.wire.ChatPacket;
+import edu.stevens.cs522.chat.wire.FrameBuilder;
+import edu.stevens.cs522.chat.wire.PacketCodec;
+import edu.stevens.cs522.chat.wire.WireFormat;
 
 
-public class ChatService extends Service implements IChatService {
+public class ChatService extends Service implements IChatService, GroupCommitWriter.CommitListener, DeliveryStatusWriter.WriteListener {
 
     protected static final String TAG = ChatService.class.getCanonicalName();
 
+    /*
+     * Start the service with this action to send whatever is in the outbox (see OutboxWorker).
+     */
+    public static final String ACTION_DRAIN_OUTBOX = "edu.stevens.cs522.chat.services.action.DRAIN_OUTBOX";
+
     protected static final String SEND_TAG = "ChatSendThread";
 
+    /*
+     * Receive buffer size of the library's UdpDatagramConnection.
+     */
+    protected static final int UDP_MAX_MESSAGE_SIZE = 512;
 
-    public final static String SENDER_NAME = "name";
 
-    public final static String CHATROOM = "room";
+    protected IBinder binder = new ChatBinder();
 
-    public final static String MESSAGE_TEXT = "text";
+    protected SendHandler sendHandler;
 
-    public final static String TIMESTAMP = "timestamp";
+    /*
+     * How messages are transmitted: on the send thread, or spread over send lanes.
+     */
+    public enum SendMode {
+        SINGLE,
+        STRIPED
+    }
 
-    public final static String LATITUDE = "latitude";
+    protected SendMode sendMode;
 
-    public final static String LONGITUDE = "longitude";
+    protected SendLane[] sendLanes;
 
+    /*
+     * Weighted fair queuing of priority classes on each lane (see WeightedFairQueue):
+     * weights and starvation limits by SendPriority ordinal, and waits for all lanes.
+     */
+    protected int[] priorityWeights;
 
-    protected IBinder binder = new ChatBinder();
+    protected int[] priorityMaxWaitMillis;
 
-    protected SendHandler sendHandler;
+    protected WeightedFairQueue.Stats[] priorityStats;
 
     protected Thread receiveThread;
 
+    protected Thread decodeThread;
+
+    /*
+     * Receive pipeline: socket reader -> decoder -> group commit writer.
+     */
+    protected StageQueue<InboundPacket> receiveQueue;
+
+    protected StageQueue<ChatPacket> persistQueue;
+
+    protected AckTracker ackTracker;
+
     protected IDatagramConnection chatConnection;
 
     protected boolean socketOK = true;
 
     protected boolean finished = false;
 
+    protected ChatRepository chatRepository;
+
     protected ChatDatabase chatDatabase;
 
+    protected GroupCommitWriter commitWriter;
+
+    // Drops messages received before, ahead of the commit writer.
+    protected DuplicateFilter duplicateFilter;
+
+    /*
+     * Messages waiting to be delivered, persisted so that they are not lost if the
+     * network is down or the process dies.  All sends go through it.
+     */
+    protected OutboxDao outboxDao;
+
+    // Writes acks and failures to the outbox, and the delivery status of messages.
+    protected DeliveryStatusWriter statusWriter;
+
+    protected int outboxBatchSize;
+
+    protected int outboxMaxDeliveries;
+
+    protected int outboxRetryMinutes;
+
+    protected ConnectivityManager.NetworkCallback networkCallback;
+
+    // The latest start (by OutboxWorker), to stop once the outbox is empty.
+    protected volatile int lastStartId;
+
+    /*
+     * Outbox metrics
+     */
+    protected final AtomicLong drainedBatches = new AtomicLong();
+
+    protected final AtomicLong drainedMessages = new AtomicLong();
+
+    protected final AtomicLong requeuedMessages = new AtomicLong();
+
+    protected final AtomicLong abandonedMessages = new AtomicLong();
+
+    /*
+     * Keys of chatrooms and peers, shared by the send and receive paths.
+     */
+    protected KnownEntityCache knownEntities;
+
     protected int chatPort;
 
+    /*
+     * Where peers should send acknowledgements of our messages.
+     */
+    protected String replyAddress;
+
+    /*
+     * Sent with our messages, so that their sequence numbers identify them even after a
+     * reinstall starts the numbering again (see Settings.getSenderEpoch).
+     */
+    protected long senderEpoch;
+
+    /*
+     * Encoding of the messages we send; packets in either encoding are accepted.
+     */
+    protected WireFormat wireFormat;
+
+    /*
+     * How long the first message for a destination may wait for others to share its
+     * datagram (zero disables coalescing), and the largest datagram to send.
+     */
+    protected long sendLingerMillis;
+
+    protected int maxMessageSize;
+
+    // The connection only carries Strings (see transmit).
+    protected boolean textTransport;
+
+    // Datagrams the connection failed to send.
+    protected final AtomicLong sendFailures = new AtomicLong();
+
     @Override
     public void onCreate() {
 
         chatPort = this.getResources().getInteger(R.integer.app_port);
+        replyAddress = String.valueOf(chatPort);
+        senderEpoch = Settings.getSenderEpoch(this);
+        wireFormat = WireFormat.valueOf(getString(R.string.wire_format));
+        sendLingerMillis = getResources().getInteger(R.integer.send_linger_millis);
 
         Log.d(TAG, "Getting database instance in ChatService....");
-        chatDatabase = ChatDatabase.getInstance(this);
+        chatRepository = ChatRepository.getInstance(this);
+        chatDatabase = chatRepository.getDatabase();
+        outboxDao = chatDatabase.outboxDao();
+        outboxBatchSize = getResources().getInteger(R.integer.outbox_batch_size);
+        outboxMaxDeliveries = getResources().getInteger(R.integer.outbox_max_deliveries);
+        outboxRetryMinutes = getResources().getInteger(R.integer.outbox_retry_interval_minutes);
+        statusWriter = new DeliveryStatusWriter(outboxDao, chatDatabase.getTransactionExecutor(), outboxMaxDeliveries, this);
+
+        receiveQueue = new StageQueue<>("receive",
+                getResources().getInteger(R.integer.receive_queue_capacity),
+                StageQueue.OverflowPolicy.valueOf(getString(R.string.receive_overflow_policy)));
+        persistQueue = new StageQueue<>("persist",
+                getResources().getInteger(R.integer.commit_buffer_capacity),
+                StageQueue.OverflowPolicy.valueOf(getString(R.string.commit_overflow_policy)));
+
+        knownEntities = new KnownEntityCache(
+                getResources().getInteger(R.integer.known_chatroom_cache_size),
+                getResources().getInteger(R.integer.known_peer_cache_size),
+                getResources().getInteger(R.integer.peer_update_interval_millis));
+
+        duplicateFilter = new DuplicateFilter(
+                getResources().getInteger(R.integer.dedup_window_size),
+                getResources().getInteger(R.integer.dedup_max_peers));
+
+        commitWriter = new GroupCommitWriter(chatDatabase, persistQueue, knownEntities, chatRepository.getRecentMessages(),
+                duplicateFilter,
+                getResources().getInteger(R.integer.commit_batch_size),
+                getResources().getInteger(R.integer.commit_max_delay_millis),
+                this);
+        commitWriter.start();
 
         try {
-            DatagramConnectionFactory factory = new DatagramConnectionFactory();
-            chatConnection = factory.getUdpConnection(chatPort);
+            if (getResources().getBoolean(R.bool.use_nio_transport)) {
+                chatConnection = new NioDatagramConnection(chatPort);
+            } else {
+                DatagramConnectionFactory factory = new DatagramConnectionFactory();
+                chatConnection = factory.getUdpConnection(chatPort);
+            }
         } catch (Exception e) {
             throw new IllegalStateException("Unable to init client socket.", e);
         }
+        textTransport = !(chatConnection instanceof IByteDatagramConnection);
+        maxMessageSize = textTransport
+                ? UDP_MAX_MESSAGE_SIZE
+                : ((IByteDatagramConnection) chatConnection).getMaxMessageSize();
+
+        ackTracker = new AckTracker(
+                this::transmit,
+                statusWriter,
+                getResources().getInteger(R.integer.ack_timeout_millis),
+                getResources().getInteger(R.integer.ack_max_attempts));
 
         // TODO initialize the thread that sends messages
         HandlerThread sendThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
@@ -93,6 +260,44 @@ public class ChatService extends Service implements IChatService {
 
        // end TODO
 
+        priorityWeights = getResources().getIntArray(R.array.send_priority_weights);
+        priorityMaxWaitMillis = getResources().getIntArray(R.array.send_priority_max_wait_millis);
+        priorityStats = new WeightedFairQueue.Stats[SendPriority.values().length];
+        for (int i = 0; i < priorityStats.length; i++) {
+            priorityStats[i] = new WeightedFairQueue.Stats();
+        }
+
+        sendMode = SendMode.valueOf(getString(R.string.send_mode));
+        if (sendMode == SendMode.STRIPED) {
+            sendLanes = new SendLane[getResources().getInteger(R.integer.send_lanes)];
+            for (int i = 0; i < sendLanes.length; i++) {
+                HandlerThread laneThread = new HandlerThread(SEND_TAG + "-" + i, Process.THREAD_PRIORITY_BACKGROUND);
+                laneThread.start();
+                sendLanes[i] = new SendLane(i, laneThread.getLooper());
+            }
+        } else {
+            sendLanes = new SendLane[] { new SendLane(0, sendThread.getLooper()) };
+        }
+
+        // Send whatever was left in the outbox by the last process.
+        sendHandler.sendEmptyMessage(SendHandler.RECOVER);
+
+        /*
+         * Whenever a network becomes available, drain the outbox, since messages may have
+         * been queued while there was none.
+         */
+        networkCallback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                Log.d(TAG, "Network available, draining the outbox.");
+                drainOutbox();
+            }
+        };
+        getSystemService(ConnectivityManager.class).registerDefaultNetworkCallback(networkCallback);
+
+        decodeThread = new Thread(new DecoderThread());
+        decodeThread.start();
+
         receiveThread = new Thread(new ReceiverThread());
         receiveThread.start();
     }
@@ -100,11 +305,19 @@ public class ChatService extends Service implements IChatService {
     @Override
     public void onDestroy() {
         finished = true;
+        getSystemService(ConnectivityManager.class).unregisterNetworkCallback(networkCallback);
         sendHandler.getLooper().getThread().interrupt();  // No-op?
         sendHandler.getLooper().quit();
+        for (SendLane lane : sendLanes) {
+            // In SINGLE mode, this is the send thread again, which does no harm.
+            lane.getLooper().quit();
+        }
         socketOK = false;
         receiveThread.interrupt();
         chatConnection.close();
+        decodeThread.interrupt();
+        commitWriter.stop();
+        ackTracker.shutdown();
 
         chatDatabase = null;
     }
@@ -114,6 +327,41 @@ public class ChatService extends Service implements IChatService {
         return binder;
     }
 
+    /*
+     * Started (rather than bound) only to drain the outbox.  Not sticky: anything left
+     * in the outbox is sent when the service is next created anyway.
+     */
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        lastStartId = startId;
+        if (intent != null && ACTION_DRAIN_OUTBOX.equals(intent.getAction())) {
+            drainOutbox();
+        }
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        // adb shell dumpsys activity service edu.stevens.cs522.chat/.services.ChatService
+        pw.printf("Transport: %s send-failures=%d%n", chatConnection.getClass().getSimpleName(), sendFailures.get());
+        receiveQueue.dump(pw);
+        commitWriter.dump(pw);
+        pw.println("Outbox:");
+        pw.printf("  batches=%d messages=%d requeued=%d abandoned=%d%n", drainedBatches.get(), drainedMessages.get(),
+                requeuedMessages.get(), abandonedMessages.get());
+        pw.printf("Send lanes: mode=%s lanes=%d%n", sendMode, sendLanes.length);
+        for (SendLane lane : sendLanes) {
+            lane.dump(pw);
+        }
+        pw.println("Send priorities:");
+        for (SendPriority priority : SendPriority.values()) {
+            priorityStats[priority.ordinal()].dump(pw, priority.name());
+        }
+        statusWriter.dump(pw);
+        ackTracker.dump(pw);
+        chatRepository.dump(pw);
+    }
+
     public final class ChatBinder extends Binder {
 
         public IChatService getService() {
@@ -125,18 +373,17 @@ public class ChatService extends Service implements IChatService {
 
     @Override
     public void send(String destAddress, String chatRoom, String messageText,
-                     Instant timestamp, double latitude, double longitude, ResultReceiver receiver) {
-        android.os.Message message = sendHandler.obtainMessage();
+                     Instant timestamp, double latitude, double longitude) {
+        android.os.Message message = sendHandler.obtainMessage(SendHandler.SEND);
         // TODO send the message to the sending thread (add a bundle with params)
 
         Bundle data = new Bundle();
         data.putString(SendHandler.HDLR_DEST_ADDRESS, destAddress);
         data.putString(SendHandler.HDLR_CHATROOM, chatRoom);
         data.putString(SendHandler.HDLR_MESSAGE_TEXT, messageText);
-        data.putString(SendHandler.HDLR_TIMESTAMP, TimestampConverter.serialize(timestamp));
+        data.putLong(SendHandler.HDLR_TIMESTAMP, timestamp.toEpochMilli());
         data.putDouble(SendHandler.HDLR_LATITUDE, latitude);
         data.putDouble(SendHandler.HDLR_LONGITUDE, longitude);
-        data.putParcelable(SendHandler.HDLR_RECEIVER, receiver);
         message.setData(data);
         sendHandler.sendMessage(message);
 
@@ -147,6 +394,121 @@ public class ChatService extends Service implements IChatService {
     }
 
 
+    @Override
+    public void sendAll(List<OutgoingMessage> messages) {
+        sendHandler.sendMessage(sendHandler.obtainMessage(SendHandler.SEND_ALL, new ArrayList<>(messages)));
+
+        Log.d(TAG, "Sending " + messages.size() + " messages");
+    }
+
+
+    @Override
+    public void drainOutbox() {
+        sendHandler.sendEmptyMessage(SendHandler.DRAIN);
+    }
+
+
+    /*
+     * Acknowledge messages once they have been committed to the database.
+     */
+    @Override
+    public void onCommitted(List<ChatPacket> packets) {
+        acknowledge(packets);
+    }
+
+    /*
+     * When coalescing, the acks for each peer share datagrams.
+     */
+    protected void acknowledge(List<ChatPacket> packets) {
+        String senderName = Settings.getSenderName(this);
+        Map<String, FrameBuilder> frames = new LinkedHashMap<>();
+        for (ChatPacket packet : packets) {
+            if (!packet.wantsAck()) {
+                continue;
+            }
+            try {
+                // Reply in the format the peer used, which it is known to understand.
+                byte[] ack = PacketCodec.encodeRaw(ChatPacket.ack(senderName, packet.epoch, packet.seq), packet.format);
+                if (sendLingerMillis <= 0) {
+                    transmit(packet.replyAddress, ack);
+                    continue;
+                }
+                String key = packet.format + " " + packet.replyAddress;
+                FrameBuilder frame = frames.get(key);
+                if (frame == null) {
+                    frame = new FrameBuilder(packet.format, maxMessageSize, textTransport);
+                    frames.put(key, frame);
+                }
+                if (!frame.add(ack)) {
+                    transmit(packet.replyAddress, frame.build());
+                    frame.clear();
+                    frame.add(ack);
+                }
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Problems acknowledging message " + packet, e);
+            }
+        }
+        for (Map.Entry<String, FrameBuilder> entry : frames.entrySet()) {
+            String replyAddress = entry.getKey().substring(entry.getKey().indexOf(' ') + 1);
+            try {
+                transmit(replyAddress, entry.getValue().build());
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Problems acknowledging messages from " + replyAddress, e);
+            }
+        }
+    }
+
+    /*
+     * Failed messages that were queued again are retried periodically (or when the
+     * network comes back), until they are acknowledged or given up on.
+     */
+    @Override
+    public void onWritten(int requeued, int abandoned, int remaining) {
+        requeuedMessages.addAndGet(requeued);
+        abandonedMessages.addAndGet(abandoned);
+        if (abandoned > 0) {
+            Log.w(TAG, "Giving up on delivering " + abandoned + " message(s).");
+        }
+        if (remaining == 0) {
+            outboxEmpty();
+        } else if (requeued > 0) {
+            OutboxWorker.scheduleRetry(getApplicationContext(), outboxRetryMinutes);
+        }
+    }
+
+    /*
+     * Nothing left to deliver: no more need for retries, or to keep running if we were
+     * only started to drain the outbox (stopSelf leaves the service up while it is bound).
+     */
+    protected void outboxEmpty() {
+        OutboxWorker.cancelRetry(getApplicationContext());
+        if (lastStartId != 0) {
+            stopSelf(lastStartId);
+        }
+    }
+
+    /*
+     * Send raw content (a packet or a frame): as it is if the connection takes bytes,
+     * otherwise as a String, with binary content Base64-encoded.  Failures are counted
+     * here; messages are retransmitted by the ack tracker, and acks when the peer resends.
+     */
+    protected void transmit(String address, byte[] content) throws IOException {
+        try {
+            if (!textTransport) {
+                ((IByteDatagramConnection) chatConnection).send(address, content, 0, content.length);
+            } else {
+                Datagram datagram = new Datagram();
+                datagram.setAddress(address);
+                datagram.setData(PacketCodec.toText(content));
+                chatConnection.send(getApplicationContext(), datagram);
+            }
+        } catch (IOException e) {
+            sendFailures.incrementAndGet();
+            throw e;
+        }
+    }
+
+
     private final class SendHandler extends Handler {
 
         public static final String HDLR_CHATROOM = "edu.stevens.cs522.chat.services.extra.CHATROOM";
@@ -156,7 +518,14 @@ public class ChatService extends Service implements IChatService {
         public static final String HDLR_LONGITUDE = "edu.stevens.cs522.chat.services.extra.LONGITUDE";
 
         public static final String HDLR_DEST_ADDRESS = "edu.stevens.cs522.chat.services.extra.DEST_ADDRESS";
-        public static final String HDLR_RECEIVER = "edu.stevens.cs522.chat.services.extra.RECEIVER";
+
+        public static final int SEND = 0;
+
+        public static final int SEND_ALL = 2;
+
+        public static final int DRAIN = 3;
+
+        public static final int RECOVER = 4;
 
         public SendHandler(Looper looper) {
             super(looper);
@@ -165,85 +534,279 @@ public class ChatService extends Service implements IChatService {
         @Override
         public void handleMessage(android.os.Message message) {
 
+            if (message.what == DRAIN) {
+                drain();
+                return;
+            }
+
+            if (message.what == RECOVER) {
+                recover();
+                drain();
+                return;
+            }
+
+            if (message.what == SEND_ALL) {
+                @SuppressWarnings("unchecked")
+                List<OutgoingMessage> batch = (List<OutgoingMessage>) message.obj;
+                send(batch);
+                return;
+            }
+
+            String destinationAddr = null;
+
+            String chatRoom = null;
+
+            String messageText = null;
+
+            Instant timestamp = null;
+
+            double latitude = 0, longitude = 0;
+
+            Bundle data = message.getData();
+
+            // TODO get data from message
+            if (data != null) {
+                destinationAddr = data.getString(SendHandler.HDLR_DEST_ADDRESS);
+                chatRoom = data.getString(SendHandler.HDLR_CHATROOM);
+                messageText = data.getString(SendHandler.HDLR_MESSAGE_TEXT);
+                timestamp = Instant.ofEpochMilli(data.getLong(SendHandler.HDLR_TIMESTAMP));
+                latitude = data.getDouble(SendHandler.HDLR_LATITUDE);
+                longitude = data.getDouble(SendHandler.HDLR_LONGITUDE);
+            }
+            Log.d("MessageParsed", "parsed Chatroom: " + chatRoom);
+            // End todo
+
+            send(Collections.singletonList(new OutgoingMessage(destinationAddr, chatRoom, messageText,
+                    timestamp, latitude, longitude)));
+        }
+
+        /*
+         * Queue a batch of messages in the outbox, then drain it.  How each message fares
+         * is written to its delivery status, for the UI to observe.
+         */
+        private void send(List<OutgoingMessage> batch) {
+
+            String senderName = Settings.getSenderName(ChatService.this);
+
+            List<Message> messages = new ArrayList<>(batch.size());
+            for (OutgoingMessage outgoing : batch) {
+                messages.add(outgoing.toMessage(senderName));
+            }
+
+            /*
+             * Insert into the local database and the outbox, in one transaction for the
+             * whole batch.  Okay to do this synchronously because we are on a background thread.
+             * The keys of the chatrooms and of this device's peer record are cached, so
+             * only the first message to each costs a lookup.
+             */
+            try {
+                long now = SystemClock.elapsedRealtime();
+                List<MessageRecord> records = new ArrayList<>(messages.size());
+                List<OutboxEntry> entries = new ArrayList<>(messages.size());
+                for (int i = 0; i < messages.size(); i++) {
+                    Message message = messages.get(i);
+                    long chatroomId = knownEntities.resolveChatroomId(chatDatabase, message.chatroom);
+                    long senderId = knownEntities.resolvePeerId(chatDatabase, sender(message), now);
+                    records.add(MessageRecord.of(message, chatroomId, senderId));
+                    entries.add(OutboxEntry.of(batch.get(i).destAddress, batch.get(i).priority.ordinal()));
+                }
+                outboxDao.enqueue(records, entries);
+                for (int i = 0; i < records.size(); i++) {
+                    messages.get(i).id = records.get(i).id;
+                    chatRepository.getRecentMessages().add(records.get(i).chatroomId, messages.get(i));
+                }
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Problems saving " + messages.size() + " outgoing message(s).", e);
+                return;
+            }
+
+            drain();
+        }
+
+        /*
+         * Send the queued messages in the outbox, oldest first, a batch at a time, if
+         * there is a network to send on (otherwise the network callback drains it later).
+         * Each is sent with its outbox key as its sequence number, so a message that is
+         * sent again carries the same number.  The messages are handed to their send
+         * lanes in order, and the lanes transmit them.
+         */
+        private void drain() {
+            if (!OutboxWorker.isConnected(ChatService.this)) {
+                Log.d(TAG, "No network, leaving messages in the outbox.");
+                return;
+            }
+            int drained = 0;
+            try {
+                List<OutboxMessage> queued;
+                do {
+                    queued = outboxDao.fetchQueued(outboxBatchSize);
+                    if (queued.isEmpty()) {
+                        break;
+                    }
+                    List<Long> ids = new ArrayList<>(queued.size());
+                    for (OutboxMessage entry : queued) {
+                        ids.add(entry.outboxId);
+                    }
+                    outboxDao.markSending(ids);
+                    for (OutboxMessage entry : queued) {
+                        laneFor(entry.destAddress, entry.message.chatroom).submit(entry);
+                    }
+                    drained += queued.size();
+                    drainedBatches.incrementAndGet();
+                    drainedMessages.addAndGet(queued.size());
+                } while (queued.size() == outboxBatchSize);
+
+                if (drained == 0 && outboxDao.count() == 0) {
+                    outboxEmpty();
+                }
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Problems draining the outbox.", e);
+            }
+
+            /*
+             * Nothing else is coming, so don't wait out the linger time.
+             */
+            if (drained > 1) {
+                for (SendLane lane : sendLanes) {
+                    lane.sendEmptyMessage(SendLane.FLUSH_ALL);
+                }
+            }
+        }
+
+        /*
+         * Messages left waiting for acknowledgement by the last process will not be
+         * acknowledged to this one, so queue them to be sent again.
+         */
+        private void recover() {
             try {
+                int requeued = outboxDao.requeueSending();
+                if (requeued > 0) {
+                    Log.d(TAG, "Requeued " + requeued + " unacknowledged message(s) from the outbox.");
+                }
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Problems recovering the outbox.", e);
+            }
+        }
+
+        /*
+         * This device's peer record, in case it is not in the database yet.
+         */
+        private Peer sender(Message message) {
+            Peer peer = new Peer();
+            peer.name = message.sender;
+            peer.timestamp = message.timestamp;
+            peer.latitude = message.latitude;
+            peer.longitude = message.longitude;
+            return peer;
+        }
+    }
+
+    /*
+     * The send lane for messages to a destination in a chatroom.  The same pair always
+     * maps to the same lane, which keeps their order.
+     */
+    protected SendLane laneFor(String destAddress, String chatroom) {
+        return sendLanes[Math.floorMod(Objects.hash(destAddress, chatroom), sendLanes.length)];
+    }
+
+    /*
+     * Encodes, coalesces and transmits the messages handed to it by the send thread, on
+     * its own thread (or, in SINGLE mode, on the send thread itself).  A send that blocks,
+     * e.g. resolving the name of its destination, only holds up its lane.
+     *
+     * Messages wait in the lane's weighted fair queue, in order within their priority
+     * class, and are taken from it one per TRANSMIT, so that coalescing timers still run
+     * between them.  Only one TRANSMIT is pending at a time.
+     */
+    private final class SendLane extends Handler {
+
+        public static final int TRANSMIT = 0;
+
+        public static final int FLUSH = 1;
+
+        public static final int FLUSH_ALL = 2;
 
-                String destinationAddr = null;
+        private final int index;
 
-                String senderName = null;
+        /*
+         * Messages waiting to be coalesced, by destination.  Only touched on the lane's thread.
+         */
+        private final Map<String, Outgoing> outgoing = new HashMap<>();
 
-                String chatRoom = null;
+        private final WeightedFairQueue<OutboxMessage> queue;
 
-                String messageText = null;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
 
-                Instant timestamp = null;
+        /*
+         * Metrics: the most messages waiting in the queue, and time spent sending.
+         */
+        private volatile int maxDepth;
 
-                Double latitude = null, longitude = null;
+        private final AtomicLong transmitted = new AtomicLong();
 
-                ResultReceiver receiver = null;
+        private final AtomicLong busyNanos = new AtomicLong();
 
-                senderName = Settings.getSenderName(ChatService.this);
+        public SendLane(int index, Looper looper) {
+            super(looper);
+            this.index = index;
+            this.queue = new WeightedFairQueue<>(priorityWeights, priorityMaxWaitMillis, priorityStats);
+        }
 
-                Bundle data = message.getData();
+        public void submit(OutboxMessage entry) {
+            queue.add(entry, SendPriority.of(entry.priority).ordinal());
+            int queued = queue.size();
+            if (queued > maxDepth) {
+                maxDepth = queued;
+            }
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                sendEmptyMessage(TRANSMIT);
+            }
+        }
 
-                // TODO get data from message (including result receiver)
-                if (data != null) {
-                    destinationAddr = data.getString(SendHandler.HDLR_DEST_ADDRESS);
-                    chatRoom = data.getString(SendHandler.HDLR_CHATROOM);
-                    messageText = data.getString(SendHandler.HDLR_MESSAGE_TEXT);
-                    timestamp = TimestampConverter.deserialize(data.getString(SendHandler.HDLR_TIMESTAMP));
-                    latitude = data.getDouble(SendHandler.HDLR_LATITUDE);
-                    longitude = data.getDouble(SendHandler.HDLR_LONGITUDE);
-                    receiver = data.getParcelable(SendHandler.HDLR_RECEIVER);
+        @Override
+        public void handleMessage(android.os.Message message) {
+            long start = System.nanoTime();
+            if (message.what == TRANSMIT) {
+                OutboxMessage entry = queue.poll();
+                if (entry != null) {
+                    transmitMessage(entry.destAddress, entry.message, entry.outboxId);
+                    transmitted.incrementAndGet();
+                }
+                // Clear the flag before looking again, so a message submitted meanwhile is not missed.
+                scheduled.set(false);
+                if (queue.size() > 0) {
+                    schedule();
+                }
+            } else if (message.what == FLUSH) {
+                flush((Outgoing) message.obj);
+            } else if (message.what == FLUSH_ALL) {
+                for (Outgoing pending : outgoing.values()) {
+                    flush(pending);
                 }
-                Log.d("MessageParsed", "Parsed Sender: " + senderName);
-                Log.d("MessageParsed", "parsed Chatroom: " + chatRoom);
-                // End todo
+            }
+            busyNanos.addAndGet(System.nanoTime() - start);
+        }
 
+        private void transmitMessage(String destinationAddr, Message mesg, long seq) {
+            try {
                 /*
-                 * Insert into the local database
+                 * Send with a sequence number, and leave it to the ack tracker to retransmit
+                 * until the peer acknowledges it, and then to record that it was delivered.
                  */
-                Message mesg = new Message();
-                mesg.messageText = messageText;
-                mesg.chatroom = chatRoom;
-                mesg.timestamp = timestamp;
-                mesg.latitude = latitude;
-                mesg.longitude = longitude;
-                mesg.sender = senderName;
-
-                // Okay to do this synchronously because we are on a background thread.
-                chatDatabase.messageDao().persist(mesg);
-
-                StringWriter output = new StringWriter();
-                JsonWriter wr = new JsonWriter(output);
-                wr.beginObject();
-                wr.name(SENDER_NAME).value(senderName);
-                wr.name(CHATROOM).value(chatRoom);
-                wr.name(MESSAGE_TEXT).value(messageText);
-                wr.name(TIMESTAMP).value(TimestampConverter.serialize(timestamp));
-                wr.name(LATITUDE).value(latitude);
-                wr.name(LONGITUDE).value(longitude);
-                wr.endObject();
-
-                String content = output.toString();
-
-                Log.d(TAG, "Sending data: " + content);
-
-                Datagram sendPacket = new Datagram();
-                sendPacket.setAddress(destinationAddr);
-                sendPacket.setData(content);
-
-                chatConnection.send(getApplicationContext(), sendPacket);
-
-                if (receiver != null) {
-                    try {
-                        Log.d(TAG, "Sleeping for 5 seconds before sending message....");
-                        Thread.sleep(5000);
-                    } catch (InterruptedException e) {
-                        Log.i(TAG, "....sleep during message send interrupted!", e);
-                    }
-                    Log.d(TAG, "Sending message....");
-                    receiver.send(RESULT_OK, null);
-                    Log.d(TAG, "...message sent!");
+                byte[] raw = PacketCodec.encodeRaw(ChatPacket.message(mesg, senderEpoch, seq, replyAddress), wireFormat);
+
+                Log.d(TAG, "Sending message " + seq + " (" + raw.length + " bytes) to " + destinationAddr);
+
+                ackTracker.track(seq, destinationAddr, raw);
+
+                if (sendLingerMillis <= 0) {
+                    transmit(destinationAddr, raw);
+                } else {
+                    coalesce(destinationAddr, raw);
                 }
 
             } catch (UnknownHostException e) {
@@ -251,123 +814,203 @@ public class ChatService extends Service implements IChatService {
             } catch (IOException e) {
                 Log.e(TAG, "IO exception", e);
             }
+        }
+
+        /*
+         * Add a message to the frame for its destination.  The first message in a frame
+         * starts the linger timer; a message that does not fit sends the frame early.
+         */
+        private void coalesce(String destinationAddr, byte[] raw) {
+            Outgoing pending = outgoing.get(destinationAddr);
+            if (pending == null) {
+                pending = new Outgoing(destinationAddr, new FrameBuilder(wireFormat, maxMessageSize, textTransport));
+                outgoing.put(destinationAddr, pending);
+            }
+            if (!pending.frame.add(raw)) {
+                flush(pending);
+                pending.frame.add(raw);
+            }
+            if (pending.frame.count() == 1) {
+                sendMessageDelayed(obtainMessage(FLUSH, pending), sendLingerMillis);
+            }
+        }
+
+        private void flush(Outgoing pending) {
+            removeMessages(FLUSH, pending);
+            if (pending.frame.isEmpty()) {
+                return;
+            }
+            Log.d(TAG, "Sending " + pending.frame.count() + " message(s) to " + pending.address);
+            try {
+                transmit(pending.address, pending.frame.build());
+            } catch (IOException | RuntimeException e) {
+                // The ack tracker will retransmit the messages individually.
+                Log.e(TAG, "Problems sending to " + pending.address, e);
+            }
+            pending.frame.clear();
+        }
 
+        public void dump(PrintWriter pw) {
+            pw.printf("  lane %d: depth=%d max-depth=%d transmitted=%d busy=%.1fms%n", index, queue.size(), maxDepth,
+                    transmitted.get(), busyNanos.get() / 1e6);
         }
     }
 
+    private static final class Outgoing {
+        final String address;
+        final FrameBuilder frame;
+
+        Outgoing(String address, FrameBuilder frame) {
+            this.address = address;
+            this.frame = frame;
+        }
+    }
+
+    /*
+     * Socket reader stage: does nothing but move datagrams off the socket, so that
+     * the kernel receive buffer is drained even when decoding or persisting falls behind.
+     */
     private final class ReceiverThread implements Runnable {
 
         public void run() {
 
-            Datagram receivePacket = new Datagram();
-
             while (!finished && socketOK) {
 
                 try {
 
-                    String sender = null;
+                    InboundPacket receivePacket = receive();
+                    if (receivePacket == null) {
+                        continue;
+                    }
 
-                    String room = null;
+                    Log.d(TAG, "Source Address: " + receivePacket.getAddress());
 
-                    String text = null;
+                    if (!receiveQueue.put(receivePacket)) {
+                        Log.w(TAG, "Receive queue full, dropped packet from " + receivePacket.getAddress());
+                    }
 
-                    Instant timestamp = null;
+                } catch (InterruptedException e) {
 
-                    Double latitude = null;
+                    Log.d(TAG, "Receiver thread interrupted.");
+                    socketOK = false;
 
-                    Double longitude = null;
+                } catch (Exception e) {
 
-                    /*
-                     * THere is an apparent bug in the emulator stack on Windows where
-                     * messages can arrive empty, we loop as a workaround.
-                     */
+                    Log.e(TAG, "Problems receiving packet.", e);
+                    socketOK = false;
+                }
 
-                    chatConnection.receive(receivePacket);
-                    Log.d(TAG, "Received a packet");
+            }
 
-                    if (receivePacket.getData() == null) {
-                        Log.d(TAG, "....missing data, skipping....");
-                        continue;
-                    }
+        }
 
-                    Log.d(TAG, "Source Address: " + receivePacket.getAddress());
+        /*
+         * A byte-oriented connection hands over the payload as received; otherwise
+         * convert the String back to bytes.
+         */
+        private InboundPacket receive() throws IOException, InterruptedException {
+            if (chatConnection instanceof IByteDatagramConnection) {
+                InboundPacket packet = ((IByteDatagramConnection) chatConnection).receivePacket();
+                Log.d(TAG, "Received a packet");
+                return packet;
+            }
 
-                    String content = receivePacket.getData();
-                    Log.d(TAG, "Message received: " + content);
+            Datagram receivePacket = new Datagram();
 
-                    /*
-                     * Parse the JSON object
-                     */
-                    JsonReader rd = new JsonReader(new StringReader(content));
+            /*
+             * THere is an apparent bug in the emulator stack on Windows where
+             * messages can arrive empty, we loop as a workaround.
+             */
 
-                    rd.beginObject();
-                    if (SENDER_NAME.equals(rd.nextName())) {
-                        sender = rd.nextString();
-                    }
-                    if (CHATROOM.equals(rd.nextName())) {
-                        room = rd.nextString();
-                    }
-                    if (MESSAGE_TEXT.equals((rd.nextName()))) {
-                        text = rd.nextString();
-                    }
-                    if (TIMESTAMP.equals(rd.nextName())) {
-                        timestamp = TimestampConverter.deserialize(rd.nextString());
-                    }
-                    if (LATITUDE.equals(rd.nextName())) {
-                        latitude = rd.nextDouble();
-                    }
-                    if (LONGITUDE.equals((rd.nextName()))) {
-                        longitude = rd.nextDouble();
-                    }
-                    rd.endObject();
+            chatConnection.receive(receivePacket);
+            Log.d(TAG, "Received a packet");
+
+            if (receivePacket.getData() == null) {
+                Log.d(TAG, "....missing data, skipping....");
+                return null;
+            }
+            byte[] data = PacketCodec.fromText(receivePacket.getData());
+            return new InboundPacket(data, data.length, receivePacket.getAddress(), chatPort);
+        }
 
-                    rd.close();
+    }
 
-                    /*
-                     * Add the sender to our list of senders
-                     */
-                    Chatroom chatroom = new Chatroom();
-                    chatroom.name = room;
+    /*
+     * Decoder stage: parses datagrams and passes the messages on to the group commit writer.
+     */
+    private final class DecoderThread implements Runnable {
 
-                    Peer peer = new Peer();
-                    peer.name = sender;
-                    peer.timestamp = timestamp;
-                    peer.latitude = latitude;
-                    peer.longitude = longitude;
+        public void run() {
 
-                    Message message = new Message();
-                    message.messageText = text;
-                    message.chatroom = room;
-                    message.sender = sender;
-                    message.timestamp = timestamp;
-                    message.latitude = latitude;
-                    message.longitude = longitude;
+            while (!finished) {
 
+                InboundPacket receivePacket;
+                try {
+                    receivePacket = receiveQueue.take();
+                } catch (InterruptedException e) {
+                    Log.d(TAG, "Decoder thread interrupted.");
+                    break;
+                }
 
-                    Log.d(TAG, "sender: " + sender);
-                    Log.d(TAG, "chatroom: " + room);
-                    Log.d(TAG, "text: " + text);
-                    Log.d(TAG, "Message: " + message);
+                try {
 
                     /*
-                     * TODO upsert chatroom and peer, and insert message into the database
+                     * A datagram may hold several coalesced packets.
                      */
-                    Log.d("ChatroomViewModel", "Adding chatroom: " + chatroom.name);
-                    chatDatabase.chatroomDao().insert(chatroom);
-                    Log.d("ChatroomViewModel", "Chatroom added: " + chatroom.name);
-                    chatDatabase.peerDao().upsert(peer);
-                    chatDatabase.messageDao().persist(message);
+                    List<ChatPacket> packets = PacketCodec.decodeAll(receivePacket.data, 0, receivePacket.length);
+                    List<ChatPacket> duplicates = new ArrayList<>();
+
+                    for (ChatPacket packet : packets) {
+                        Log.d(TAG, "Message received: " + packet);
+
+                        if (packet.isAck()) {
+                            /*
+                             * An ack from another epoch is for a message sent before we were
+                             * reinstalled, not for the one that now has its sequence number.
+                             */
+                            if (packet.epoch != senderEpoch) {
+                                Log.d(TAG, "Dropped ack from epoch " + packet.epoch + ": " + packet);
+                                continue;
+                            }
+                            ackTracker.acknowledged(packet.seq, receivePacket.getAddress());
+                            continue;
+                        }
+
+                        /*
+                         * Already stored: the sender did not get our ack, so ack it again.
+                         */
+                        if (duplicateFilter.isDuplicate(packet.sender, packet.epoch, packet.seq)) {
+                            Log.d(TAG, "Dropped duplicate " + packet);
+                            duplicates.add(packet);
+                            continue;
+                        }
+
+                        Log.d(TAG, "sender: " + packet.sender);
+                        Log.d(TAG, "chatroom: " + packet.chatroom);
+                        Log.d(TAG, "text: " + packet.messageText);
+
+                        /*
+                         * Chatroom and peer are upserted, and the message inserted, by the
+                         * group commit writer, batched with any other messages received meanwhile.
+                         * It is acknowledged once that batch has been committed.
+                         */
+                        if (!commitWriter.submit(packet)) {
+                            Log.w(TAG, "Persist queue full, dropped message from " + packet.sender);
+                        }
+                    }
 
-                    Log.d(TAG, "Parsed sender: " + sender);
-                    Log.d(TAG, "Parsed chatroom: " + room);
-                    Log.d(TAG, "Parsed text: " + text);
-                    Log.d(TAG, "Message object: " + message);
+                    if (!duplicates.isEmpty()) {
+                        acknowledge(duplicates);
+                    }
 
+                } catch (InterruptedException e) {
 
-                } catch (Exception e) {
+                    Log.d(TAG, "Decoder thread interrupted.");
+                    break;
 
-                    Log.e(TAG, "Problems receiving packet.", e);
-                    socketOK = false;
+                } catch (IOException | RuntimeException e) {
+
+                    Log.e(TAG, "Problems decoding packet from " + receivePacket.getAddress(), e);
                 }
 
             }
@@ -0,0 +1,114 @@
+package edu.stevens.cs522.chat.services;
+
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.stevens.cs522.chat.databases.OutboxDao;
+
+/**
+ * Writes the outcome of sent messages to the outbox and their delivery status, in batches.
+ *
+ * The ack tracker reports each ack or failure as it happens, on the receive pipeline or
+ * its timer thread.  Here they are only collected, and the first one after a write
+ * schedules the next write on the transaction executor; everything reported until that
+ * write runs goes in the same transaction.  So a burst of acks for hundreds of messages
+ * costs a few transactions, and each is one invalidation of the status stream the UI
+ * observes (see MessageDao.fetchUndelivered), rather than one per message.
+ */
+public class DeliveryStatusWriter implements AckTracker.Listener {
+
+    private static final String TAG = DeliveryStatusWriter.class.getCanonicalName();
+
+    public interface WriteListener {
+        /*
+         * A batch has been written: how many failed messages were queued again, how many
+         * were given up on, and how many entries are left in the outbox.
+         */
+        void onWritten(int requeued, int abandoned, int remaining);
+    }
+
+    private final OutboxDao outboxDao;
+
+    private final Executor executor;
+
+    private final int maxDeliveries;
+
+    private final WriteListener listener;
+
+    private List<Long> acked = new ArrayList<>();
+
+    private List<Long> failed = new ArrayList<>();
+
+    private boolean scheduled;
+
+    /*
+     * Metrics
+     */
+    private final AtomicLong batchCount = new AtomicLong();
+
+    private final AtomicLong statusCount = new AtomicLong();
+
+    private volatile int maxBatchSize;
+
+    public DeliveryStatusWriter(OutboxDao outboxDao, Executor executor, int maxDeliveries, WriteListener listener) {
+        this.outboxDao = outboxDao;
+        this.executor = executor;
+        this.maxDeliveries = maxDeliveries;
+        this.listener = listener;
+    }
+
+    @Override
+    public synchronized void onAcknowledged(long seq) {
+        acked.add(seq);
+        schedule();
+    }
+
+    @Override
+    public synchronized void onFailed(long seq) {
+        failed.add(seq);
+        schedule();
+    }
+
+    private void schedule() {
+        if (!scheduled) {
+            scheduled = true;
+            executor.execute(this::write);
+        }
+    }
+
+    private void write() {
+        List<Long> ackedBatch;
+        List<Long> failedBatch;
+        synchronized (this) {
+            ackedBatch = acked;
+            failedBatch = failed;
+            acked = new ArrayList<>();
+            failed = new ArrayList<>();
+            scheduled = false;
+        }
+        int size = ackedBatch.size() + failedBatch.size();
+        try {
+            int requeued = outboxDao.settle(ackedBatch, failedBatch, maxDeliveries);
+            int remaining = outboxDao.count();
+            batchCount.incrementAndGet();
+            statusCount.addAndGet(size);
+            maxBatchSize = Math.max(maxBatchSize, size);
+            listener.onWritten(requeued, failedBatch.size() - requeued, remaining);
+        } catch (RuntimeException e) {
+            // The entries stay in the outbox, and are sent again after a restart.
+            Log.e(TAG, "Problems writing the delivery status of " + size + " message(s).", e);
+        }
+    }
+
+    public void dump(PrintWriter pw) {
+        long batches = batchCount.get();
+        pw.println("Delivery status:");
+        pw.printf("  batches=%d statuses=%d avg=%.1f max=%d%n", batches, statusCount.get(),
+                batches == 0 ? 0.0 : (double) statusCount.get() / batches, maxBatchSize);
+    }
+}
@@ -0,0 +1,185 @@
+package edu.stevens.cs522.chat.services;
+
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.stevens.cs522.chat.wire.ChatPacket;
+
+/**
+ * Recognizes messages received before, so that a duplicate datagram, or a retransmission
+ * whose acknowledgement was lost, is dropped in the decoder rather than stored again.
+ *
+ * A message is identified by its sender, the sender's epoch and its sequence number.
+ * For each sender and epoch, a sliding window remembers which of the latest windowSize
+ * sequence numbers have been committed, one bit each, so memory is bounded by the window
+ * and the number of windows (the least recently heard from are forgotten).  A peer that
+ * is reinstalled numbers its messages from the start again, in a new epoch, which gets a
+ * window of its own: a late datagram from the old epoch neither clears the new window
+ * nor is mistaken for a message in it.  Only committed messages are added: one still on
+ * its way to the database is not yet known here, and if that commit fails, the sender's
+ * retransmission must get through.
+ *
+ * This is only the fast path.  Anything it cannot vouch for (a window it has forgotten, a
+ * number older than the window, a copy still in flight) is checked by the unique index
+ * on (senderId, epoch, seq) in messages, which GroupCommitWriter inserts into with IGNORE.
+ */
+public class DuplicateFilter {
+
+    /*
+     * A sender in one of its epochs.
+     */
+    private static final class Key {
+
+        final String sender;
+
+        final long epoch;
+
+        Key(String sender, long epoch) {
+            this.sender = sender;
+            this.epoch = epoch;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return epoch == other.epoch && sender.equals(other.sender);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * sender.hashCode() + Long.hashCode(epoch);
+        }
+    }
+
+    /*
+     * The latest windowSize sequence numbers from one sender in one epoch, as a ring of
+     * bits indexed by seq modulo the window size, up to the highest seen.
+     */
+    private static final class Window {
+
+        final long[] bits;
+
+        long highest = ChatPacket.NO_SEQ;
+
+        Window(int words) {
+            bits = new long[words];
+        }
+
+        boolean get(long seq) {
+            int bit = (int) (seq % (bits.length * 64L));
+            return (bits[bit >>> 6] & (1L << (bit & 63))) != 0;
+        }
+
+        void set(long seq, boolean value) {
+            int bit = (int) (seq % (bits.length * 64L));
+            if (value) {
+                bits[bit >>> 6] |= 1L << (bit & 63);
+            } else {
+                bits[bit >>> 6] &= ~(1L << (bit & 63));
+            }
+        }
+    }
+
+    private final int windowSize;
+
+    private final Map<Key, Window> windows;
+
+    /*
+     * Metrics
+     */
+    private final AtomicLong checked = new AtomicLong();
+
+    private final AtomicLong duplicates = new AtomicLong();
+
+    private final AtomicLong beyondWindow = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * windowSize is rounded up to a multiple of 64.  maxPeers bounds the windows kept, one
+     * for each sender and epoch.
+     */
+    public DuplicateFilter(int windowSize, final int maxPeers) {
+        int words = Math.max(1, (windowSize + 63) / 64);
+        this.windowSize = words * 64;
+        this.windows = new LinkedHashMap<Key, Window>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Window> eldest) {
+                if (size() > maxPeers) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * True if this message from sender is known to have been committed already.  False
+     * means only that it is not known here: it may still be a duplicate.
+     */
+    public synchronized boolean isDuplicate(String sender, long epoch, long seq) {
+        if (seq <= ChatPacket.NO_SEQ || sender == null) {
+            return false;
+        }
+        checked.incrementAndGet();
+        Window window = windows.get(new Key(sender, epoch));
+        if (window == null || seq > window.highest) {
+            return false;
+        }
+        if (seq <= window.highest - windowSize) {
+            beyondWindow.incrementAndGet();
+            return false;
+        }
+        if (window.get(seq)) {
+            duplicates.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Remember a message once it is in the database.  Moving the window up forgets the
+     * numbers that fall out of it.
+     */
+    public synchronized void add(String sender, long epoch, long seq) {
+        if (seq <= ChatPacket.NO_SEQ || sender == null) {
+            return;
+        }
+        Key key = new Key(sender, epoch);
+        Window window = windows.get(key);
+        if (window == null) {
+            window = new Window(windowSize / 64);
+            windows.put(key, window);
+        }
+        if (seq > window.highest) {
+            long cleared = Math.min(seq - window.highest - 1, windowSize);
+            for (long s = seq - cleared; s < seq; s++) {
+                window.set(s, false);
+            }
+            window.highest = seq;
+            window.set(seq, true);
+        } else if (seq > window.highest - windowSize) {
+            window.set(seq, true);
+        }
+    }
+
+    public long getDuplicateCount() {
+        return duplicates.get();
+    }
+
+    public void dump(PrintWriter pw) {
+        int count;
+        synchronized (this) {
+            count = windows.size();
+        }
+        pw.println("Duplicate filter:");
+        pw.printf("  window=%d windows=%d evictions=%d%n", windowSize, count, evictions.get());
+        pw.printf("  checked=%d duplicates=%d beyond window=%d%n", checked.get(), duplicates.get(), beyondWindow.get());
+    }
+}
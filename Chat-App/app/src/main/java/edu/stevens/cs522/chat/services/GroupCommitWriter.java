@@ -0,0 +1,370 @@
+package edu.stevens.cs522.chat.services;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.stevens.cs522.chat.databases.ChatDatabase;
+import edu.stevens.cs522.chat.databases.RecentMessageCache;
+import edu.stevens.cs522.chat.entities.Chatroom;
+import edu.stevens.cs522.chat.entities.Message;
+import edu.stevens.cs522.chat.entities.MessageRecord;
+import edu.stevens.cs522.chat.entities.Peer;
+import edu.stevens.cs522.chat.wire.ChatPacket;
+
+/**
+ * Persists received messages in batches, one database transaction per batch.
+ *
+ * Previously every datagram cost three auto-committed writes (chatroom, peer, message),
+ * each with its own fsync.  Here the receiver only hands the decoded message to a bounded
+ * buffer, and a writer thread commits whatever has accumulated once the batch is full or
+ * the oldest message has waited maxDelayMillis.  Chatroom and peer writes are
+ * de-duplicated within a batch, and skipped altogether when the known-entity cache
+ * shows they would change nothing (or, for peer metadata, were written recently).
+ *
+ * This is the persist stage of the receive pipeline: its buffer is the stage queue
+ * fed by the decoder.  Once a batch is durable, its messages are added to the recent
+ * message cache, and the listener is told, so that they can be acknowledged.
+ *
+ * A message that is already stored (by sender and seq) is skipped by the insert, but
+ * still acknowledged, since the sender evidently missed the first acknowledgement.
+ * Committed messages are added to the duplicate filter, so that further copies are
+ * dropped before they get this far.
+ */
+public class GroupCommitWriter implements Runnable {
+
+    private static final String TAG = GroupCommitWriter.class.getCanonicalName();
+
+    public interface CommitListener {
+        void onCommitted(List<ChatPacket> packets);
+    }
+
+    private final ChatDatabase chatDatabase;
+
+    private final StageQueue<ChatPacket> buffer;
+
+    private final CommitListener listener;
+
+    private final KnownEntityCache knownEntities;
+
+    private final RecentMessageCache recentMessages;
+
+    private final DuplicateFilter duplicateFilter;
+
+    private final int maxBatchSize;
+
+    private final long maxDelayNanos;
+
+    private Thread writerThread;
+
+    private volatile boolean finished = false;
+
+    /*
+     * Metrics
+     */
+    private final AtomicLong batchCount = new AtomicLong();
+
+    private final AtomicLong messageCount = new AtomicLong();
+
+    private final AtomicLong totalCommitNanos = new AtomicLong();
+
+    private final AtomicLong storedDuplicates = new AtomicLong();
+
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private volatile int lastBatchSize;
+
+    private volatile long lastCommitNanos;
+
+    private volatile long maxCommitNanos;
+
+    public GroupCommitWriter(ChatDatabase chatDatabase, StageQueue<ChatPacket> buffer,
+                             KnownEntityCache knownEntities, RecentMessageCache recentMessages,
+                             DuplicateFilter duplicateFilter, int maxBatchSize, long maxDelayMillis, CommitListener listener) {
+        this.chatDatabase = chatDatabase;
+        this.knownEntities = knownEntities;
+        this.recentMessages = recentMessages;
+        this.duplicateFilter = duplicateFilter;
+        this.buffer = buffer;
+        this.listener = listener;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+    }
+
+    public void start() {
+        writerThread = new Thread(this, TAG);
+        writerThread.start();
+    }
+
+    public void stop() {
+        finished = true;
+        if (writerThread != null) {
+            writerThread.interrupt();
+        }
+    }
+
+    /**
+     * Queue a message for the next commit, subject to the buffer's overflow policy.
+     */
+    public boolean submit(ChatPacket packet) throws InterruptedException {
+        return buffer.put(packet);
+    }
+
+    @Override
+    public void run() {
+        List<ChatPacket> batch = new ArrayList<>(maxBatchSize);
+
+        try {
+            knownEntities.load(chatDatabase);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Problems loading known chatrooms and peers.", e);
+        }
+
+        while (!finished) {
+            try {
+                batch.add(buffer.take());
+
+                /*
+                 * Keep collecting until the batch is full or the first message has waited long enough.
+                 */
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (batch.size() < maxBatchSize) {
+                    buffer.drainTo(batch, maxBatchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= maxBatchSize || remaining <= 0) {
+                        break;
+                    }
+                    ChatPacket next = buffer.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+            } catch (InterruptedException e) {
+                Log.d(TAG, "Writer interrupted, flushing remaining messages.");
+                finished = true;
+                buffer.drainTo(batch);
+            }
+
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<ChatPacket> batch) {
+        /*
+         * Only one chatroom insert and one peer write per name in a batch, and none for
+         * chatrooms already known, or peers whose metadata was written recently.  The most
+         * recent message from a peer determines its last-seen metadata.  The keys of known
+         * chatrooms and peers are taken from the cache now, so that they cannot be evicted
+         * before the messages referring to them are written.
+         */
+        long now = SystemClock.elapsedRealtime();
+        Instant received = Instant.now();
+        List<Message> messages = new ArrayList<>(batch.size());
+        Map<String, Long> chatroomIds = new HashMap<>();
+        Map<String, Long> senderIds = new HashMap<>();
+        Map<String, Chatroom> chatrooms = new LinkedHashMap<>();
+        Map<String, Peer> peers = new LinkedHashMap<>();
+        for (ChatPacket packet : batch) {
+            Message message = packet.toMessage();
+            if (message.timestamp == null) {
+                // Optional on the wire, but messages are paged by it (see MessageDao).
+                message.timestamp = received;
+            }
+            messages.add(message);
+            if (!chatroomIds.containsKey(message.chatroom) && !chatrooms.containsKey(message.chatroom)) {
+                long chatroomId = knownEntities.getChatroomId(message.chatroom);
+                if (chatroomId != KnownEntityCache.NO_ID) {
+                    chatroomIds.put(message.chatroom, chatroomId);
+                } else {
+                    chatrooms.put(message.chatroom, new Chatroom(message.chatroom));
+                }
+            }
+            Peer peer = peers.get(message.sender);
+            if (peer == null) {
+                if (!senderIds.containsKey(message.sender) && !knownEntities.isPeerUpdateDue(message.sender, now)) {
+                    senderIds.put(message.sender, knownEntities.getPeerId(message.sender));
+                }
+                if (senderIds.containsKey(message.sender)) {
+                    continue;
+                }
+                peer = new Peer();
+                peer.id = knownEntities.getPeerId(message.sender);
+                peer.name = message.sender;
+                peers.put(message.sender, peer);
+            }
+            if (peer.timestamp == null || (message.timestamp != null && !message.timestamp.isBefore(peer.timestamp))) {
+                peer.timestamp = message.timestamp;
+                peer.latitude = message.latitude;
+                peer.longitude = message.longitude;
+            }
+        }
+
+        long start = System.nanoTime();
+        try {
+            chatDatabase.runInTransaction(() -> {
+                if (!chatrooms.isEmpty()) {
+                    chatDatabase.chatroomDao().insertAll(new ArrayList<>(chatrooms.values()));
+                    // Some may have been inserted already (e.g. by the UI), so look them all up.
+                    for (Chatroom chatroom : chatDatabase.chatroomDao().fetchChatroomsNamed(new ArrayList<>(chatrooms.keySet()))) {
+                        chatrooms.get(chatroom.name).id = chatroom.id;
+                        chatroomIds.put(chatroom.name, chatroom.id);
+                    }
+                }
+                // Peers before messages, because of the foreign key on sender.
+                List<Peer> newPeers = new ArrayList<>();
+                for (Peer peer : peers.values()) {
+                    if (peer.id != KnownEntityCache.NO_ID) {
+                        chatDatabase.peerDao().updateMetadata(peer.id, peer.timestamp, peer.latitude, peer.longitude);
+                    } else {
+                        newPeers.add(peer);
+                    }
+                }
+                if (!newPeers.isEmpty()) {
+                    chatDatabase.peerDao().upsertAll(newPeers);
+                }
+                for (Peer peer : peers.values()) {
+                    senderIds.put(peer.name, peer.id);
+                }
+                List<MessageRecord> records = new ArrayList<>(messages.size());
+                for (int i = 0; i < messages.size(); i++) {
+                    Message message = messages.get(i);
+                    MessageRecord record = MessageRecord.of(message, chatroomIds.get(message.chatroom), senderIds.get(message.sender));
+                    ChatPacket packet = batch.get(i);
+                    record.epoch = packet.epoch;
+                    record.seq = packet.seq == ChatPacket.NO_SEQ ? null : packet.seq;
+                    records.add(record);
+                }
+                List<Long> ids = chatDatabase.messageDao().insertAll(records);
+                for (int i = 0; i < ids.size(); i++) {
+                    messages.get(i).id = ids.get(i);
+                }
+            });
+        } catch (RuntimeException e) {
+            /*
+             * Rather than lose the whole batch to one bad message, commit the messages one
+             * at a time, so that only those that fail on their own are dropped.
+             */
+            knownEntities.clear();
+            if (batch.size() > 1) {
+                Log.e(TAG, "Problems committing a batch of " + batch.size() + " messages, retrying one at a time.", e);
+                for (ChatPacket packet : batch) {
+                    flush(Collections.singletonList(packet));
+                }
+            } else {
+                Log.e(TAG, "Problems committing message " + batch.get(0) + ", dropping it.", e);
+                droppedCount.incrementAndGet();
+            }
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+
+        /*
+         * Only now that the writes are durable can the cache claim to know them.
+         */
+        for (Chatroom chatroom : chatrooms.values()) {
+            knownEntities.addChatroom(chatroom.name, chatroom.id);
+        }
+        for (Peer peer : peers.values()) {
+            knownEntities.addPeer(peer.name, peer.id, now);
+        }
+        int duplicates = 0;
+        for (Message message : messages) {
+            if (message.id < 0) {
+                duplicates++;
+                continue;
+            }
+            recentMessages.add(chatroomIds.get(message.chatroom), message);
+        }
+        for (ChatPacket packet : batch) {
+            duplicateFilter.add(packet.sender, packet.epoch, packet.seq);
+        }
+        storedDuplicates.addAndGet(duplicates);
+
+        batchCount.incrementAndGet();
+        messageCount.addAndGet(batch.size());
+        totalCommitNanos.addAndGet(elapsed);
+        lastBatchSize = batch.size();
+        lastCommitNanos = elapsed;
+        if (elapsed > maxCommitNanos) {
+            maxCommitNanos = elapsed;
+        }
+
+        Log.d(TAG, String.format("Committed %d messages (%d duplicates, %d chatrooms, %d peers) in %.2f ms",
+                batch.size(), duplicates, chatrooms.size(), peers.size(), elapsed / 1e6));
+
+        if (listener != null) {
+            listener.onCommitted(batch);
+        }
+    }
+
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    public long getMessageCount() {
+        return messageCount.get();
+    }
+
+    /**
+     * Duplicates that got past the duplicate filter, and were skipped by the insert.
+     */
+    public long getStoredDuplicateCount() {
+        return storedDuplicates.get();
+    }
+
+    /**
+     * Messages that could not be committed even on their own.
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public int getLastBatchSize() {
+        return lastBatchSize;
+    }
+
+    public double getAverageBatchSize() {
+        long batches = batchCount.get();
+        return batches == 0 ? 0 : (double) messageCount.get() / batches;
+    }
+
+    public double getLastCommitMillis() {
+        return lastCommitNanos / 1e6;
+    }
+
+    public double getMaxCommitMillis() {
+        return maxCommitNanos / 1e6;
+    }
+
+    public double getAverageCommitMillis() {
+        long batches = batchCount.get();
+        return batches == 0 ? 0 : totalCommitNanos.get() / 1e6 / batches;
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.println("Group commit:");
+        pw.printf("  batches=%d messages=%d duplicates=%d dropped=%d%n", getBatchCount(), getMessageCount(),
+                getStoredDuplicateCount(), getDroppedCount());
+        pw.printf("  batch size: last=%d avg=%.1f%n", getLastBatchSize(), getAverageBatchSize());
+        pw.printf("  commit latency (ms): last=%.2f avg=%.2f max=%.2f%n",
+                getLastCommitMillis(), getAverageCommitMillis(), getMaxCommitMillis());
+        buffer.dump(pw);
+        knownEntities.dump(pw);
+        duplicateFilter.dump(pw);
+    }
+}
@@ -1,8 +1,7 @@
 package edu.stevens.cs522.chat.services;
 
-import android.os.ResultReceiver;
-
 import java.time.Instant;
+import java.util.List;
 
 /**
  * Created by dduggan.
@@ -10,8 +9,22 @@ import java.time.Instant;
 
 public interface IChatService {
 
+    /**
+     * Send a message.  How delivery goes is recorded in its delivery status (see
+     * ChatRepository.fetchUndelivered), rather than reported back to the caller.
+     */
     public void send(String destAddress, String chatRoom, String message,
-                     Instant timestamp, double latitude, double longitude,
-                     ResultReceiver receiver);
+                     Instant timestamp, double latitude, double longitude);
+
+    /**
+     * Send several messages, persisted locally in one transaction.
+     */
+    public void sendAll(List<OutgoingMessage> messages);
+
+    /**
+     * Send whatever is waiting in the outbox, e.g. messages queued while the service was
+     * not running (see OutboxWorker).
+     */
+    public void drainOutbox();
 
 }
@@ -0,0 +1,194 @@
+package edu.stevens.cs522.chat.services;
+
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.stevens.cs522.chat.databases.ChatDatabase;
+import edu.stevens.cs522.chat.entities.Chatroom;
+import edu.stevens.cs522.chat.entities.Peer;
+
+/**
+ * Chatrooms and peers known to be in the database, so that the receive path can skip
+ * writes that would change nothing.
+ *
+ * Both caches are LRU maps of bounded size.  A chatroom is cached with its primary key
+ * once its insert has committed, so further inserts (which would be ignored) can be
+ * skipped, and messages can refer to it without a lookup.  A peer is cached with its
+ * primary key and the time its metadata was last written, so that the metadata is
+ * written at most once per update interval, by key, without a lookup.
+ * Nothing is ever deleted from these tables, so entries never go stale; callers only
+ * add entries after the transaction that wrote them has committed.
+ */
+public class KnownEntityCache {
+
+    private static final String TAG = KnownEntityCache.class.getCanonicalName();
+
+    public static final long NO_ID = 0;
+
+    private static final class PeerEntry {
+        long id;
+        long lastWriteMillis;
+
+        PeerEntry(long id, long lastWriteMillis) {
+            this.id = id;
+            this.lastWriteMillis = lastWriteMillis;
+        }
+    }
+
+    private final Map<String, Long> chatrooms;
+
+    private final Map<String, PeerEntry> peers;
+
+    private final int maxChatrooms;
+
+    private final int maxPeers;
+
+    private final long peerUpdateIntervalMillis;
+
+    /*
+     * Metrics
+     */
+    private long chatroomHits;
+
+    private long chatroomMisses;
+
+    private long peerWritesSkipped;
+
+    private long peerWrites;
+
+    public KnownEntityCache(final int maxChatrooms, final int maxPeers, long peerUpdateIntervalMillis) {
+        this.maxChatrooms = maxChatrooms;
+        this.maxPeers = maxPeers;
+        this.peerUpdateIntervalMillis = peerUpdateIntervalMillis;
+        this.chatrooms = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > maxChatrooms;
+            }
+        };
+        this.peers = new LinkedHashMap<String, PeerEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PeerEntry> eldest) {
+                return size() > maxPeers;
+            }
+        };
+    }
+
+    /**
+     * Warm the cache from the database.  Must not be called on the main thread.
+     */
+    public void load(ChatDatabase chatDatabase) {
+        List<Chatroom> rooms = chatDatabase.chatroomDao().fetchChatrooms(maxChatrooms);
+        List<Peer> known = chatDatabase.peerDao().fetchPeers(maxPeers);
+        synchronized (this) {
+            for (Chatroom chatroom : rooms) {
+                chatrooms.put(chatroom.name, chatroom.id);
+            }
+            for (Peer peer : known) {
+                // The metadata may be arbitrarily old, so let the next message update it.
+                peers.put(peer.name, new PeerEntry(peer.id, 0));
+            }
+        }
+        Log.d(TAG, "Loaded " + rooms.size() + " chatrooms and " + known.size() + " peers.");
+    }
+
+    /**
+     * The primary key of a chatroom, or NO_ID if it is not cached.
+     */
+    public synchronized long getChatroomId(String name) {
+        Long id = chatrooms.get(name);
+        if (id != null) {
+            chatroomHits++;
+            return id;
+        }
+        chatroomMisses++;
+        return NO_ID;
+    }
+
+    public synchronized void addChatroom(String name, long id) {
+        chatrooms.put(name, id);
+    }
+
+    /**
+     * The primary key of a chatroom, inserting it if need be.  Must not be called on the
+     * main thread, nor in a transaction (the cache must only learn of committed rows).
+     */
+    public long resolveChatroomId(ChatDatabase chatDatabase, String name) {
+        long id = getChatroomId(name);
+        if (id != NO_ID) {
+            return id;
+        }
+        chatDatabase.chatroomDao().insert(new Chatroom(name));
+        id = chatDatabase.chatroomDao().fetchChatroomsNamed(Collections.singletonList(name)).get(0).id;
+        addChatroom(name, id);
+        return id;
+    }
+
+    /**
+     * The primary key of a peer, or NO_ID if it is not cached.
+     */
+    public synchronized long getPeerId(String name) {
+        PeerEntry entry = peers.get(name);
+        return entry == null ? NO_ID : entry.id;
+    }
+
+    /**
+     * True if the peer is unknown, or its metadata has not been written for an interval.
+     */
+    public synchronized boolean isPeerUpdateDue(String name, long nowMillis) {
+        PeerEntry entry = peers.get(name);
+        if (entry == null || nowMillis - entry.lastWriteMillis >= peerUpdateIntervalMillis) {
+            peerWrites++;
+            return true;
+        }
+        peerWritesSkipped++;
+        return false;
+    }
+
+    /**
+     * The primary key of a peer, upserting it if need be.  Must not be called on the main
+     * thread, nor in a transaction.
+     */
+    public long resolvePeerId(ChatDatabase chatDatabase, Peer peer, long nowMillis) {
+        long id = getPeerId(peer.name);
+        if (id != NO_ID) {
+            return id;
+        }
+        chatDatabase.peerDao().upsert(peer);
+        addPeer(peer.name, peer.id, nowMillis);
+        return peer.id;
+    }
+
+    /**
+     * Record that a peer's metadata has been written (or that the peer was inserted).
+     */
+    public synchronized void addPeer(String name, long id, long writeMillis) {
+        PeerEntry entry = peers.get(name);
+        if (entry == null) {
+            peers.put(name, new PeerEntry(id, writeMillis));
+        } else {
+            entry.id = id;
+            entry.lastWriteMillis = writeMillis;
+        }
+    }
+
+    /**
+     * Forget everything, e.g. after a failed commit, in case a cached key was stale (the
+     * row deleted meanwhile).  Keys are looked up again as they are needed.
+     */
+    public synchronized void clear() {
+        chatrooms.clear();
+        peers.clear();
+    }
+
+    public synchronized void dump(PrintWriter pw) {
+        pw.println("Known entity cache:");
+        pw.printf("  chatrooms=%d hits=%d misses=%d%n", chatrooms.size(), chatroomHits, chatroomMisses);
+        pw.printf("  peers=%d metadata writes=%d skipped=%d%n", peers.size(), peerWrites, peerWritesSkipped);
+    }
+}
@@ -0,0 +1,89 @@
+package edu.stevens.cs522.chat.services;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations, for percentiles that a running average hides.
+ *
+ * Durations are counted in microseconds, in buckets that grow geometrically, four to
+ * each power of two, so a percentile is within 25% of the true value whatever its size,
+ * in fixed memory.  Recording is lock-free, so it can be shared by several threads.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKETS = 4;
+
+    private static final int SUB_BITS = 2;
+
+    // Up to 2^40 us (about 12 days)
+    private static final int BUCKETS = 40 * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    public void record(long nanos) {
+        long micros = Math.max(nanos / 1000, 0);
+        counts.incrementAndGet(bucket(micros));
+        count.incrementAndGet();
+        long max;
+        while (micros > (max = maxMicros.get()) && !maxMicros.compareAndSet(max, micros)) {
+            // Lost a race with another thread, try again.
+        }
+    }
+
+    /*
+     * Values below 2^SUB_BITS have a bucket each; above that, the bucket is the power of
+     * two and the next SUB_BITS bits.
+     */
+    private static int bucket(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) (micros >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return Math.min((exponent - SUB_BITS + 1) * SUB_BUCKETS + sub, BUCKETS - 1);
+    }
+
+    /*
+     * The largest value that falls in a bucket.
+     */
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS - 1 + SUB_BITS;
+        int sub = bucket % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS)) - 1;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * The duration that fraction (e.g. 0.99) of those recorded did not exceed, in ms.
+     */
+    public double getPercentileMillis(double fraction) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(fraction * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), maxMicros.get()) / 1000.0;
+            }
+        }
+        return maxMicros.get() / 1000.0;
+    }
+
+    public double getMaxMillis() {
+        return maxMicros.get() / 1000.0;
+    }
+}
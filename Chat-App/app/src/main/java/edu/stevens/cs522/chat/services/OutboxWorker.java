@@ -0,0 +1,181 @@
+package edu.stevens.cs522.chat.services;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.os.Bundle;
+import android.os.IBinder;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.preference.PreferenceManager;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import edu.stevens.cs522.base.work.OneTimeWorkRequest;
+import edu.stevens.cs522.base.work.PeriodicWorkRequest;
+import edu.stevens.cs522.base.work.WorkManager;
+import edu.stevens.cs522.base.work.Worker;
+import edu.stevens.cs522.chat.databases.OutboxDao;
+import edu.stevens.cs522.chat.repository.ChatRepository;
+
+/**
+ * Wakes the chat service to drain the outbox (see OutboxDao), if there is a network to
+ * send on.  Run once when messages are queued without the service, and periodically
+ * while messages are waiting to be sent again after a failed delivery.
+ *
+ * The work library cancels periodic work only by the request, which does not outlive
+ * the process, so whether the retry is wanted is also kept in preferences, and a retry
+ * that is no longer wanted does nothing, whichever request it came from.
+ */
+public class OutboxWorker extends Worker {
+
+    private static final String TAG = OutboxWorker.class.getCanonicalName();
+
+    private static final String EXTRA_RETRY = "edu.stevens.cs522.chat.services.extra.RETRY";
+
+    private static final String RETRY_KEY = "outbox-retry";
+
+    /*
+     * How long the service may be kept bound to drain the outbox, when it cannot be started.
+     */
+    private static final long BOUND_DRAIN_MILLIS = 60 * 1000;
+
+    private static final long BOUND_POLL_MILLIS = 1000;
+
+    private final boolean retry;
+
+    public OutboxWorker(Context context, Bundle data) {
+        super(context, data);
+        retry = data != null && data.getBoolean(EXTRA_RETRY);
+    }
+
+    @Override
+    public boolean doWork() {
+        if (retry && !isRetryScheduled(context)) {
+            Log.d(TAG, "Retry cancelled, not draining the outbox.");
+            return false;
+        }
+        if (!isConnected(context)) {
+            // The service drains the outbox itself when the network comes back.
+            Log.d(TAG, "No network, not draining the outbox.");
+            return false;
+        }
+        Intent intent = new Intent(context, ChatService.class);
+        intent.setAction(ChatService.ACTION_DRAIN_OUTBOX);
+        try {
+            context.startService(intent);
+            return true;
+        } catch (IllegalStateException e) {
+            // An app in the background may not start services (API 26+), but may bind them.
+            Log.d(TAG, "Cannot start the chat service from the background, binding it instead.");
+            return drainBound();
+        }
+    }
+
+    /*
+     * Bind the chat service and have it drain the outbox, keeping it bound (so running)
+     * until the outbox is empty, or for BOUND_DRAIN_MILLIS at most.  Messages that are
+     * still not delivered are left for the retry.  Runs on the work thread, while the
+     * connection callbacks come on the main thread.
+     */
+    private boolean drainBound() {
+        final CountDownLatch connected = new CountDownLatch(1);
+        final IChatService[] service = new IChatService[1];
+        ServiceConnection connection = new ServiceConnection() {
+            @Override
+            public void onServiceConnected(ComponentName name, IBinder binder) {
+                service[0] = ((ChatService.ChatBinder) binder).getService();
+                connected.countDown();
+            }
+
+            @Override
+            public void onServiceDisconnected(ComponentName name) {
+            }
+        };
+        if (!context.bindService(new Intent(context, ChatService.class), connection, Context.BIND_AUTO_CREATE)) {
+            Log.e(TAG, "Cannot bind the chat service, leaving messages in the outbox.");
+            context.unbindService(connection);
+            return false;
+        }
+        try {
+            long deadline = SystemClock.elapsedRealtime() + BOUND_DRAIN_MILLIS;
+            if (!connected.await(BOUND_DRAIN_MILLIS, TimeUnit.MILLISECONDS)) {
+                Log.e(TAG, "Chat service not connected, leaving messages in the outbox.");
+                return false;
+            }
+            service[0].drainOutbox();
+            OutboxDao outboxDao = ChatRepository.getInstance(context).getDatabase().outboxDao();
+            while (outboxDao.count() > 0) {
+                if (SystemClock.elapsedRealtime() >= deadline) {
+                    Log.d(TAG, "Outbox not empty after " + BOUND_DRAIN_MILLIS + "ms, leaving the rest for the retry.");
+                    return false;
+                }
+                Thread.sleep(BOUND_POLL_MILLIS);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            context.unbindService(connection);
+        }
+    }
+
+    /**
+     * Drain the outbox as soon as possible.
+     */
+    public static void drain(Context context) {
+        WorkManager.getInstance(context).enqueueUniqueWork(new OneTimeWorkRequest(OutboxWorker.class, new Bundle()));
+    }
+
+    /*
+     * The periodic retry, while one is scheduled by this process.
+     */
+    private static PeriodicWorkRequest retryRequest;
+
+    /**
+     * Drain the outbox every intervalMinutes, until cancelRetry, so that messages that
+     * failed are sent again even if nothing else wakes the service.
+     */
+    public static synchronized void scheduleRetry(Context context, int intervalMinutes) {
+        setRetryScheduled(context, true);
+        if (retryRequest == null) {
+            Log.d(TAG, "Retrying the outbox every " + intervalMinutes + " minute(s).");
+            Bundle data = new Bundle();
+            data.putBoolean(EXTRA_RETRY, true);
+            retryRequest = new PeriodicWorkRequest(OutboxWorker.class, data, intervalMinutes);
+            WorkManager.getInstance(context).enqueuePeriodicUniqueWork(retryRequest);
+        }
+    }
+
+    /**
+     * Stop retrying the outbox: any retry still scheduled, by this process or an earlier
+     * one, no longer wakes the service.
+     */
+    public static synchronized void cancelRetry(Context context) {
+        setRetryScheduled(context, false);
+        if (retryRequest != null) {
+            WorkManager.getInstance(context).cancelPeriodicUniqueWork(retryRequest);
+            retryRequest = null;
+        }
+    }
+
+    private static boolean isRetryScheduled(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(RETRY_KEY, false);
+    }
+
+    private static void setRetryScheduled(Context context, boolean scheduled) {
+        PreferenceManager.getDefaultSharedPreferences(context).edit().putBoolean(RETRY_KEY, scheduled).apply();
+    }
+
+    public static boolean isConnected(Context context) {
+        ConnectivityManager connectivity = context.getSystemService(ConnectivityManager.class);
+        Network network = connectivity == null ? null : connectivity.getActiveNetwork();
+        return network != null;
+    }
+}
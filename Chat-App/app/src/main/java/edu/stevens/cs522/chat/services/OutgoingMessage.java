@@ -0,0 +1,49 @@
+package edu.stevens.cs522.chat.services;
+
+import java.time.Instant;
+
+import edu.stevens.cs522.chat.entities.Message;
+
+/**
+ * A message to be sent with IChatService.sendAll.
+ */
+public class OutgoingMessage {
+
+    public String destAddress;
+
+    public String chatroom;
+
+    public String messageText;
+
+    public Instant timestamp;
+
+    public double latitude;
+
+    public double longitude;
+
+    public SendPriority priority = SendPriority.INTERACTIVE;
+
+    public OutgoingMessage() {
+    }
+
+    public OutgoingMessage(String destAddress, String chatroom, String messageText,
+                           Instant timestamp, double latitude, double longitude) {
+        this.destAddress = destAddress;
+        this.chatroom = chatroom;
+        this.messageText = messageText;
+        this.timestamp = timestamp;
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+
+    public Message toMessage(String sender) {
+        Message message = new Message();
+        message.chatroom = chatroom;
+        message.messageText = messageText;
+        message.timestamp = timestamp;
+        message.latitude = latitude;
+        message.longitude = longitude;
+        message.sender = sender;
+        return message;
+    }
+}
@@ -0,0 +1,23 @@
+package edu.stevens.cs522.chat.services;
+
+/**
+ * Priority class of an outgoing message, scheduled by the send lanes with weighted fair
+ * queuing (see WeightedFairQueue).  Stored in the outbox by ordinal, so only ever add
+ * classes at the end.
+ */
+public enum SendPriority {
+
+    // Protocol traffic (acks, presence): small, and others wait on it
+    CONTROL,
+
+    // Messages the user is waiting to see sent
+    INTERACTIVE,
+
+    // Batches, e.g. resending history, which can take their time
+    BULK;
+
+    public static SendPriority of(int ordinal) {
+        SendPriority[] values = values();
+        return ordinal >= 0 && ordinal < values.length ? values[ordinal] : INTERACTIVE;
+    }
+}
@@ -0,0 +1,251 @@
+package edu.stevens.cs522.chat.services;
+
+import java.io.PrintWriter;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded queue linking two stages of the receive pipeline.
+ *
+ * The queue itself is a lock-free ConcurrentLinkedQueue, with the bound enforced by
+ * reserving a slot in an atomic counter before an item is added.  What happens when the
+ * queue is full is decided by the overflow policy, so that a slow downstream stage
+ * (e.g. a database commit) does not have to stall the socket reader.
+ *
+ * Any number of producers is allowed, but only one consumer thread may wait for items.
+ *
+ * Waiting threads park without a timeout.  A thread first publishes itself as waiting,
+ * then checks the queue again before parking, and the other side checks for waiters
+ * after changing the queue, so one of them always sees the other and no wakeup is lost.
+ */
+public class StageQueue<T> {
+
+    public enum OverflowPolicy {
+        /*
+         * Wait for the consumer to make room.
+         */
+        BLOCK,
+        /*
+         * Discard the item at the head of the queue to make room.
+         */
+        DROP_OLDEST,
+        /*
+         * Discard the item being added.
+         */
+        DROP_NEWEST
+    }
+
+    private final String name;
+
+    private final int capacity;
+
+    private final OverflowPolicy policy;
+
+    private final ConcurrentLinkedQueue<T> queue = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    private volatile Thread consumer;
+
+    // Producers waiting for room (BLOCK policy), woken whenever an item is removed.
+    private final ConcurrentLinkedQueue<Thread> producers = new ConcurrentLinkedQueue<>();
+
+    /*
+     * Metrics
+     */
+    private final AtomicLong enqueued = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final AtomicLong blocked = new AtomicLong();
+
+    private final AtomicInteger highWaterMark = new AtomicInteger();
+
+    public StageQueue(String name, int capacity, OverflowPolicy policy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Queue capacity must be positive: " + capacity);
+        }
+        this.name = name;
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    /**
+     * Add an item, applying the overflow policy if the queue is full.
+     * @return false if the item itself was dropped.
+     */
+    public boolean put(T item) throws InterruptedException {
+        boolean waited = false;
+        while (true) {
+            int n = count.get();
+            if (n < capacity) {
+                if (count.compareAndSet(n, n + 1)) {
+                    queue.offer(item);
+                    enqueued.incrementAndGet();
+                    highWaterMark.accumulateAndGet(n + 1, Math::max);
+                    Thread waiter = consumer;
+                    if (waiter != null) {
+                        LockSupport.unpark(waiter);
+                    }
+                    return true;
+                }
+                continue;
+            }
+
+            switch (policy) {
+                case DROP_NEWEST:
+                    dropped.incrementAndGet();
+                    return false;
+
+                case DROP_OLDEST:
+                    if (queue.poll() != null) {
+                        count.decrementAndGet();
+                        dropped.incrementAndGet();
+                    }
+                    break;
+
+                case BLOCK:
+                    if (!waited) {
+                        blocked.incrementAndGet();
+                        waited = true;
+                    }
+                    Thread self = Thread.currentThread();
+                    producers.add(self);
+                    try {
+                        if (count.get() >= capacity) {
+                            LockSupport.park(this);
+                        }
+                    } finally {
+                        producers.remove(self);
+                    }
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Remove the item at the head of the queue, or return null if it is empty.
+     */
+    public T poll() {
+        T item = queue.poll();
+        if (item != null) {
+            count.decrementAndGet();
+            // Every waiting producer retries; there are only ever a few.
+            for (Thread producer : producers) {
+                LockSupport.unpark(producer);
+            }
+        }
+        return item;
+    }
+
+    /**
+     * Wait until an item is available.
+     */
+    public T take() throws InterruptedException {
+        T item = poll();
+        if (item != null) {
+            return item;
+        }
+        consumer = Thread.currentThread();
+        try {
+            while ((item = poll()) == null) {
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+            return item;
+        } finally {
+            consumer = null;
+        }
+    }
+
+    /**
+     * Wait up to the timeout for an item, returning null if none arrives.
+     */
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        T item = poll();
+        if (item != null) {
+            return item;
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        consumer = Thread.currentThread();
+        try {
+            while ((item = poll()) == null) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return null;
+                }
+                LockSupport.parkNanos(this, remaining);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+            return item;
+        } finally {
+            consumer = null;
+        }
+    }
+
+    /**
+     * Move up to maxItems items into the collection, without waiting.
+     */
+    public int drainTo(Collection<? super T> collection, int maxItems) {
+        int n = 0;
+        T item;
+        while (n < maxItems && (item = poll()) != null) {
+            collection.add(item);
+            n++;
+        }
+        return n;
+    }
+
+    public int drainTo(Collection<? super T> collection) {
+        return drainTo(collection, Integer.MAX_VALUE);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int size() {
+        return count.get();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    public long getEnqueuedCount() {
+        return enqueued.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getBlockedCount() {
+        return blocked.get();
+    }
+
+    public int getHighWaterMark() {
+        return highWaterMark.get();
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.printf("Stage queue %s (%s):%n", name, policy);
+        pw.printf("  depth=%d/%d high-water=%d enqueued=%d dropped=%d blocked=%d%n",
+                size(), capacity, getHighWaterMark(), getEnqueuedCount(), getDroppedCount(), getBlockedCount());
+    }
+}
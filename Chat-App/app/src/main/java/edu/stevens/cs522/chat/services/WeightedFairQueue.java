@@ -0,0 +1,147 @@
+package edu.stevens.cs522.chat.services;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * The queue of a send lane: one FIFO per priority class (see SendPriority), served by
+ * weighted fair queuing, so a backlog in one class delays the others only by its share.
+ *
+ * Each item is stamped with a virtual finish time when it is added: the later of the
+ * queue's virtual time and the finish time of the last item in its class, plus the cost
+ * of the item, 1 / the weight of its class.  The head with the earliest finish is served
+ * next, and the virtual time moves up to its finish (self-clocked fair queuing).  So
+ * while several classes are waiting, each is served in proportion to its weight, and a
+ * class that was idle is not owed a burst for the time it was away.
+ *
+ * A low weight can still keep a class waiting for a long time, so each class also has a
+ * starvation limit: a head that has waited longer than its class's limit is served
+ * first, oldest first.
+ *
+ * Waits are recorded in per-class Stats, which may be shared by the queues of all lanes.
+ */
+public class WeightedFairQueue<T> {
+
+    /**
+     * How long items of a class waited in the queue, for all the queues sharing it.
+     */
+    public static class Stats {
+
+        private final LatencyHistogram waits = new LatencyHistogram();
+
+        private final AtomicLong promoted = new AtomicLong();
+
+        public void dump(PrintWriter pw, String name) {
+            pw.printf("  %s: sent=%d promoted=%d wait p50=%.1fms p99=%.1fms max=%.1fms%n", name,
+                    waits.getCount(), promoted.get(), waits.getPercentileMillis(0.5),
+                    waits.getPercentileMillis(0.99), waits.getMaxMillis());
+        }
+    }
+
+    private static final class Entry<T> {
+        final T item;
+        final double finish;
+        final long enqueuedNanos;
+
+        Entry(T item, double finish, long enqueuedNanos) {
+            this.item = item;
+            this.finish = finish;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
+
+    private final ArrayDeque<Entry<T>>[] queues;
+
+    private final double[] costs;
+
+    private final long[] maxWaitNanos;
+
+    private final double[] lastFinish;
+
+    private final Stats[] stats;
+
+    private final LongSupplier nanoTime;
+
+    private double virtualTime;
+
+    private int size;
+
+    /**
+     * One class per element of weights (which must be positive), with the longest each
+     * may wait before it is served ahead of its share, and where its waits are recorded.
+     */
+    public WeightedFairQueue(int[] weights, int[] maxWaitMillis, Stats[] stats) {
+        this(weights, maxWaitMillis, stats, System::nanoTime);
+    }
+
+    /*
+     * With the clock that waits are measured by, for tests.
+     */
+    @SuppressWarnings("unchecked")
+    WeightedFairQueue(int[] weights, int[] maxWaitMillis, Stats[] stats, LongSupplier nanoTime) {
+        int classes = weights.length;
+        this.queues = new ArrayDeque[classes];
+        this.costs = new double[classes];
+        this.maxWaitNanos = new long[classes];
+        this.lastFinish = new double[classes];
+        this.stats = stats;
+        this.nanoTime = nanoTime;
+        for (int i = 0; i < classes; i++) {
+            queues[i] = new ArrayDeque<>();
+            costs[i] = 1.0 / weights[i];
+            maxWaitNanos[i] = maxWaitMillis[i] * 1000000L;
+        }
+    }
+
+    public synchronized void add(T item, int priority) {
+        double finish = Math.max(virtualTime, lastFinish[priority]) + costs[priority];
+        lastFinish[priority] = finish;
+        queues[priority].addLast(new Entry<>(item, finish, nanoTime.getAsLong()));
+        size++;
+    }
+
+    /**
+     * The next item to serve, or null if there is none.
+     */
+    public synchronized T poll() {
+        if (size == 0) {
+            return null;
+        }
+        long now = nanoTime.getAsLong();
+        int next = -1;
+        boolean starved = false;
+        for (int i = 0; i < queues.length; i++) {
+            Entry<T> head = queues[i].peekFirst();
+            if (head == null) {
+                continue;
+            }
+            boolean overdue = now - head.enqueuedNanos > maxWaitNanos[i];
+            if (next < 0 || (overdue && !starved) || (overdue == starved && isBefore(head, queues[next].peekFirst(), starved))) {
+                next = i;
+                starved = overdue;
+            }
+        }
+        Entry<T> entry = queues[next].pollFirst();
+        size--;
+        virtualTime = Math.max(virtualTime, entry.finish);
+        stats[next].waits.record(now - entry.enqueuedNanos);
+        if (starved) {
+            stats[next].promoted.incrementAndGet();
+        }
+        return entry.item;
+    }
+
+    /*
+     * Among overdue heads the oldest goes first, otherwise the earliest finish (ties go
+     * to the class listed first).
+     */
+    private static boolean isBefore(Entry<?> head, Entry<?> other, boolean overdue) {
+        return overdue ? head.enqueuedNanos < other.enqueuedNanos : head.finish < other.finish;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+}
@@ -6,12 +6,18 @@ import android.util.Log;
 
 import androidx.preference.PreferenceManager;
 
+import java.security.SecureRandom;
+
+import edu.stevens.cs522.chat.wire.ChatPacket;
+
 public class Settings {
 
     private static final String TAG = Settings.class.getCanonicalName();
 
     public static final String SENDER_NAME_KEY = "sender-name";
 
+    public static final String SENDER_EPOCH_KEY = "sender-epoch";
+
     public static String getSenderName(Context context) {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
         return prefs.getString(SENDER_NAME_KEY, "");
@@ -23,6 +29,25 @@ public class Settings {
         editor.apply();
     }
 
+    /**
+     * A random number chosen once per install, sent with our messages.  Their sequence
+     * numbers start again when the app is reinstalled or its data cleared, which also
+     * clears this, so with the epoch they still identify a message to its receivers.
+     */
+    public static synchronized long getSenderEpoch(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        long epoch = prefs.getLong(SENDER_EPOCH_KEY, ChatPacket.NO_EPOCH);
+        if (epoch == ChatPacket.NO_EPOCH) {
+            SecureRandom random = new SecureRandom();
+            do {
+                epoch = random.nextLong();
+            } while (epoch == ChatPacket.NO_EPOCH);
+            Log.d(TAG, "New sender epoch " + epoch);
+            prefs.edit().putLong(SENDER_EPOCH_KEY, epoch).commit();
+        }
+        return epoch;
+    }
+
     public static boolean isRegistered(Context context) {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
         return prefs.getString(SENDER_NAME_KEY, null) != null;
@@ -0,0 +1,28 @@
+package edu.stevens.cs522.chat.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import edu.stevens.cs522.base.IDatagramConnection;
+
+/**
+ * A datagram connection that can also send and receive raw bytes, for callers that do
+ * not need the payload as a String.
+ */
+public interface IByteDatagramConnection extends IDatagramConnection {
+
+    /**
+     * Wait for the next datagram on any of the connection's channels.
+     */
+    InboundPacket receivePacket() throws IOException, InterruptedException;
+
+    /**
+     * Send the remaining bytes of the payload.  The address is as for Datagram:
+     * a port on the emulator host, or host:port.
+     */
+    void send(String address, ByteBuffer payload) throws IOException;
+
+    void send(String address, byte[] payload, int offset, int length) throws IOException;
+
+    int getMaxMessageSize();
+}
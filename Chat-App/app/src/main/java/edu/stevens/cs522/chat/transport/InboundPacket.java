@@ -0,0 +1,48 @@
+package edu.stevens.cs522.chat.transport;
+
+import java.net.InetSocketAddress;
+
+/**
+ * A received datagram, with its payload left as bytes.
+ */
+public final class InboundPacket {
+
+    public final byte[] data;
+
+    public final int length;
+
+    /*
+     * Local port the datagram arrived on.
+     */
+    public final int localPort;
+
+    private final InetSocketAddress source;
+
+    private String address;
+
+    public InboundPacket(byte[] data, int length, InetSocketAddress source, int localPort) {
+        this.data = data;
+        this.length = length;
+        this.source = source;
+        this.localPort = localPort;
+    }
+
+    public InboundPacket(byte[] data, int length, String address, int localPort) {
+        this(data, length, (InetSocketAddress) null, localPort);
+        this.address = address;
+    }
+
+    public InetSocketAddress getSource() {
+        return source;
+    }
+
+    /**
+     * Source host address, formatted only if someone asks for it.
+     */
+    public String getAddress() {
+        if (address == null && source != null) {
+            address = source.getAddress() != null ? source.getAddress().getHostAddress() : source.getHostString();
+        }
+        return address;
+    }
+}
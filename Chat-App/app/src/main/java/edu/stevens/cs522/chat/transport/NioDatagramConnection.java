@@ -0,0 +1,250 @@
+package edu.stevens.cs522.chat.transport;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import edu.stevens.cs522.base.Datagram;
+
+/**
+ * UDP connection built on non-blocking DatagramChannels and a selector.
+ *
+ * Unlike UdpDatagramConnection, which allocates a 512-byte buffer and a String for
+ * every datagram, this reads into one reusable direct buffer and hands back only the
+ * bytes received.  Any number of ports (or channels opened elsewhere) can be added,
+ * and are all serviced by the one thread calling receive.  Datagrams are sent from
+ * the first channel, through a second direct buffer; send does not wait for room in
+ * the socket buffer, but fails with an IOException if there is none.
+ *
+ * Addresses follow UdpDatagramConnection: a bare port refers to the emulator host,
+ * but host:port is accepted too.
+ */
+public class NioDatagramConnection implements IByteDatagramConnection {
+
+    private static final String TAG = NioDatagramConnection.class.getCanonicalName();
+
+    private static final String DEFAULT_DESTINATION_ADDRESS = "10.0.2.2";
+
+    /*
+     * Largest datagram sent, the same as UdpDatagramConnection so that its receivers
+     * do not truncate our packets.
+     */
+    public static final int MAX_MESSAGE_SIZE = 512;
+
+    /*
+     * Largest UDP payload, so that nothing we receive is truncated.
+     */
+    private static final int MAX_DATAGRAM_SIZE = 65507;
+
+    private static final class Endpoint {
+        final DatagramChannel channel;
+        final int port;
+
+        Endpoint(DatagramChannel channel) throws IOException {
+            this.channel = channel;
+            this.port = ((InetSocketAddress) channel.getLocalAddress()).getPort();
+        }
+    }
+
+    private final Selector selector;
+
+    private final List<Endpoint> endpoints = new CopyOnWriteArrayList<>();
+
+    /*
+     * Channels added while the receiving thread may be blocked in select.
+     */
+    private final Queue<Endpoint> registrations = new ConcurrentLinkedQueue<>();
+
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+
+    private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(MAX_MESSAGE_SIZE);
+
+    private final Map<String, InetSocketAddress> destinations = new ConcurrentHashMap<>();
+
+    /*
+     * Where the next receive starts looking, so that a busy port cannot starve the others.
+     */
+    private int nextEndpoint;
+
+    public NioDatagramConnection(int port) throws IOException {
+        selector = Selector.open();
+        addPort(port);
+    }
+
+    /**
+     * Also listen on another port.
+     */
+    public void addPort(int port) throws IOException {
+        Log.i(TAG, String.format("Binding to UDP port %d", port));
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            channel.bind(new InetSocketAddress(port));
+            addChannel(channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Service a channel that has already been bound.
+     */
+    public void addChannel(DatagramChannel channel) throws IOException {
+        channel.configureBlocking(false);
+        Endpoint endpoint = new Endpoint(channel);
+        endpoints.add(endpoint);
+        registrations.add(endpoint);
+        selector.wakeup();
+    }
+
+    @Override
+    public InboundPacket receivePacket() throws IOException, InterruptedException {
+        try {
+            while (true) {
+                Endpoint endpoint;
+                while ((endpoint = registrations.poll()) != null) {
+                    endpoint.channel.register(selector, SelectionKey.OP_READ, endpoint);
+                }
+
+                /*
+                 * Poll every channel once before waiting; the selector is only needed
+                 * when all of them are empty.
+                 */
+                int n = endpoints.size();
+                for (int i = 0; i < n; i++) {
+                    int index = (nextEndpoint + i) % n;
+                    endpoint = endpoints.get(index);
+                    receiveBuffer.clear();
+                    SocketAddress source = endpoint.channel.receive(receiveBuffer);
+                    if (source != null) {
+                        nextEndpoint = (index + 1) % n;
+                        receiveBuffer.flip();
+                        int length = receiveBuffer.remaining();
+                        byte[] data = new byte[length];
+                        receiveBuffer.get(data);
+                        return new InboundPacket(data, length, (InetSocketAddress) source, endpoint.port);
+                    }
+                }
+
+                selector.select();
+                selector.selectedKeys().clear();
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                if (!selector.isOpen()) {
+                    throw new IOException("Connection closed.");
+                }
+            }
+        } catch (ClosedSelectorException e) {
+            throw new IOException("Connection closed.", e);
+        }
+    }
+
+    @Override
+    public void receive(Datagram datagram) throws IOException, InterruptedException {
+        InboundPacket packet = receivePacket();
+        datagram.setData(new String(packet.data, 0, packet.length, StandardCharsets.UTF_8));
+        datagram.setAddress(packet.getAddress());
+    }
+
+    @Override
+    public void send(String address, ByteBuffer payload) throws IOException {
+        if (payload.remaining() > MAX_MESSAGE_SIZE) {
+            throw new IOException(String.format("Datagram of %d bytes exceeds the maximum of %d!",
+                    payload.remaining(), MAX_MESSAGE_SIZE));
+        }
+        InetSocketAddress destination = destination(address);
+        Log.d(TAG, String.format("Sending a UDP packet to destination %s", destination));
+        synchronized (sendBuffer) {
+            ByteBuffer source = payload;
+            if (!payload.isDirect()) {
+                sendBuffer.clear();
+                sendBuffer.put(payload);
+                sendBuffer.flip();
+                source = sendBuffer;
+            }
+            /*
+             * A non-blocking channel sends nothing if the socket buffer is full.  Say so,
+             * rather than let the caller think the datagram went out.
+             */
+            int length = source.remaining();
+            if (endpoints.get(0).channel.send(source, destination) == 0 && length > 0) {
+                throw new IOException(String.format("Send buffer full, datagram of %d bytes to %s not sent.",
+                        length, destination));
+            }
+        }
+    }
+
+    @Override
+    public void send(String address, byte[] payload, int offset, int length) throws IOException {
+        send(address, ByteBuffer.wrap(payload, offset, length));
+    }
+
+    @Override
+    public void send(Context context, Datagram datagram) throws IOException {
+        byte[] payload = datagram.getData().getBytes(StandardCharsets.UTF_8);
+        send(datagram.getAddress(), payload, 0, payload.length);
+    }
+
+    @Override
+    public int getMaxMessageSize() {
+        return MAX_MESSAGE_SIZE;
+    }
+
+    private InetSocketAddress destination(String address) {
+        if (address == null) {
+            throw new IllegalArgumentException("No destination specified for packet!");
+        }
+        InetSocketAddress destination = destinations.get(address);
+        if (destination == null) {
+            String host = hostOf(address);
+            String port = address.substring(address.lastIndexOf(':') + 1);
+            try {
+                destination = new InetSocketAddress(host, Integer.parseInt(port));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(String.format("Address for datagram packet (%s) should be a port or host:port!", address), e);
+            }
+            destinations.put(address, destination);
+        }
+        return destination;
+    }
+
+    /**
+     * The host part of an address: the emulator host if it is a bare port.
+     */
+    public static String hostOf(String address) {
+        int colon = address.lastIndexOf(':');
+        return colon >= 0 ? address.substring(0, colon) : DEFAULT_DESTINATION_ADDRESS;
+    }
+
+    @Override
+    public void close() {
+        try {
+            selector.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Problems closing selector.", e);
+        }
+        for (Endpoint endpoint : endpoints) {
+            try {
+                endpoint.channel.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Problems closing channel on port " + endpoint.port, e);
+            }
+        }
+    }
+}
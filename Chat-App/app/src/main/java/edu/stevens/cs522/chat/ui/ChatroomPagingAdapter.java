@@ -0,0 +1,142 @@
+package edu.stevens.cs522.chat.ui;
+
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.paging.PagingDataAdapter;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.List;
+
+import edu.stevens.cs522.chat.R;
+import edu.stevens.cs522.chat.entities.ChatroomPreview;
+
+/**
+ * Displays the chatroom directory a page at a time, with the selected chatroom highlighted.
+ * The selection is kept by chatroom id, since chatrooms move as they become active.
+ */
+public class ChatroomPagingAdapter extends PagingDataAdapter<ChatroomPreview, ChatroomPagingAdapter.ViewHolder> {
+
+    private static final String TAG = ChatroomPagingAdapter.class.getCanonicalName();
+
+    /*
+     * Change payload for a row whose selection has changed, but not its text.
+     */
+    private static final Object SELECTION_CHANGED = new Object();
+
+    private static final DiffUtil.ItemCallback<ChatroomPreview> DIFF_CALLBACK = new DiffUtil.ItemCallback<ChatroomPreview>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull ChatroomPreview oldItem, @NonNull ChatroomPreview newItem) {
+            return oldItem.chatroom.id == newItem.chatroom.id;
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull ChatroomPreview oldItem, @NonNull ChatroomPreview newItem) {
+            // Only the text of an item is displayed.
+            return oldItem.toString().equals(newItem.toString());
+        }
+    };
+
+    public interface OnItemClickListener {
+        void onItemClick(int position, ChatroomPreview chatroom);
+    }
+
+    private final OnItemClickListener listener;
+
+    private long selectedId = RecyclerView.NO_ID;
+
+    public ChatroomPagingAdapter(OnItemClickListener listener) {
+        super(DIFF_CALLBACK);
+        this.listener = listener;
+    }
+
+    public class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+
+        private final TextView textView;
+
+        public ViewHolder(View view) {
+            super(view);
+            this.textView = view.findViewById(R.id.text1);
+            view.setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(View v) {
+            int position = getBindingAdapterPosition();
+            if (position == RecyclerView.NO_POSITION) {
+                return;
+            }
+            ChatroomPreview chatroom = peek(position);
+            if (chatroom == null) {
+                return;
+            }
+            Log.d(TAG, "Clicked on chatroom " + chatroom.chatroom.id + " at position " + position);
+            setSelectedId(chatroom.chatroom.id);
+            if (listener != null) {
+                listener.onItemClick(position, chatroom);
+            }
+        }
+    }
+
+    public long getSelectedId() {
+        return selectedId;
+    }
+
+    /*
+     * Move the selection, rebinding just the loaded rows selected and deselected.
+     */
+    public void setSelectedId(long id) {
+        if (id == selectedId) {
+            return;
+        }
+        long previous = selectedId;
+        selectedId = id;
+        List<ChatroomPreview> loaded = snapshot();
+        for (int i = 0; i < loaded.size(); i++) {
+            ChatroomPreview chatroom = loaded.get(i);
+            if (chatroom != null && (chatroom.chatroom.id == previous || chatroom.chatroom.id == id)) {
+                notifyItemChanged(i, SELECTION_CHANGED);
+            }
+        }
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup viewGroup, int viewType) {
+        // Highlighted when activated
+        View view = LayoutInflater.from(viewGroup.getContext())
+                .inflate(R.layout.item_active, viewGroup, false);
+
+        return new ViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder viewHolder, int position) {
+        ChatroomPreview chatroom = getItem(position);
+        if (chatroom == null) {
+            viewHolder.textView.setText("");
+            viewHolder.itemView.setActivated(false);
+            return;
+        }
+        viewHolder.textView.setText(chatroom.toString());
+        viewHolder.itemView.setActivated(chatroom.chatroom.id == selectedId);
+    }
+
+    /*
+     * A change of selection alone does not need the text rebound.
+     */
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder viewHolder, int position, @NonNull List<Object> payloads) {
+        ChatroomPreview chatroom = peek(position);
+        if (chatroom != null && !payloads.isEmpty() && payloads.stream().allMatch(payload -> payload == SELECTION_CHANGED)) {
+            viewHolder.itemView.setActivated(chatroom.chatroom.id == selectedId);
+        } else {
+            onBindViewHolder(viewHolder, position);
+        }
+    }
+}
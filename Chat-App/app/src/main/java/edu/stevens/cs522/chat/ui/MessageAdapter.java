@@ -7,10 +7,12 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 import edu.stevens.cs522.chat.R;
 import edu.stevens.cs522.chat.entities.Message;
@@ -19,7 +21,30 @@ public abstract class MessageAdapter extends RecyclerView.Adapter<MessageAdapter
 
     private static final String TAG = MessageAdapter.class.getCanonicalName();
 
-    private List<Message> messages;
+    /*
+     * Messages are the same if they have the same id, and need rebinding only if what is
+     * displayed of them has changed.
+     */
+    public static final DiffUtil.ItemCallback<Message> DIFF_CALLBACK = new DiffUtil.ItemCallback<Message>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Message oldMessage, @NonNull Message newMessage) {
+            return oldMessage.id == newMessage.id;
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Message oldMessage, @NonNull Message newMessage) {
+            return Objects.equals(oldMessage.sender, newMessage.sender)
+                    && Objects.equals(oldMessage.chatroom, newMessage.chatroom)
+                    && Objects.equals(oldMessage.messageText, newMessage.messageText)
+                    && Objects.equals(oldMessage.timestamp, newMessage.timestamp);
+        }
+    };
+
+    /*
+     * Diffs each new list against the current one on a background thread, and applies
+     * only the differences, discarding results overtaken by a later list.
+     */
+    private final AsyncListDiffer<Message> messages;
 
 
     /**
@@ -54,7 +79,8 @@ public abstract class MessageAdapter extends RecyclerView.Adapter<MessageAdapter
      * Initialize the dataset of the Adapter
      */
     public MessageAdapter() {
-        this.messages = new ArrayList<>();
+        this.messages = new AsyncListDiffer<>(this, DIFF_CALLBACK);
+        setHasStableIds(true);
     }
 
     // Create new views (invoked by the layout manager)
@@ -74,7 +100,7 @@ public abstract class MessageAdapter extends RecyclerView.Adapter<MessageAdapter
 
         // TODO set the fields of the view for the message
         // Use getHeading() to get the heading in the message
-        Message message = messages.get(position);
+        Message message = messages.getCurrentList().get(position);
 
         viewHolder.setMetadata(getHeading(message));
         viewHolder.setMessage(message.messageText);
@@ -86,7 +112,12 @@ public abstract class MessageAdapter extends RecyclerView.Adapter<MessageAdapter
     // Return the size of your dataset (invoked by the layout manager)
     @Override
     public int getItemCount() {
-        return messages.size();
+        return messages.getCurrentList().size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return messages.getCurrentList().get(position).id;
     }
 
     public abstract String getHeading(Message message);
@@ -95,7 +126,7 @@ public abstract class MessageAdapter extends RecyclerView.Adapter<MessageAdapter
      * Invoked by live data observer.
      */
     public void setMessage(List<Message> messages) {
-        this.messages = messages;
+        this.messages.submitList(messages);
     }
 }
 
@@ -0,0 +1,47 @@
+package edu.stevens.cs522.chat.ui;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import androidx.annotation.NonNull;
+import androidx.paging.PagingDataAdapter;
+
+import edu.stevens.cs522.chat.R;
+import edu.stevens.cs522.chat.entities.Message;
+
+/**
+ * Displays a paged list of messages, only the pages near the user's position being in memory.
+ * Rows for messages that are counted but not yet loaded (placeholders) are shown blank.
+ */
+public abstract class MessagePagingAdapter extends PagingDataAdapter<Message, MessageAdapter.ViewHolder> {
+
+    private static final String TAG = MessagePagingAdapter.class.getCanonicalName();
+
+    public MessagePagingAdapter() {
+        super(MessageAdapter.DIFF_CALLBACK);
+    }
+
+    @NonNull
+    @Override
+    public MessageAdapter.ViewHolder onCreateViewHolder(@NonNull ViewGroup viewGroup, int viewType) {
+        View view = LayoutInflater.from(viewGroup.getContext())
+                .inflate(R.layout.message, viewGroup, false);
+
+        return new MessageAdapter.ViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull MessageAdapter.ViewHolder viewHolder, int position) {
+        Message message = getItem(position);
+        if (message == null) {
+            viewHolder.setMetadata("");
+            viewHolder.setMessage("");
+            return;
+        }
+        viewHolder.setMetadata(getHeading(message));
+        viewHolder.setMessage(message.messageText);
+    }
+
+    public abstract String getHeading(Message message);
+}
@@ -0,0 +1,72 @@
+package edu.stevens.cs522.chat.ui;
+
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.stevens.cs522.chat.R;
+import edu.stevens.cs522.chat.databases.MessageTail;
+import edu.stevens.cs522.chat.entities.Message;
+
+/**
+ * Displays the messages added to a chatroom since it was opened, applying each delta
+ * from a MessageTail as a range insert, so only the new rows are bound.
+ */
+public abstract class MessageTailAdapter extends RecyclerView.Adapter<MessageAdapter.ViewHolder> {
+
+    private static final String TAG = MessageTailAdapter.class.getCanonicalName();
+
+    private final List<Message> messages = new ArrayList<>();
+
+    private MessageTail.Delta last;
+
+    @NonNull
+    @Override
+    public MessageAdapter.ViewHolder onCreateViewHolder(@NonNull ViewGroup viewGroup, int viewType) {
+        View view = LayoutInflater.from(viewGroup.getContext())
+                .inflate(R.layout.message, viewGroup, false);
+
+        return new MessageAdapter.ViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull MessageAdapter.ViewHolder viewHolder, int position) {
+        Message message = messages.get(position);
+        viewHolder.setMetadata(getHeading(message));
+        viewHolder.setMessage(message.messageText);
+    }
+
+    @Override
+    public int getItemCount() {
+        return messages.size();
+    }
+
+    public abstract String getHeading(Message message);
+
+    /*
+     * Invoked by live data observer.
+     */
+    public void apply(MessageTail.Delta delta) {
+        if (delta.isFrom(last) && delta.start == messages.size()) {
+            messages.addAll(delta.appended);
+            notifyItemRangeInserted(delta.start, delta.appended.size());
+        } else if (delta.isFrom(last) && delta.end() <= messages.size()) {
+            Log.d(TAG, "Ignoring delta already applied.");
+        } else {
+            // A different chatroom, or deltas were missed: start over.
+            int removed = messages.size();
+            messages.clear();
+            notifyItemRangeRemoved(0, removed);
+            messages.addAll(delta.snapshot());
+            notifyItemRangeInserted(0, messages.size());
+        }
+        last = delta;
+    }
+}
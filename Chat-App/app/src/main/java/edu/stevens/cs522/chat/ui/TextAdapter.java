@@ -4,14 +4,15 @@ import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ListView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.function.ToLongFunction;
 
 import edu.stevens.cs522.chat.R;
 
@@ -19,13 +20,28 @@ public class TextAdapter<T> extends RecyclerView.Adapter<TextAdapter<T>.ViewHold
 
     private static final String TAG = TextAdapter.class.getCanonicalName();
 
-    private List<T> dataset;
+    /*
+     * Change payload for a row whose selection has changed, but not its text.
+     */
+    private static final Object SELECTION_CHANGED = new Object();
+
+    /*
+     * Diffs each new dataset against the current one on a background thread, and applies
+     * only the differences, discarding results overtaken by a later dataset.
+     */
+    private final AsyncListDiffer<T> dataset;
 
-    private int selected;
+    // The primary key of an item, for stable ids and diffing
+    private final ToLongFunction<T> idOf;
 
-    // Indicate if something is selected view
-    private static final int TYPE_INACTIVE = 0;
-    private static final int TYPE_ACTIVE = 1;
+    // The selection is kept by id, since its position changes as the dataset does
+    private long selectedId = RecyclerView.NO_ID;
+
+    // Position of the selection, if known
+    private int selected = RecyclerView.NO_POSITION;
+
+    // Position to select once the dataset is loaded
+    private int pendingSelection = RecyclerView.NO_POSITION;
 
     private final RecyclerView recyclerView;
 
@@ -34,15 +50,27 @@ public class TextAdapter<T> extends RecyclerView.Adapter<TextAdapter<T>.ViewHold
     /**
      * Initialize the dataset of the Adapter
      */
-    public TextAdapter(RecyclerView recyclerView) {
-        this(recyclerView, null);
+    public TextAdapter(RecyclerView recyclerView, ToLongFunction<T> idOf) {
+        this(recyclerView, idOf, null);
     }
 
-    public TextAdapter(RecyclerView recyclerView, OnItemClickListener<T> listener) {
-        this.dataset = new ArrayList<>();
+    public TextAdapter(RecyclerView recyclerView, ToLongFunction<T> idOf, OnItemClickListener<T> listener) {
         this.recyclerView = recyclerView;
+        this.idOf = idOf;
         this.listener = listener;
-        this.selected = ListView.INVALID_POSITION;
+        this.dataset = new AsyncListDiffer<>(this, new DiffUtil.ItemCallback<T>() {
+            @Override
+            public boolean areItemsTheSame(@NonNull T oldItem, @NonNull T newItem) {
+                return idOf.applyAsLong(oldItem) == idOf.applyAsLong(newItem);
+            }
+
+            @Override
+            public boolean areContentsTheSame(@NonNull T oldItem, @NonNull T newItem) {
+                // Only the text of an item is displayed.
+                return oldItem.toString().equals(newItem.toString());
+            }
+        });
+        setHasStableIds(true);
     }
 
     /*
@@ -74,41 +102,78 @@ public class TextAdapter<T> extends RecyclerView.Adapter<TextAdapter<T>.ViewHold
             textView.setText(text);
         }
 
+        public void setSelected(boolean selected) {
+            itemView.setActivated(selected);
+        }
+
         @Override
         public void onClick(View v) {
             int position = this.getBindingAdapterPosition();
 
             // TODO invoke the listener
 
-            if (position != RecyclerView.NO_POSITION) {
-                int previousSelected = selected;
-                selected = position;
-
-                if (previousSelected != RecyclerView.NO_POSITION) {
-                    notifyItemChanged(previousSelected);
-                }
-                notifyItemChanged(selected);
-
+            if (position == RecyclerView.NO_POSITION) {
+                return;
+            }
 
-                Log.d(TAG, "Clicked on position "+position+" in list of items....");
+            setItemChecked(position);
 
-            }
+            Log.d(TAG, "Clicked on position "+position+" in list of items....");
 
             if (listener != null) {
-                T item = dataset.get(position);
+                T item = dataset.getCurrentList().get(position);
                 listener.onItemClick(recyclerView, v, position, item);
             }
         }
     }
 
+    /*
+     * Move the selection, rebinding just the rows selected and deselected.  A position
+     * beyond the dataset (e.g. restored before the dataset is loaded) is selected once
+     * there is an item there.
+     */
     public void setItemChecked(int position) {
+        List<T> items = dataset.getCurrentList();
+        if (position >= items.size()) {
+            pendingSelection = position;
+            return;
+        }
+        pendingSelection = RecyclerView.NO_POSITION;
+        long id = (position < 0) ? RecyclerView.NO_ID : idOf.applyAsLong(items.get(position));
+        if (id == selectedId) {
+            return;
+        }
+        int previous = positionOf(selectedId);
+        selectedId = id;
         selected = position;
-        notifyDataSetChanged();
+        if (previous != RecyclerView.NO_POSITION) {
+            notifyItemChanged(previous, SELECTION_CHANGED);
+        }
+        if (position >= 0) {
+            notifyItemChanged(position, SELECTION_CHANGED);
+        }
+    }
+
+    private int positionOf(long id) {
+        if (id == RecyclerView.NO_ID) {
+            return RecyclerView.NO_POSITION;
+        }
+        List<T> items = dataset.getCurrentList();
+        // Usually where it was last seen.
+        if (selected >= 0 && selected < items.size() && idOf.applyAsLong(items.get(selected)) == id) {
+            return selected;
+        }
+        for (int i = 0; i < items.size(); i++) {
+            if (idOf.applyAsLong(items.get(i)) == id) {
+                return i;
+            }
+        }
+        return RecyclerView.NO_POSITION;
     }
 
     @Override
-    public int getItemViewType(int position) {
-        return position == selected ? TYPE_ACTIVE : TYPE_INACTIVE;
+    public long getItemId(int position) {
+        return idOf.applyAsLong(dataset.getCurrentList().get(position));
     }
 
     /*
@@ -116,11 +181,9 @@ public class TextAdapter<T> extends RecyclerView.Adapter<TextAdapter<T>.ViewHold
      */
     @Override @NonNull
     public ViewHolder onCreateViewHolder(ViewGroup viewGroup, int viewType) {
-        // Selected or otherwise list item
-        final int layout = (viewType == TYPE_INACTIVE) ? R.layout.item_inactive : R.layout.item_active;
-        // Create a new view, which defines the UI of the list item
+        // Create a new view, which defines the UI of the list item (highlighted when activated)
         View view = LayoutInflater.from(viewGroup.getContext())
-                .inflate(layout, viewGroup, false);
+                .inflate(R.layout.item_active, viewGroup, false);
 
         return new ViewHolder(view);
     }
@@ -132,8 +195,22 @@ public class TextAdapter<T> extends RecyclerView.Adapter<TextAdapter<T>.ViewHold
      */
     @Override
     public void onBindViewHolder(ViewHolder viewHolder, final int position) {
-        T data = dataset.get(position);
+        T data = dataset.getCurrentList().get(position);
         viewHolder.setText(data.toString());
+        viewHolder.setSelected(idOf.applyAsLong(data) == selectedId);
+    }
+
+    /*
+     * A change of selection alone does not need the text rebound.
+     */
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder viewHolder, int position, @NonNull List<Object> payloads) {
+        if (!payloads.isEmpty() && payloads.stream().allMatch(payload -> payload == SELECTION_CHANGED)) {
+            T data = dataset.getCurrentList().get(position);
+            viewHolder.setSelected(idOf.applyAsLong(data) == selectedId);
+        } else {
+            onBindViewHolder(viewHolder, position);
+        }
     }
 
     /*
@@ -141,14 +218,19 @@ public class TextAdapter<T> extends RecyclerView.Adapter<TextAdapter<T>.ViewHold
      */
     @Override
     public int getItemCount() {
-        return dataset.size();
+        return dataset.getCurrentList().size();
     }
 
     /*
      * Invoked by live data observer.
      */
     public void setDataset(List<T> dataset) {
-        this.dataset = dataset; notifyDataSetChanged();
+        this.dataset.submitList(dataset, () -> {
+            selected = positionOf(selectedId);
+            if (pendingSelection != RecyclerView.NO_POSITION) {
+                setItemChecked(pendingSelection);
+            }
+        });
     }
 
 }
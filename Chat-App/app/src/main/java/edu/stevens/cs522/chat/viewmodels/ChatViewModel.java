@@ -3,49 +3,212 @@ package edu.stevens.cs522.chat.viewmodels;
 import android.app.Application;
 import android.util.Log;
 
-import androidx.annotation.NonNull;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.Transformations;
+import androidx.paging.Pager;
+import androidx.paging.PagingConfig;
+import androidx.paging.PagingData;
+import androidx.paging.PagingLiveData;
 
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
-import edu.stevens.cs522.chat.databases.ChatDatabase;
+import edu.stevens.cs522.chat.databases.MessageTail;
 import edu.stevens.cs522.chat.entities.Chatroom;
+import edu.stevens.cs522.chat.entities.DeliveryStatus;
 import edu.stevens.cs522.chat.entities.Message;
+import edu.stevens.cs522.chat.repository.ChatRepository;
 
+/**
+ * The messages in the selected chatroom, as two streams: the history when the chatroom was
+ * opened, paged, and the messages added since then, as deltas (see MessageTail).  A third
+ * stream has the delivery status of the messages sent there that are not yet delivered.
+ * All follow the selection, so the UI observes them once.
+ */
 public class ChatViewModel extends AndroidViewModel {
 
     public static final String TAG = ChatViewModel.class.getCanonicalName();
 
-    private ChatDatabase chatDatabase;
+    /*
+     * Paging of messages: a page is about a screenful, the first load is two, and at most
+     * MAX_SIZE messages are held in memory, however long the history that is scrolled through.
+     */
+    private static final int PAGE_SIZE = 50;
+
+    private static final int PREFETCH_DISTANCE = 50;
+
+    private static final int INITIAL_LOAD_SIZE = 2 * PAGE_SIZE;
+
+    private static final int MAX_SIZE = 6 * PAGE_SIZE;
+
+    /*
+     * A chatroom as opened: its history is the messages up to lastId.
+     */
+    private static class OpenChatroom {
+
+        final Long id;
+
+        final long lastId;
+
+        OpenChatroom(Long id, long lastId) {
+            this.id = id;
+            this.lastId = lastId;
+        }
+    }
 
-    private Chatroom chatroom;
+    private static final OpenChatroom NONE = new OpenChatroom(null, 0);
 
-    private LiveData<List<Message>> messages;
+    private ChatRepository chatRepository;
+
+    private final MutableLiveData<Long> selected = new MutableLiveData<>();
+
+    private final LiveData<PagingData<Message>> messages;
+
+    private final LiveData<MessageTail.Delta> newMessages;
+
+    private final LiveData<Map<Long, Integer>> deliveryStatus;
 
     public ChatViewModel(Application context) {
         super(context);
         Log.i(TAG, "Getting database in ChatViewModel....");
-        chatDatabase = ChatDatabase.getInstance(context);
+        chatRepository = ChatRepository.getInstance(context);
+
+        LiveData<OpenChatroom> opened = Transformations.switchMap(selected, this::openChatroom);
+        /*
+         * Cached in the view model, so the loaded pages survive configuration changes.
+         * Caching the switched stream, rather than each chatroom's, lets opening a chatroom
+         * close the pager, and release the pages, of the one before.
+         */
+        messages = PagingLiveData.cachedIn(Transformations.switchMap(opened, this::loadMessages), this);
+        newMessages = Transformations.switchMap(opened, this::loadNewMessages);
+        deliveryStatus = Transformations.switchMap(opened, this::loadDeliveryStatus);
+    }
+
+    public void selectChatroom(Chatroom chatroom) {
+        Long id = (chatroom != null) ? chatroom.id : null;
+        Long previous = selected.getValue();
+        if (!Objects.equals(id, previous)) {
+            Log.d(TAG, "Opening chatroom " + chatroom);
+            // Whatever arrived in the chatroom being left was seen, as is what is in the new one.
+            markRead(previous);
+            markRead(id);
+            selected.setValue(id);
+        }
+    }
+
+    /**
+     * The messages in the selected chatroom have been seen, e.g. new ones as they are shown.
+     */
+    public void markRead() {
+        markRead(selected.getValue());
     }
 
-    public LiveData<List<Message>> fetchAllMessages(@NonNull Chatroom chatroom) {
-        if (this.chatroom == null || (!chatroom.name.equals(this.chatroom.name))) {
-            this.chatroom = chatroom;
-            this.messages = loadMessages(chatroom);
+    private void markRead(Long id) {
+        if (id == null) {
+            return;
         }
+        Futures.addCallback(chatRepository.markRead(id), new FutureCallback<Integer>() {
+            @Override
+            public void onSuccess(Integer updated) {
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                Log.e(TAG, "Problems marking chatroom " + id + " as read", t);
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * The messages in the selected chatroom when it was opened.
+     */
+    public LiveData<PagingData<Message>> getMessages() {
         return messages;
     }
 
-    private LiveData<List<Message>> loadMessages(@NonNull  Chatroom chatroom) {
-        return chatDatabase.messageDao().fetchAllMessages(chatroom.name);
+    /**
+     * The messages added to the selected chatroom since it was opened.
+     */
+    public LiveData<MessageTail.Delta> getNewMessages() {
+        return newMessages;
+    }
+
+    /**
+     * The status of each message in the selected chatroom that has not been delivered,
+     * by message id (see DeliveryStatus); the others have been, or were received.
+     */
+    public LiveData<Map<Long, Integer>> getDeliveryStatus() {
+        return deliveryStatus;
+    }
+
+    private LiveData<OpenChatroom> openChatroom(Long id) {
+        if (id == null) {
+            return new MutableLiveData<>(NONE);
+        }
+        MutableLiveData<OpenChatroom> result = new MutableLiveData<>();
+        Futures.addCallback(chatRepository.fetchLastId(), new FutureCallback<Long>() {
+            @Override
+            public void onSuccess(Long lastId) {
+                result.setValue(new OpenChatroom(id, lastId));
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                Log.e(TAG, "Problems opening chatroom " + id, t);
+            }
+        }, chatRepository.getMainExecutor());
+        return result;
+    }
+
+    private LiveData<PagingData<Message>> loadMessages(OpenChatroom chatroom) {
+        if (chatroom.id == null) {
+            return new MutableLiveData<>(PagingData.empty());
+        }
+        ChatRepository repository = chatRepository;
+        Pager<?, Message> pager = new Pager<>(
+                new PagingConfig(PAGE_SIZE, PREFETCH_DISTANCE, true, INITIAL_LOAD_SIZE, MAX_SIZE),
+                () -> repository.fetchMessagePages(chatroom.id, chatroom.lastId));
+        return PagingLiveData.getLiveData(pager);
+    }
+
+    private LiveData<MessageTail.Delta> loadNewMessages(OpenChatroom chatroom) {
+        if (chatroom.id == null) {
+            return new MutableLiveData<>(MessageTail.Delta.NONE);
+        }
+        return chatRepository.fetchNewMessages(chatroom.id, chatroom.lastId);
+    }
+
+    private LiveData<Map<Long, Integer>> loadDeliveryStatus(OpenChatroom chatroom) {
+        if (chatroom.id == null) {
+            return new MutableLiveData<>(Collections.emptyMap());
+        }
+        /*
+         * The query runs again on every write to delivery_status, in any chatroom, so only
+         * pass on results that changed.
+         */
+        LiveData<List<DeliveryStatus>> undelivered = chatRepository.fetchUndelivered(chatroom.id);
+        return Transformations.map(Transformations.distinctUntilChanged(undelivered), statuses -> {
+            Map<Long, Integer> byId = new HashMap<>();
+            for (DeliveryStatus status : statuses) {
+                byId.put(status.messageId, status.status);
+            }
+            return byId;
+        });
     }
 
     @Override
     public void onCleared() {
         super.onCleared();
         Log.i(TAG, "Clearing ChatViewModel....");
-        chatroom = null;
-        chatDatabase = null;
+        chatRepository = null;
     }
 }
@@ -5,43 +5,78 @@ import android.util.Log;
 
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.Transformations;
+import androidx.paging.Pager;
+import androidx.paging.PagingConfig;
+import androidx.paging.PagingData;
+import androidx.paging.PagingLiveData;
 
-import java.util.List;
-
-import edu.stevens.cs522.chat.databases.ChatDatabase;
-import edu.stevens.cs522.chat.entities.Chatroom;
+import edu.stevens.cs522.chat.entities.ChatroomPreview;
+import edu.stevens.cs522.chat.repository.ChatRepository;
 
+/**
+ * The chatroom directory, following the text in the search box: all chatrooms if it is
+ * empty, otherwise those whose names start with it.
+ */
 public class ChatroomViewModel extends AndroidViewModel {
 
     public static final String TAG = ChatroomViewModel.class.getCanonicalName();
 
-    private ChatDatabase chatDatabase;
+    /*
+     * Paging of the directory: a page is about a screenful, and no placeholders, since
+     * counting the chatrooms would cost as much as reading them.
+     */
+    private static final int PAGE_SIZE = 30;
+
+    private static final int PREFETCH_DISTANCE = 30;
+
+    private static final int INITIAL_LOAD_SIZE = 2 * PAGE_SIZE;
 
-    private LiveData<List<Chatroom>> chatrooms;
+    private ChatRepository chatRepository;
+
+    private final MutableLiveData<String> search = new MutableLiveData<>("");
+
+    private final LiveData<PagingData<ChatroomPreview>> chatrooms;
 
     public ChatroomViewModel(Application context) {
         super(context);
         Log.i(TAG, "Getting database in ChatViewModel....");
-        chatDatabase = ChatDatabase.getInstance(context);
+        chatRepository = ChatRepository.getInstance(context);
+        /*
+         * Cached in the view model, so the loaded pages survive configuration changes.
+         * Caching the switched stream, rather than each search's, lets a new search close
+         * the pager of the last one, and with it that pager's invalidation observer.
+         */
+        chatrooms = PagingLiveData.cachedIn(
+                Transformations.switchMap(Transformations.distinctUntilChanged(search), this::loadChatrooms), this);
     }
 
-    public LiveData<List<Chatroom>> fetchAllChatrooms() {
-        if (chatrooms == null) {
-            chatrooms = loadChatrooms();
-            Log.d(TAG, "List of chatroom: " + chatrooms);
-        }
+    public LiveData<PagingData<ChatroomPreview>> fetchAllChatrooms() {
         return chatrooms;
+    }
 
+    /**
+     * Search the directory for chatrooms whose names start with this text (ignoring case),
+     * or show them all if it is empty.  The UI debounces typing before calling this.
+     */
+    public void setSearch(String text) {
+        search.setValue(text.trim());
     }
 
-    private LiveData<List<Chatroom>> loadChatrooms() {
-        return chatDatabase.chatroomDao().fetchAllChatrooms();
+    private LiveData<PagingData<ChatroomPreview>> loadChatrooms(String text) {
+        Log.d(TAG, "Searching chatrooms for \"" + text + "\"");
+        ChatRepository repository = chatRepository;
+        Pager<Integer, ChatroomPreview> pager = new Pager<>(
+                new PagingConfig(PAGE_SIZE, PREFETCH_DISTANCE, false, INITIAL_LOAD_SIZE),
+                () -> repository.fetchDirectory(text));
+        return PagingLiveData.getLiveData(pager);
     }
 
     @Override
     public void onCleared() {
         super.onCleared();
         Log.i(TAG, "Clearing ChatViewModel....");
-        chatDatabase = null;
+        chatRepository = null;
     }
 }
@@ -8,15 +8,15 @@ import androidx.lifecycle.LiveData;
 
 import java.util.List;
 
-import edu.stevens.cs522.chat.databases.ChatDatabase;
 import edu.stevens.cs522.chat.entities.Message;
 import edu.stevens.cs522.chat.entities.Peer;
+import edu.stevens.cs522.chat.repository.ChatRepository;
 
 public class PeerViewModel extends AndroidViewModel {
 
     public final static String TAG = PeerViewModel.class.getCanonicalName();
 
-    private ChatDatabase chatDatabase;
+    private ChatRepository chatRepository;
 
     private LiveData<List<Message>> messages;
 
@@ -25,7 +25,7 @@ public class PeerViewModel extends AndroidViewModel {
     public PeerViewModel(Application context) {
         super(context);
         Log.d(TAG, "Getting database in PeerViewModel");
-        chatDatabase = ChatDatabase.getInstance(context);
+        chatRepository = ChatRepository.getInstance(context);
     }
 
     // TODO finish this
@@ -38,13 +38,13 @@ public class PeerViewModel extends AndroidViewModel {
 
     private LiveData<List<Message>> loadMessages(Peer peer) {
         currentPeer = peer;
-        return chatDatabase.messageDao().fetchMessagesFromPeer(peer.name);
+        return chatRepository.fetchMessagesFromPeer(peer);
     }
 
     @Override
     public void onCleared() {
         super.onCleared();
         Log.d(TAG, "Clearing PeerViewodel...");
-        chatDatabase = null;
+        chatRepository = null;
     }
 }
@@ -8,21 +8,21 @@ import androidx.lifecycle.LiveData;
 
 import java.util.List;
 
-import edu.stevens.cs522.chat.databases.ChatDatabase;
 import edu.stevens.cs522.chat.entities.Peer;
+import edu.stevens.cs522.chat.repository.ChatRepository;
 
 public class PeersViewModel extends AndroidViewModel {
 
     private static final String TAG = PeersViewModel.class.getCanonicalName();
 
-    private ChatDatabase chatDatabase;
+    private ChatRepository chatRepository;
 
     private LiveData<List<Peer>> peers;
 
     public PeersViewModel(Application context) {
         super(context);
         Log.d(TAG, "Getting database in PeerViewModel");
-        chatDatabase = ChatDatabase.getInstance(context);
+        chatRepository = ChatRepository.getInstance(context);
     }
 
     // TODO finish this
@@ -35,13 +35,13 @@ public class PeersViewModel extends AndroidViewModel {
 
     // TODO finish this
     private LiveData<List<Peer>> loadPeers() {
-        return chatDatabase.peerDao().fetchAllPeers();
+        return chatRepository.fetchAllPeers();
     }
 
     @Override
     public void onCleared() {
         super.onCleared();
         Log.d(TAG, "Clearing PeersViewodel...");
-        chatDatabase = null;
+        chatRepository = null;
     }
 }
@@ -0,0 +1,416 @@
+package edu.stevens.cs522.chat.wire;
+
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compact binary encoding of chat packets.
+ *
+ * Layout (version 2):
+ * <pre>
+ *   magic      1 byte   0xC5
+ *   version    1 byte
+ *   flags      1 byte   bits 0-3 packet type, bit 4 timestamp, bit 5 latitude, bit 6 longitude,
+ *                       bit 7 epoch
+ *   seq        varint
+ *   epoch      8 bytes, big-endian (if flagged)
+ *   sender     string
+ *   -- messages only --
+ *   chatroom   string
+ *   text       string
+ *   reply      string
+ *   timestamp  zigzag varint, epoch millis (if flagged)
+ *   latitude   8 bytes, IEEE 754 big-endian (if flagged)
+ *   longitude  8 bytes, IEEE 754 big-endian (if flagged)
+ * </pre>
+ * A string is a varint holding its UTF-8 length plus one (zero for null), followed by
+ * the UTF-8 bytes.  Version 1 is the same without the epoch, so is still decoded.
+ *
+ * Several packets may be coalesced into one batch: the header with the batch type,
+ * a varint count, then each packet's length as a varint followed by its encoding.
+ *
+ * Encoding reuses a per-thread buffer, so the only allocation is the result; decoding
+ * allocates only the packet and its strings.
+ */
+public class BinaryPacketCodec {
+
+    public static final byte MAGIC = (byte) 0xC5;
+
+    public static final byte VERSION = 2;
+
+    /*
+     * Oldest version still decoded.
+     */
+    private static final byte MIN_VERSION = 1;
+
+    private static final int TYPE_MESSAGE = 0;
+
+    private static final int TYPE_ACK = 1;
+
+    private static final int TYPE_BATCH = 2;
+
+    /*
+     * Magic, version and flags.
+     */
+    static final int HEADER_SIZE = 3;
+
+    private static final int TYPE_MASK = 0x0f;
+
+    private static final int FLAG_TIMESTAMP = 1 << 4;
+
+    private static final int FLAG_LATITUDE = 1 << 5;
+
+    private static final int FLAG_LONGITUDE = 1 << 6;
+
+    private static final int FLAG_EPOCH = 1 << 7;
+
+    private static final ThreadLocal<Output> OUTPUT = new ThreadLocal<Output>() {
+        @Override
+        protected Output initialValue() {
+            return new Output();
+        }
+    };
+
+    /**
+     * True if the bytes start with the magic number of a binary packet.
+     */
+    public static boolean isBinary(byte[] data, int offset, int length) {
+        return length > 0 && data[offset] == MAGIC;
+    }
+
+    public static byte[] encode(ChatPacket packet) {
+        Output out = OUTPUT.get();
+        out.reset();
+        write(packet, out);
+        return out.toByteArray();
+    }
+
+    public static ChatPacket decode(byte[] data, int offset, int length) throws ProtocolException {
+        Input in = new Input(data, offset, length);
+
+        if (in.readByte() != MAGIC) {
+            throw new ProtocolException("Not a binary chat packet.");
+        }
+        int version = in.readByte();
+        if (version < MIN_VERSION || version > VERSION) {
+            throw new ProtocolException("Unsupported binary packet version: " + version);
+        }
+        int flags = in.readByte() & 0xff;
+
+        ChatPacket packet = new ChatPacket();
+        packet.format = WireFormat.BINARY;
+        switch (flags & TYPE_MASK) {
+            case TYPE_MESSAGE:
+                packet.type = ChatPacket.Type.MESSAGE;
+                break;
+            case TYPE_ACK:
+                packet.type = ChatPacket.Type.ACK;
+                break;
+            default:
+                throw new ProtocolException("Unknown packet type: " + (flags & TYPE_MASK));
+        }
+        packet.seq = in.readVarLong();
+        if ((flags & FLAG_EPOCH) != 0) {
+            packet.epoch = in.readFixedLong();
+        }
+        packet.sender = in.readString();
+        if (packet.isAck()) {
+            return packet;
+        }
+
+        packet.chatroom = in.readString();
+        packet.messageText = in.readString();
+        packet.replyAddress = in.readString();
+        if ((flags & FLAG_TIMESTAMP) != 0) {
+            packet.timestamp = Instant.ofEpochMilli(zigZagDecode(in.readVarLong()));
+        }
+        if ((flags & FLAG_LATITUDE) != 0) {
+            packet.latitude = Double.longBitsToDouble(in.readFixedLong());
+        }
+        if ((flags & FLAG_LONGITUDE) != 0) {
+            packet.longitude = Double.longBitsToDouble(in.readFixedLong());
+        }
+        return packet;
+    }
+
+    /**
+     * Decode either a single packet or a batch of them.
+     */
+    public static List<ChatPacket> decodeAll(byte[] data, int offset, int length) throws ProtocolException {
+        if (length < HEADER_SIZE || (data[offset + 2] & TYPE_MASK) != TYPE_BATCH) {
+            return Collections.singletonList(decode(data, offset, length));
+        }
+        Input in = new Input(data, offset, length);
+        in.position += HEADER_SIZE;
+        if (data[offset] != MAGIC || data[offset + 1] < MIN_VERSION || data[offset + 1] > VERSION) {
+            throw new ProtocolException("Not a version " + MIN_VERSION + " to " + VERSION + " binary chat packet.");
+        }
+        long count = in.readVarLong();
+        if (count > length) {
+            throw new ProtocolException("Bad packet count in binary batch: " + count);
+        }
+        List<ChatPacket> packets = new ArrayList<>((int) count);
+        for (long i = 0; i < count; i++) {
+            long n = in.readVarLong();
+            if (n > in.limit - in.position) {
+                throw new ProtocolException("Truncated binary batch.");
+            }
+            packets.add(decode(data, in.position, (int) n));
+            in.position += (int) n;
+        }
+        return packets;
+    }
+
+    /**
+     * Combine individually encoded packets into one batch.
+     */
+    public static byte[] encodeBatch(List<byte[]> packets) {
+        Output out = OUTPUT.get();
+        out.reset();
+        out.writeByte(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(TYPE_BATCH);
+        out.writeVarLong(packets.size());
+        for (byte[] packet : packets) {
+            out.writeVarLong(packet.length);
+            out.ensure(packet.length);
+            System.arraycopy(packet, 0, out.buf, out.size, packet.length);
+            out.size += packet.length;
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Number of bytes in the varint encoding of a (non-negative) value.
+     */
+    static int varLongSize(long value) {
+        int n = 1;
+        while ((value & ~0x7fL) != 0) {
+            value >>>= 7;
+            n++;
+        }
+        return n;
+    }
+
+    private static void write(ChatPacket packet, Output out) {
+        int flags = packet.isAck() ? TYPE_ACK : TYPE_MESSAGE;
+        if (packet.epoch != ChatPacket.NO_EPOCH) {
+            flags |= FLAG_EPOCH;
+        }
+        if (!packet.isAck()) {
+            if (packet.timestamp != null) {
+                flags |= FLAG_TIMESTAMP;
+            }
+            if (packet.latitude != null) {
+                flags |= FLAG_LATITUDE;
+            }
+            if (packet.longitude != null) {
+                flags |= FLAG_LONGITUDE;
+            }
+        }
+
+        out.writeByte(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(flags);
+        out.writeVarLong(packet.seq);
+        if (packet.epoch != ChatPacket.NO_EPOCH) {
+            out.writeFixedLong(packet.epoch);
+        }
+        out.writeString(packet.sender);
+        if (packet.isAck()) {
+            return;
+        }
+
+        out.writeString(packet.chatroom);
+        out.writeString(packet.messageText);
+        out.writeString(packet.replyAddress);
+        if (packet.timestamp != null) {
+            out.writeVarLong(zigZagEncode(packet.timestamp.toEpochMilli()));
+        }
+        if (packet.latitude != null) {
+            out.writeFixedLong(Double.doubleToRawLongBits(packet.latitude));
+        }
+        if (packet.longitude != null) {
+            out.writeFixedLong(Double.doubleToRawLongBits(packet.longitude));
+        }
+    }
+
+    private static long zigZagEncode(long n) {
+        return (n << 1) ^ (n >> 63);
+    }
+
+    private static long zigZagDecode(long n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    /*
+     * Growable output buffer, reused by each encoding thread.
+     */
+    private static final class Output {
+
+        byte[] buf = new byte[512];
+
+        int size;
+
+        void reset() {
+            size = 0;
+        }
+
+        byte[] toByteArray() {
+            byte[] result = new byte[size];
+            System.arraycopy(buf, 0, result, 0, size);
+            return result;
+        }
+
+        void ensure(int n) {
+            if (size + n > buf.length) {
+                byte[] larger = new byte[Math.max(buf.length * 2, size + n)];
+                System.arraycopy(buf, 0, larger, 0, size);
+                buf = larger;
+            }
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            buf[size++] = (byte) b;
+        }
+
+        void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7fL) != 0) {
+                buf[size++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            buf[size++] = (byte) value;
+        }
+
+        void writeFixedLong(long value) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buf[size++] = (byte) (value >>> shift);
+            }
+        }
+
+        void writeString(String s) {
+            if (s == null) {
+                writeVarLong(0);
+                return;
+            }
+            int length = utf8Length(s);
+            writeVarLong(length + 1);
+            ensure(length);
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    buf[size++] = (byte) c;
+                } else if (c < 0x800) {
+                    buf[size++] = (byte) (0xc0 | (c >> 6));
+                    buf[size++] = (byte) (0x80 | (c & 0x3f));
+                } else if (isSurrogatePair(s, i)) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    buf[size++] = (byte) (0xf0 | (cp >> 18));
+                    buf[size++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                    buf[size++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                    buf[size++] = (byte) (0x80 | (cp & 0x3f));
+                } else {
+                    buf[size++] = (byte) (0xe0 | (c >> 12));
+                    buf[size++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                    buf[size++] = (byte) (0x80 | (c & 0x3f));
+                }
+            }
+        }
+
+        private static int utf8Length(String s) {
+            int length = 0;
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    length += 1;
+                } else if (c < 0x800) {
+                    length += 2;
+                } else if (isSurrogatePair(s, i)) {
+                    length += 4;
+                    i++;
+                } else {
+                    length += 3;
+                }
+            }
+            return length;
+        }
+
+        private static boolean isSurrogatePair(String s, int i) {
+            return Character.isHighSurrogate(s.charAt(i))
+                    && i + 1 < s.length()
+                    && Character.isLowSurrogate(s.charAt(i + 1));
+        }
+    }
+
+    /*
+     * Bounds-checked reader over a byte range.
+     */
+    private static final class Input {
+
+        final byte[] data;
+
+        int position;
+
+        final int limit;
+
+        Input(byte[] data, int offset, int length) {
+            this.data = data;
+            this.position = offset;
+            this.limit = offset + length;
+        }
+
+        private void require(int n) throws ProtocolException {
+            if (n < 0 || limit - position < n) {
+                throw new ProtocolException("Truncated binary packet.");
+            }
+        }
+
+        byte readByte() throws ProtocolException {
+            require(1);
+            return data[position++];
+        }
+
+        long readVarLong() throws ProtocolException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = readByte();
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new ProtocolException("Malformed varint in binary packet.");
+        }
+
+        long readFixedLong() throws ProtocolException {
+            require(8);
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | (data[position++] & 0xff);
+            }
+            return value;
+        }
+
+        String readString() throws ProtocolException {
+            long n = readVarLong();
+            if (n == 0) {
+                return null;
+            }
+            if (n - 1 > Integer.MAX_VALUE) {
+                throw new ProtocolException("String too long in binary packet.");
+            }
+            int length = (int) (n - 1);
+            require(length);
+            String s = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return s;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package edu.stevens.cs522.chat.wire;
+
+import java.time.Instant;
+
+import edu.stevens.cs522.chat.entities.Message;
+
+/**
+ * A packet as it travels between peers: either a chat message or an acknowledgement.
+ *
+ * Messages carry a sequence number, unique for the sender within its epoch (see
+ * Settings.getSenderEpoch), and the address on which the sender listens, so that the
+ * receiver knows where to send the acknowledgement.  Packets from older peers have
+ * none of these, and are never acknowledged.
+ */
+public class ChatPacket {
+
+    public enum Type {
+        MESSAGE,
+        ACK
+    }
+
+    /*
+     * Sequence number of a packet that does not expect an acknowledgement.
+     */
+    public static final long NO_SEQ = 0;
+
+    /*
+     * Epoch of a packet whose sender does not send one.
+     */
+    public static final long NO_EPOCH = 0;
+
+    public Type type = Type.MESSAGE;
+
+    public long epoch = NO_EPOCH;
+
+    public long seq = NO_SEQ;
+
+    public String replyAddress;
+
+    public String sender;
+
+    public String chatroom;
+
+    public String messageText;
+
+    public Instant timestamp;
+
+    public Double latitude;
+
+    public Double longitude;
+
+    /*
+     * Encoding the packet arrived in, so that an acknowledgement can be sent back in kind.
+     */
+    public WireFormat format = WireFormat.JSON;
+
+    public static ChatPacket message(Message message, long epoch, long seq, String replyAddress) {
+        ChatPacket packet = new ChatPacket();
+        packet.type = Type.MESSAGE;
+        packet.epoch = epoch;
+        packet.seq = seq;
+        packet.replyAddress = replyAddress;
+        packet.sender = message.sender;
+        packet.chatroom = message.chatroom;
+        packet.messageText = message.messageText;
+        packet.timestamp = message.timestamp;
+        packet.latitude = message.latitude;
+        packet.longitude = message.longitude;
+        return packet;
+    }
+
+    /**
+     * Acknowledge a message, with its epoch and sequence number, so that the sender can
+     * tell it from one it sent before it was reinstalled.
+     */
+    public static ChatPacket ack(String sender, long epoch, long seq) {
+        ChatPacket packet = new ChatPacket();
+        packet.type = Type.ACK;
+        packet.sender = sender;
+        packet.epoch = epoch;
+        packet.seq = seq;
+        return packet;
+    }
+
+    public boolean isAck() {
+        return type == Type.ACK;
+    }
+
+    /**
+     * True if the sender expects an acknowledgement for this packet.
+     */
+    public boolean wantsAck() {
+        return type == Type.MESSAGE && seq != NO_SEQ && replyAddress != null;
+    }
+
+    public Message toMessage() {
+        Message message = new Message();
+        message.sender = sender;
+        message.chatroom = chatroom;
+        message.messageText = messageText;
+        message.timestamp = timestamp;
+        message.latitude = latitude;
+        message.longitude = longitude;
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return type + "[" + sender + "#" + seq + "]";
+    }
+}
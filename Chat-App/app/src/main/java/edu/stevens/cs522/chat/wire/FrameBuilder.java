@@ -0,0 +1,106 @@
+package edu.stevens.cs522.chat.wire;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Packs several encoded packets into one datagram, up to the transport's maximum size.
+ *
+ * Packets are added in their raw encoding (see PacketCodec.encodeRaw), and the frame is
+ * built in it too.  If it is to be sent over a String transport, binary content will be
+ * Base64-encoded (see PacketCodec.toText), so it is measured at its encoded length.  A
+ * frame with a single packet is sent as that packet, so peers that do not understand
+ * coalesced frames still receive uncoalesced traffic; a packet too large to share a
+ * datagram is still accepted into an empty frame.
+ */
+public class FrameBuilder {
+
+    private final WireFormat format;
+
+    private final int maxSize;
+
+    private final boolean textTransport;
+
+    private final List<byte[]> packets = new ArrayList<>();
+
+    /*
+     * Total raw bytes of the packets, and of the length prefixes of a binary frame.
+     */
+    private int payloadBytes;
+
+    private int prefixBytes;
+
+    public FrameBuilder(WireFormat format, int maxSize, boolean textTransport) {
+        this.format = format;
+        this.maxSize = maxSize;
+        this.textTransport = textTransport;
+    }
+
+    /**
+     * Add a packet to the frame.
+     * @return false, leaving the frame unchanged, if the packet does not fit.
+     */
+    public boolean add(byte[] packet) {
+        int prefix = format == WireFormat.BINARY ? BinaryPacketCodec.varLongSize(packet.length) : 0;
+        if (!packets.isEmpty()) {
+            int length = frameLength(packets.size() + 1, payloadBytes + packet.length, prefixBytes + prefix);
+            if ((textTransport ? PacketCodec.transportLength(length, format) : length) > maxSize) {
+                return false;
+            }
+        }
+        packets.add(packet);
+        payloadBytes += packet.length;
+        prefixBytes += prefix;
+        return true;
+    }
+
+    public int count() {
+        return packets.size();
+    }
+
+    public boolean isEmpty() {
+        return packets.isEmpty();
+    }
+
+    /**
+     * The raw content of the frame.
+     */
+    public byte[] build() {
+        byte[] raw;
+        if (packets.size() == 1) {
+            raw = packets.get(0);
+        } else if (format == WireFormat.BINARY) {
+            raw = BinaryPacketCodec.encodeBatch(packets);
+        } else {
+            raw = new byte[frameLength(packets.size(), payloadBytes, prefixBytes)];
+            int position = 0;
+            raw[position++] = '[';
+            for (byte[] packet : packets) {
+                if (position > 1) {
+                    raw[position++] = ',';
+                }
+                System.arraycopy(packet, 0, raw, position, packet.length);
+                position += packet.length;
+            }
+            raw[position] = ']';
+        }
+        return raw;
+    }
+
+    public void clear() {
+        packets.clear();
+        payloadBytes = 0;
+        prefixBytes = 0;
+    }
+
+    private int frameLength(int count, int payload, int prefixes) {
+        if (count == 1) {
+            return payload;
+        }
+        if (format == WireFormat.BINARY) {
+            return BinaryPacketCodec.HEADER_SIZE + BinaryPacketCodec.varLongSize(count) + prefixes + payload;
+        }
+        // Brackets, and a comma between each pair of packets.
+        return payload + count + 1;
+    }
+}
@@ -0,0 +1,184 @@
+package edu.stevens.cs522.chat.wire;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * JSON encoding of chat packets.
+ *
+ * The six original message fields are written first and in their original order; the
+ * decoder matches fields by name and skips any it does not know, so it accepts packets
+ * from older peers (no type, sequence number or epoch) as well as current ones.
+ *
+ * Several packets may be coalesced into one datagram as a JSON array of packets.
+ */
+public class JsonPacketCodec {
+
+    public final static String SENDER_NAME = "name";
+
+    public final static String CHATROOM = "room";
+
+    public final static String MESSAGE_TEXT = "text";
+
+    public final static String TIMESTAMP = "timestamp";
+
+    public final static String LATITUDE = "latitude";
+
+    public final static String LONGITUDE = "longitude";
+
+    public final static String TYPE = "type";
+
+    public final static String SEQ = "seq";
+
+    public final static String EPOCH = "epoch";
+
+    public final static String REPLY_ADDRESS = "reply";
+
+    private final static String TYPE_ACK = "ack";
+
+    private final static String TYPE_MESSAGE = "message";
+
+    public static String encode(ChatPacket packet) throws IOException {
+        StringWriter output = new StringWriter();
+        JsonWriter wr = new JsonWriter(output);
+        wr.beginObject();
+        if (packet.isAck()) {
+            wr.name(SENDER_NAME).value(packet.sender);
+            wr.name(TYPE).value(TYPE_ACK);
+            wr.name(SEQ).value(packet.seq);
+            if (packet.epoch != ChatPacket.NO_EPOCH) {
+                wr.name(EPOCH).value(packet.epoch);
+            }
+        } else {
+            wr.name(SENDER_NAME).value(packet.sender);
+            wr.name(CHATROOM).value(packet.chatroom);
+            wr.name(MESSAGE_TEXT).value(packet.messageText);
+            // Older peers read the timestamp as an ISO-8601 string, so it is still written as one.
+            wr.name(TIMESTAMP).value(packet.timestamp == null ? null : packet.timestamp.toString());
+            wr.name(LATITUDE).value(packet.latitude);
+            wr.name(LONGITUDE).value(packet.longitude);
+            if (packet.seq != ChatPacket.NO_SEQ) {
+                wr.name(TYPE).value(TYPE_MESSAGE);
+                wr.name(SEQ).value(packet.seq);
+                if (packet.epoch != ChatPacket.NO_EPOCH) {
+                    wr.name(EPOCH).value(packet.epoch);
+                }
+                wr.name(REPLY_ADDRESS).value(packet.replyAddress);
+            }
+        }
+        wr.endObject();
+        wr.close();
+        return output.toString();
+    }
+
+    /**
+     * Decode either a single packet or an array of them.
+     */
+    public static List<ChatPacket> decodeAll(Reader content) throws IOException {
+        JsonReader rd = new JsonReader(content);
+        if (rd.peek() != JsonToken.BEGIN_ARRAY) {
+            List<ChatPacket> packets = Collections.singletonList(readPacket(rd));
+            rd.close();
+            return packets;
+        }
+        List<ChatPacket> packets = new ArrayList<>();
+        rd.beginArray();
+        while (rd.hasNext()) {
+            packets.add(readPacket(rd));
+        }
+        rd.endArray();
+        rd.close();
+        return packets;
+    }
+
+    private static ChatPacket readPacket(JsonReader rd) throws IOException {
+        ChatPacket packet = new ChatPacket();
+
+        rd.beginObject();
+        while (rd.hasNext()) {
+            String name = rd.nextName();
+            switch (name) {
+                case SENDER_NAME:
+                    packet.sender = readString(rd);
+                    break;
+                case CHATROOM:
+                    packet.chatroom = readString(rd);
+                    break;
+                case MESSAGE_TEXT:
+                    packet.messageText = readString(rd);
+                    break;
+                case TIMESTAMP:
+                    packet.timestamp = readTimestamp(rd);
+                    break;
+                case LATITUDE:
+                    packet.latitude = readDouble(rd);
+                    break;
+                case LONGITUDE:
+                    packet.longitude = readDouble(rd);
+                    break;
+                case TYPE:
+                    packet.type = TYPE_ACK.equals(rd.nextString()) ? ChatPacket.Type.ACK : ChatPacket.Type.MESSAGE;
+                    break;
+                case SEQ:
+                    packet.seq = rd.nextLong();
+                    break;
+                case EPOCH:
+                    packet.epoch = rd.nextLong();
+                    break;
+                case REPLY_ADDRESS:
+                    packet.replyAddress = readString(rd);
+                    break;
+                default:
+                    rd.skipValue();
+                    break;
+            }
+        }
+        rd.endObject();
+
+        return packet;
+    }
+
+    /*
+     * The encoder writes missing values as null, so accept them wherever a value is optional.
+     */
+    private static String readString(JsonReader rd) throws IOException {
+        if (rd.peek() == JsonToken.NULL) {
+            rd.nextNull();
+            return null;
+        }
+        return rd.nextString();
+    }
+
+    private static Double readDouble(JsonReader rd) throws IOException {
+        if (rd.peek() == JsonToken.NULL) {
+            rd.nextNull();
+            return null;
+        }
+        return rd.nextDouble();
+    }
+
+    /*
+     * A timestamp may be an ISO-8601 string (as older peers send it) or a number of
+     * epoch millis.
+     */
+    private static Instant readTimestamp(JsonReader rd) throws IOException {
+        switch (rd.peek()) {
+            case NULL:
+                rd.nextNull();
+                return null;
+            case NUMBER:
+                return Instant.ofEpochMilli(rd.nextLong());
+            default:
+                return Instant.parse(rd.nextString());
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package edu.stevens.cs522.chat.wire;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Encoding of chat packets as datagram content, in either wire format.
+ *
+ * Byte-oriented transports (IByteDatagramConnection) carry packets in their raw encoding.
+ * The bundled datagram connections carry their payload as a String (UTF-8 on the wire),
+ * so over those binary packets are sent Base64-encoded (see toText).  Decoding recognizes
+ * the format from the content: a JSON packet always starts with '{' (or '[' for several
+ * coalesced packets), neither of which is a Base64 character, and a raw binary packet
+ * with its magic number.
+ */
+public class PacketCodec {
+
+    private static final Base64.Encoder BASE64_ENCODER = Base64.getEncoder().withoutPadding();
+
+    private static final Base64.Decoder BASE64_DECODER = Base64.getDecoder();
+
+    /**
+     * The encoding of a packet before any transport encoding: UTF-8 JSON, or binary.
+     */
+    public static byte[] encodeRaw(ChatPacket packet, WireFormat format) throws IOException {
+        switch (format) {
+            case BINARY:
+                return BinaryPacketCodec.encode(packet);
+            case JSON:
+            default:
+                return JsonPacketCodec.encode(packet).getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Raw content (a packet or a frame) as the payload of a String transport: JSON as it
+     * is, binary Base64-encoded.
+     */
+    public static String toText(byte[] raw) {
+        if (BinaryPacketCodec.isBinary(raw, 0, raw.length)) {
+            return BASE64_ENCODER.encodeToString(raw);
+        }
+        return new String(raw, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The bytes of a payload received by a String transport.  The UDP connection decodes
+     * its whole receive buffer, so the padding after the content is stripped; neither
+     * JSON nor Base64 content can end with a NUL.
+     */
+    public static byte[] fromText(String content) {
+        int end = content.length();
+        while (end > 0 && content.charAt(end - 1) == '\0') {
+            end--;
+        }
+        return content.substring(0, end).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Length of the raw content once made safe for a String transport (see toText).
+     */
+    public static int transportLength(int rawLength, WireFormat format) {
+        // Unpadded Base64 has four characters for every three bytes, rounded up.
+        return format == WireFormat.BINARY ? (rawLength * 4 + 2) / 3 : rawLength;
+    }
+
+    /**
+     * Decode the packet, or packets, in a datagram.
+     */
+    public static List<ChatPacket> decodeAll(byte[] data, int offset, int length) throws IOException {
+        /*
+         * Trailing bytes are not stripped: a raw binary packet may well end with zeros
+         * (e.g. a round coordinate), and a byte transport knows the datagram's length.
+         */
+        int end = offset + length;
+        int start = offset;
+        while (start < end && Character.isWhitespace(data[start])) {
+            start++;
+        }
+        if (start == end) {
+            throw new ProtocolException("Empty packet.");
+        }
+
+        if (data[start] == '{' || data[start] == '[') {
+            return JsonPacketCodec.decodeAll(new InputStreamReader(
+                    new ByteArrayInputStream(data, start, end - start), StandardCharsets.UTF_8));
+        }
+        if (BinaryPacketCodec.isBinary(data, start, end - start)) {
+            return BinaryPacketCodec.decodeAll(data, start, end - start);
+        }
+
+        byte[] binary;
+        try {
+            binary = BASE64_DECODER.decode(start == 0 && end == data.length ? data : Arrays.copyOfRange(data, start, end));
+        } catch (IllegalArgumentException e) {
+            throw new ProtocolException("Packet is neither JSON nor Base64: " + e.getMessage());
+        }
+        return BinaryPacketCodec.decodeAll(binary, 0, binary.length);
+    }
+}
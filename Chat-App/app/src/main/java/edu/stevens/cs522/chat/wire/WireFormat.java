@@ -0,0 +1,10 @@
+package edu.stevens.cs522.chat.wire;
+
+/**
+ * Encodings of chat packets on the wire.  Receivers accept both, so peers can be
+ * switched from JSON to binary one at a time.
+ */
+public enum WireFormat {
+    JSON,
+    BINARY
+}
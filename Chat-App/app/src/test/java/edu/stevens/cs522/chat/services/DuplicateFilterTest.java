@@ -0,0 +1,147 @@
+package edu.stevens.cs522.chat.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import edu.stevens.cs522.chat.wire.ChatPacket;
+
+/**
+ * What DuplicateFilter vouches for: committed messages within the window of their sender
+ * and epoch, and nothing it has slid past, forgotten with an evicted window, or seen in
+ * another epoch.
+ */
+public class DuplicateFilterTest {
+
+    private static final long EPOCH = 7;
+
+    private static String dump(DuplicateFilter filter) {
+        StringWriter out = new StringWriter();
+        filter.dump(new PrintWriter(out));
+        return out.toString();
+    }
+
+    @Test
+    public void knownOnlyOnceAdded() {
+        DuplicateFilter filter = new DuplicateFilter(64, 10);
+        assertFalse(filter.isDuplicate("alice", EPOCH, 1));
+        filter.add("alice", EPOCH, 1);
+        assertTrue(filter.isDuplicate("alice", EPOCH, 1));
+        assertFalse(filter.isDuplicate("alice", EPOCH, 2));
+        assertFalse(filter.isDuplicate("bob", EPOCH, 1));
+        assertEquals(1, filter.getDuplicateCount());
+    }
+
+    @Test
+    public void withoutSeqOrSenderNeverDuplicate() {
+        DuplicateFilter filter = new DuplicateFilter(64, 10);
+        filter.add("alice", EPOCH, ChatPacket.NO_SEQ);
+        filter.add(null, EPOCH, 1);
+        assertFalse(filter.isDuplicate("alice", EPOCH, ChatPacket.NO_SEQ));
+        assertFalse(filter.isDuplicate(null, EPOCH, 1));
+    }
+
+    @Test
+    public void outOfOrderWithinWindow() {
+        DuplicateFilter filter = new DuplicateFilter(64, 10);
+        filter.add("alice", EPOCH, 10);
+        filter.add("alice", EPOCH, 4);
+        assertTrue(filter.isDuplicate("alice", EPOCH, 4));
+        assertTrue(filter.isDuplicate("alice", EPOCH, 10));
+        assertFalse(filter.isDuplicate("alice", EPOCH, 5));
+    }
+
+    @Test
+    public void windowSlides() {
+        DuplicateFilter filter = new DuplicateFilter(64, 10);
+        for (long seq = 1; seq <= 10; seq++) {
+            filter.add("alice", EPOCH, seq);
+        }
+        filter.add("alice", EPOCH, 70);
+        // The window is now 7 to 70: 1 to 6 have slid out, 11 to 69 were never added.
+        assertTrue(filter.isDuplicate("alice", EPOCH, 70));
+        assertTrue(filter.isDuplicate("alice", EPOCH, 7));
+        assertTrue(filter.isDuplicate("alice", EPOCH, 10));
+        assertFalse(filter.isDuplicate("alice", EPOCH, 11));
+        assertFalse(filter.isDuplicate("alice", EPOCH, 69));
+        assertFalse(filter.isDuplicate("alice", EPOCH, 6));
+        assertTrue(dump(filter), dump(filter).contains("beyond window=1"));
+    }
+
+    @Test
+    public void reusedBitIsNotADuplicate() {
+        DuplicateFilter filter = new DuplicateFilter(64, 10);
+        filter.add("alice", EPOCH, 3);
+        // 67 shares the bit of 3, which is now beyond the window.
+        filter.add("alice", EPOCH, 67);
+        assertFalse(filter.isDuplicate("alice", EPOCH, 3));
+        assertTrue(filter.isDuplicate("alice", EPOCH, 67));
+        // A jump past the whole window forgets everything before it.
+        filter.add("alice", EPOCH, 1000);
+        assertFalse(filter.isDuplicate("alice", EPOCH, 1000 - 64 + 3));
+        assertFalse(filter.isDuplicate("alice", EPOCH, 999));
+    }
+
+    @Test
+    public void windowRoundsUpToWords() {
+        DuplicateFilter filter = new DuplicateFilter(1, 10);
+        filter.add("alice", EPOCH, 1);
+        filter.add("alice", EPOCH, 64);
+        assertTrue(filter.isDuplicate("alice", EPOCH, 1));
+        assertTrue(dump(filter), dump(filter).contains("window=64 "));
+    }
+
+    @Test
+    public void leastRecentPeerIsEvicted() {
+        DuplicateFilter filter = new DuplicateFilter(64, 2);
+        filter.add("alice", EPOCH, 1);
+        filter.add("bob", EPOCH, 1);
+        // Hearing from alice again leaves bob the least recent.
+        assertTrue(filter.isDuplicate("alice", EPOCH, 1));
+        filter.add("carol", EPOCH, 1);
+        assertFalse(filter.isDuplicate("bob", EPOCH, 1));
+        assertTrue(filter.isDuplicate("alice", EPOCH, 1));
+        assertTrue(filter.isDuplicate("carol", EPOCH, 1));
+        assertTrue(dump(filter), dump(filter).contains("windows=2 evictions=1"));
+    }
+
+    @Test
+    public void newEpochStartsOver() {
+        DuplicateFilter filter = new DuplicateFilter(64, 10);
+        filter.add("alice", EPOCH, 1);
+        filter.add("alice", EPOCH, 2);
+        // Reinstalled: numbering starts again, in a new epoch.
+        assertFalse(filter.isDuplicate("alice", EPOCH + 1, 1));
+        filter.add("alice", EPOCH + 1, 1);
+        assertTrue(filter.isDuplicate("alice", EPOCH + 1, 1));
+        assertFalse(filter.isDuplicate("alice", EPOCH + 1, 2));
+        assertTrue(filter.isDuplicate("alice", EPOCH, 2));
+    }
+
+    @Test
+    public void interleavedEpochsKeepTheirWindows() {
+        DuplicateFilter filter = new DuplicateFilter(64, 10);
+        long old = -3;
+        for (long seq = 1; seq <= 5; seq++) {
+            filter.add("alice", EPOCH, seq);
+        }
+        // A straggler from before the reinstall, numbered far ahead of the current epoch.
+        filter.add("alice", old, 500);
+        for (long seq = 6; seq <= 8; seq++) {
+            filter.add("alice", EPOCH, seq);
+            assertTrue(filter.isDuplicate("alice", old, 500));
+        }
+        // The current window was neither cleared nor slid by the old epoch.
+        for (long seq = 1; seq <= 8; seq++) {
+            assertTrue("Lost " + seq, filter.isDuplicate("alice", EPOCH, seq));
+        }
+        assertFalse(filter.isDuplicate("alice", EPOCH, 500));
+        assertFalse(filter.isDuplicate("alice", old, 5));
+        assertTrue(dump(filter), dump(filter).contains("windows=2 "));
+    }
+}
@@ -0,0 +1,144 @@
+package edu.stevens.cs522.chat.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * The scheduling of WeightedFairQueue: shares in proportion to the weights while classes
+ * are backlogged, no burst owed to a class that was idle, and promotion of heads that
+ * have waited past their class's limit, on a clock the test moves.
+ */
+public class WeightedFairQueueTest {
+
+    private static final int CONTROL = SendPriority.CONTROL.ordinal();
+
+    private static final int INTERACTIVE = SendPriority.INTERACTIVE.ordinal();
+
+    private static final int BULK = SendPriority.BULK.ordinal();
+
+    private static final int NEVER = Integer.MAX_VALUE / 2;
+
+    private static final long MILLIS = 1000000L;
+
+    private long now;
+
+    private WeightedFairQueue<Integer> queue(int[] weights, int[] maxWaitMillis) {
+        WeightedFairQueue.Stats[] stats = new WeightedFairQueue.Stats[weights.length];
+        for (int i = 0; i < stats.length; i++) {
+            stats[i] = new WeightedFairQueue.Stats();
+        }
+        return new WeightedFairQueue<>(weights, maxWaitMillis, stats, () -> now);
+    }
+
+    /*
+     * Add n items of a class, each item being its class.
+     */
+    private static void fill(WeightedFairQueue<Integer> queue, int priority, int n) {
+        for (int i = 0; i < n; i++) {
+            queue.add(priority, priority);
+        }
+    }
+
+    /*
+     * How many of the next n items served are of each class.
+     */
+    private static int[] serve(WeightedFairQueue<Integer> queue, int classes, int n) {
+        int[] served = new int[classes];
+        for (int i = 0; i < n; i++) {
+            served[queue.poll()]++;
+        }
+        return served;
+    }
+
+    @Test
+    public void emptyQueuePollsNull() {
+        WeightedFairQueue<Integer> queue = queue(new int[] { 1 }, new int[] { NEVER });
+        assertNull(queue.poll());
+        queue.add(7, 0);
+        assertEquals(1, queue.size());
+        assertEquals(Integer.valueOf(7), queue.poll());
+        assertNull(queue.poll());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void eachClassIsFifo() {
+        WeightedFairQueue<Integer> queue = queue(new int[] { 1 }, new int[] { NEVER });
+        for (int i = 0; i < 10; i++) {
+            queue.add(i, 0);
+        }
+        for (int i = 0; i < 10; i++) {
+            assertEquals(Integer.valueOf(i), queue.poll());
+        }
+    }
+
+    @Test
+    public void backloggedClassesShareByWeight() {
+        WeightedFairQueue<Integer> queue = queue(new int[] { 4, 2, 1 }, new int[] { NEVER, NEVER, NEVER });
+        fill(queue, CONTROL, 100);
+        fill(queue, INTERACTIVE, 100);
+        fill(queue, BULK, 100);
+        int[] served = serve(queue, 3, 70);
+        assertEquals(40, served[CONTROL]);
+        assertEquals(20, served[INTERACTIVE]);
+        assertEquals(10, served[BULK]);
+    }
+
+    @Test
+    public void idleClassIsNotOwedABurst() {
+        WeightedFairQueue<Integer> queue = queue(new int[] { 1, 1 }, new int[] { NEVER, NEVER });
+        fill(queue, 0, 200);
+        serve(queue, 2, 100);
+        // Class 1 was idle while 100 of class 0 were served: from now on they share equally.
+        fill(queue, 1, 100);
+        int[] served = serve(queue, 2, 20);
+        assertEquals(10, served[0]);
+        assertEquals(10, served[1]);
+    }
+
+    @Test
+    public void bulkIsPromotedAfterItsMaxWait() {
+        // Bulk's share would keep it waiting behind 100 interactive messages.
+        WeightedFairQueue<Integer> queue = queue(new int[] { 100, 100, 1 }, new int[] { NEVER, NEVER, 10 });
+        queue.add(BULK, BULK);
+        fill(queue, INTERACTIVE, 200);
+        for (int i = 0; ; i++) {
+            if (queue.poll() == BULK) {
+                // Served once it had waited more than 10ms.
+                assertEquals(11, i);
+                break;
+            }
+            now += MILLIS;
+        }
+    }
+
+    @Test
+    public void withoutPromotionBulkWaitsForItsShare() {
+        WeightedFairQueue<Integer> queue = queue(new int[] { 100, 100, 1 }, new int[] { NEVER, NEVER, NEVER });
+        queue.add(BULK, BULK);
+        fill(queue, INTERACTIVE, 200);
+        int before = 0;
+        while (queue.poll() != BULK) {
+            before++;
+            now += MILLIS;
+        }
+        assertTrue("Bulk served after only " + before, before >= 99 && before <= 100);
+    }
+
+    @Test
+    public void overdueHeadsAreServedOldestFirst() {
+        WeightedFairQueue<Integer> queue = queue(new int[] { 100, 1, 1 }, new int[] { NEVER, 5, 5 });
+        queue.add(BULK, BULK);
+        now += MILLIS;
+        queue.add(INTERACTIVE, INTERACTIVE);
+        fill(queue, CONTROL, 100);
+        now += 10 * MILLIS;
+        // Both are overdue, ahead of control's share, and bulk has waited longer.
+        assertEquals(Integer.valueOf(BULK), queue.poll());
+        assertEquals(Integer.valueOf(INTERACTIVE), queue.poll());
+        assertEquals(Integer.valueOf(CONTROL), queue.poll());
+    }
+}
@@ -0,0 +1,200 @@
+package edu.stevens.cs522.chat.wire;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.net.ProtocolException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Round trips through the binary encoding, and its rejection of damaged packets.
+ */
+public class BinaryPacketCodecTest {
+
+    static ChatPacket message(long seq, String text) {
+        ChatPacket packet = new ChatPacket();
+        packet.epoch = -6148914691236517206L;
+        packet.seq = seq;
+        packet.replyAddress = "10.0.2.2:6666";
+        packet.sender = "alice";
+        packet.chatroom = "lobby";
+        packet.messageText = text;
+        packet.timestamp = Instant.ofEpochMilli(1704067200123L);
+        packet.latitude = 40.7448;
+        packet.longitude = -74.0256;
+        return packet;
+    }
+
+    static void assertSamePacket(ChatPacket expected, ChatPacket actual) {
+        assertEquals(expected.type, actual.type);
+        assertEquals(expected.epoch, actual.epoch);
+        assertEquals(expected.seq, actual.seq);
+        assertEquals(expected.sender, actual.sender);
+        assertEquals(expected.chatroom, actual.chatroom);
+        assertEquals(expected.messageText, actual.messageText);
+        assertEquals(expected.replyAddress, actual.replyAddress);
+        assertEquals(expected.timestamp, actual.timestamp);
+        assertEquals(expected.latitude, actual.latitude);
+        assertEquals(expected.longitude, actual.longitude);
+    }
+
+    private static ChatPacket roundTrip(ChatPacket packet) throws ProtocolException {
+        byte[] data = BinaryPacketCodec.encode(packet);
+        assertTrue(BinaryPacketCodec.isBinary(data, 0, data.length));
+        ChatPacket decoded = BinaryPacketCodec.decode(data, 0, data.length);
+        assertEquals(WireFormat.BINARY, decoded.format);
+        return decoded;
+    }
+
+    @Test
+    public void messageRoundTrip() throws ProtocolException {
+        ChatPacket packet = message(42, "hello");
+        assertSamePacket(packet, roundTrip(packet));
+    }
+
+    @Test
+    public void ackRoundTrip() throws ProtocolException {
+        ChatPacket decoded = roundTrip(ChatPacket.ack("bob", -6148914691236517206L, 300));
+        assertTrue(decoded.isAck());
+        assertEquals("bob", decoded.sender);
+        assertEquals(-6148914691236517206L, decoded.epoch);
+        assertEquals(300, decoded.seq);
+        assertNull(decoded.chatroom);
+        assertNull(decoded.messageText);
+    }
+
+    @Test
+    public void ackIsShorterThanMessage() {
+        assertTrue(BinaryPacketCodec.encode(ChatPacket.ack("alice", -6148914691236517206L, 42)).length
+                < BinaryPacketCodec.encode(message(42, "")).length);
+    }
+
+    @Test
+    public void nullFieldsRoundTrip() throws ProtocolException {
+        ChatPacket packet = message(ChatPacket.NO_SEQ, null);
+        packet.epoch = ChatPacket.NO_EPOCH;
+        packet.replyAddress = null;
+        packet.chatroom = null;
+        packet.timestamp = null;
+        packet.latitude = null;
+        packet.longitude = null;
+        assertSamePacket(packet, roundTrip(packet));
+    }
+
+    @Test
+    public void emptyStringIsNotNull() throws ProtocolException {
+        assertEquals("", roundTrip(message(1, "")).messageText);
+    }
+
+    @Test
+    public void negativeMillisRoundTrip() throws ProtocolException {
+        ChatPacket packet = message(1, "before the epoch");
+        packet.timestamp = Instant.ofEpochMilli(-1);
+        assertSamePacket(packet, roundTrip(packet));
+        packet.timestamp = Instant.ofEpochMilli(-86400000L * 365 * 70);
+        assertSamePacket(packet, roundTrip(packet));
+    }
+
+    @Test
+    public void largeSeqRoundTrip() throws ProtocolException {
+        ChatPacket packet = message(Long.MAX_VALUE, "last");
+        assertSamePacket(packet, roundTrip(packet));
+    }
+
+    @Test
+    public void versionOnePacketDecodes() throws ProtocolException {
+        // Version 1 is version 2 without the epoch.
+        ChatPacket packet = message(42, "from an older peer");
+        packet.epoch = ChatPacket.NO_EPOCH;
+        byte[] data = BinaryPacketCodec.encode(packet);
+        data[1] = 1;
+        assertSamePacket(packet, BinaryPacketCodec.decode(data, 0, data.length));
+    }
+
+    @Test
+    public void multiByteUtf8RoundTrip() throws ProtocolException {
+        // Two-, three- and four-byte (surrogate pair) characters.
+        ChatPacket packet = message(7, "café 你好 😀");
+        packet.sender = "Jürgen";
+        packet.chatroom = "рус";
+        assertSamePacket(packet, roundTrip(packet));
+    }
+
+    @Test
+    public void batchRoundTrip() throws ProtocolException {
+        List<ChatPacket> packets = Arrays.asList(message(1, "one"), ChatPacket.ack("alice", -6148914691236517206L, 9), message(2, "two"));
+        byte[] batch = BinaryPacketCodec.encodeBatch(Arrays.asList(
+                BinaryPacketCodec.encode(packets.get(0)),
+                BinaryPacketCodec.encode(packets.get(1)),
+                BinaryPacketCodec.encode(packets.get(2))));
+        List<ChatPacket> decoded = BinaryPacketCodec.decodeAll(batch, 0, batch.length);
+        assertEquals(packets.size(), decoded.size());
+        for (int i = 0; i < packets.size(); i++) {
+            assertSamePacket(packets.get(i), decoded.get(i));
+        }
+    }
+
+    @Test
+    public void singlePacketDecodesAsList() throws ProtocolException {
+        byte[] data = BinaryPacketCodec.encode(message(3, "alone"));
+        List<ChatPacket> decoded = BinaryPacketCodec.decodeAll(data, 0, data.length);
+        assertEquals(1, decoded.size());
+        assertEquals("alone", decoded.get(0).messageText);
+    }
+
+    @Test
+    public void decodesAtOffset() throws ProtocolException {
+        byte[] data = BinaryPacketCodec.encode(message(5, "offset"));
+        byte[] padded = new byte[data.length + 10];
+        System.arraycopy(data, 0, padded, 4, data.length);
+        assertSamePacket(message(5, "offset"), BinaryPacketCodec.decode(padded, 4, data.length));
+    }
+
+    @Test
+    public void truncatedPacketIsRejected() {
+        byte[] data = BinaryPacketCodec.encode(message(42, "hello"));
+        for (int length = 0; length < data.length; length++) {
+            assertRejected(data, length);
+        }
+    }
+
+    @Test
+    public void truncatedBatchIsRejected() {
+        byte[] batch = BinaryPacketCodec.encodeBatch(Arrays.asList(
+                BinaryPacketCodec.encode(message(1, "one")),
+                BinaryPacketCodec.encode(message(2, "two"))));
+        for (int length = BinaryPacketCodec.HEADER_SIZE; length < batch.length; length++) {
+            try {
+                BinaryPacketCodec.decodeAll(batch, 0, length);
+                fail("Decoded a batch truncated to " + length + " bytes");
+            } catch (ProtocolException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void wrongMagicOrVersionIsRejected() {
+        byte[] data = BinaryPacketCodec.encode(message(1, "x"));
+        data[0] = '{';
+        assertRejected(data, data.length);
+        data = BinaryPacketCodec.encode(message(1, "x"));
+        data[1] = BinaryPacketCodec.VERSION + 1;
+        assertRejected(data, data.length);
+    }
+
+    private static void assertRejected(byte[] data, int length) {
+        try {
+            BinaryPacketCodec.decode(data, 0, length);
+            fail("Decoded a packet of " + length + " bytes");
+        } catch (ProtocolException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package edu.stevens.cs522.chat.wire;
+
+import static edu.stevens.cs522.chat.wire.BinaryPacketCodecTest.assertSamePacket;
+import static edu.stevens.cs522.chat.wire.BinaryPacketCodecTest.message;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The packing rules of FrameBuilder: a frame is never larger than the maximum once it is
+ * encoded for its transport, and a frame of one packet is just that packet.
+ */
+public class FrameBuilderTest {
+
+    private static final int MAX_SIZE = 512;
+
+    private static byte[] binary(long seq) {
+        return BinaryPacketCodec.encode(message(seq, "packet " + seq));
+    }
+
+    /*
+     * Fill a frame until add refuses a packet, checking that the refusal leaves it unchanged.
+     */
+    private static List<byte[]> fill(FrameBuilder frame) {
+        List<byte[]> added = new ArrayList<>();
+        for (long seq = 1; ; seq++) {
+            byte[] packet = binary(seq);
+            if (!frame.add(packet)) {
+                assertEquals(added.size(), frame.count());
+                return added;
+            }
+            added.add(packet);
+        }
+    }
+
+    private static int textLength(byte[] raw) {
+        return PacketCodec.toText(raw).getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    @Test
+    public void singlePacketIsNotWrapped() {
+        byte[] packet = binary(1);
+        FrameBuilder frame = new FrameBuilder(WireFormat.BINARY, MAX_SIZE, false);
+        assertTrue(frame.add(packet));
+        assertArrayEquals(packet, frame.build());
+
+        byte[] json = "{\"name\":\"alice\"}".getBytes(StandardCharsets.UTF_8);
+        frame = new FrameBuilder(WireFormat.JSON, MAX_SIZE, true);
+        assertTrue(frame.add(json));
+        assertArrayEquals(json, frame.build());
+    }
+
+    @Test
+    public void textFrameFitsOnceEncoded() throws ProtocolException {
+        FrameBuilder frame = new FrameBuilder(WireFormat.BINARY, MAX_SIZE, true);
+        List<byte[]> added = fill(frame);
+        assertTrue(added.size() > 1);
+        byte[] raw = frame.build();
+        assertTrue(textLength(raw) <= MAX_SIZE);
+
+        // The packet refused would have taken the encoded frame over the maximum.
+        added.add(binary(added.size() + 1));
+        assertTrue(textLength(BinaryPacketCodec.encodeBatch(added)) > MAX_SIZE);
+
+        List<ChatPacket> decoded = BinaryPacketCodec.decodeAll(raw, 0, raw.length);
+        assertEquals(frame.count(), decoded.size());
+        assertSamePacket(message(1, "packet 1"), decoded.get(0));
+    }
+
+    @Test
+    public void rawFrameIsMeasuredRaw() {
+        FrameBuilder raw = new FrameBuilder(WireFormat.BINARY, MAX_SIZE, false);
+        List<byte[]> added = fill(raw);
+        assertTrue(raw.build().length <= MAX_SIZE);
+        added.add(binary(added.size() + 1));
+        assertTrue(BinaryPacketCodec.encodeBatch(added).length > MAX_SIZE);
+
+        // Without Base64 to pay for, more packets share a datagram.
+        FrameBuilder text = new FrameBuilder(WireFormat.BINARY, MAX_SIZE, true);
+        fill(text);
+        assertTrue(raw.count() > text.count());
+    }
+
+    @Test
+    public void jsonFrameIsAnArray() {
+        byte[] first = "{\"seq\":1}".getBytes(StandardCharsets.UTF_8);
+        byte[] second = "{\"seq\":2}".getBytes(StandardCharsets.UTF_8);
+        FrameBuilder frame = new FrameBuilder(WireFormat.JSON, first.length + second.length + 3, true);
+        assertTrue(frame.add(first));
+        assertTrue(frame.add(second));
+        assertEquals("[{\"seq\":1},{\"seq\":2}]", new String(frame.build(), StandardCharsets.UTF_8));
+        // Brackets and a comma leave no room for another byte.
+        assertFalse(frame.add("{}".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void oversizedPacketStillFillsAnEmptyFrame() {
+        FrameBuilder frame = new FrameBuilder(WireFormat.BINARY, 16, true);
+        byte[] packet = binary(1);
+        assertTrue(frame.add(packet));
+        assertFalse(frame.add(binary(2)));
+        assertArrayEquals(packet, frame.build());
+    }
+
+    @Test
+    public void clearEmptiesTheFrame() {
+        FrameBuilder frame = new FrameBuilder(WireFormat.BINARY, MAX_SIZE, true);
+        fill(frame);
+        frame.clear();
+        assertTrue(frame.isEmpty());
+        byte[] packet = binary(1);
+        assertTrue(frame.add(packet));
+        assertArrayEquals(packet, frame.build());
+    }
+}
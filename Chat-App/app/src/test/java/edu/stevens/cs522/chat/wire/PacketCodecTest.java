@@ -0,0 +1,99 @@
+package edu.stevens.cs522.chat.wire;
+
+import static edu.stevens.cs522.chat.wire.BinaryPacketCodecTest.assertSamePacket;
+import static edu.stevens.cs522.chat.wire.BinaryPacketCodecTest.message;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Recognition of the wire format of a datagram, for binary packets sent raw or Base64
+ * encoded (JSON packets need the Android runtime, see JsonPacketCodecTest), and the
+ * padding of payloads received as Strings.
+ */
+public class PacketCodecTest {
+
+    private static List<ChatPacket> decode(byte[] data) throws IOException {
+        return PacketCodec.decodeAll(data, 0, data.length);
+    }
+
+    @Test
+    public void rawBinaryIsRecognized() throws IOException {
+        ChatPacket packet = message(11, "raw");
+        List<ChatPacket> decoded = decode(PacketCodec.encodeRaw(packet, WireFormat.BINARY));
+        assertEquals(1, decoded.size());
+        assertSamePacket(packet, decoded.get(0));
+    }
+
+    @Test
+    public void base64BinaryIsRecognized() throws IOException {
+        ChatPacket packet = message(12, "encoded");
+        byte[] raw = PacketCodec.encodeRaw(packet, WireFormat.BINARY);
+        String text = PacketCodec.toText(raw);
+        assertEquals(PacketCodec.transportLength(raw.length, WireFormat.BINARY), text.length());
+        List<ChatPacket> decoded = decode(PacketCodec.fromText(text));
+        assertEquals(1, decoded.size());
+        assertSamePacket(packet, decoded.get(0));
+    }
+
+    @Test
+    public void textLeavesJsonAlone() {
+        String json = "{\"name\":\"café\"}";
+        byte[] raw = json.getBytes(StandardCharsets.UTF_8);
+        assertEquals(json, PacketCodec.toText(raw));
+        assertEquals(raw.length, PacketCodec.transportLength(raw.length, WireFormat.JSON));
+    }
+
+    @Test
+    public void textPaddingIsStripped() {
+        assertArrayEquals("{}".getBytes(StandardCharsets.UTF_8), PacketCodec.fromText("{}\0\0\0"));
+        assertArrayEquals(new byte[0], PacketCodec.fromText("\0\0"));
+    }
+
+    /*
+     * A round coordinate ends with zero bytes, which must survive every path.
+     */
+    @Test
+    public void roundCoordinatesRoundTrip() throws IOException {
+        for (double longitude : new double[] { 0.0, -74.0 }) {
+            ChatPacket packet = message(13, "round");
+            packet.latitude = 0.0;
+            packet.longitude = longitude;
+            byte[] raw = PacketCodec.encodeRaw(packet, WireFormat.BINARY);
+            assertEquals(0, raw[raw.length - 1]);
+
+            assertSamePacket(packet, decode(raw).get(0));
+            assertSamePacket(packet, decode(PacketCodec.fromText(PacketCodec.toText(raw) + "\0\0")).get(0));
+
+            byte[] batch = BinaryPacketCodec.encodeBatch(Arrays.asList(
+                    PacketCodec.encodeRaw(message(14, "first"), WireFormat.BINARY), raw));
+            List<ChatPacket> decoded = decode(batch);
+            assertEquals(2, decoded.size());
+            assertSamePacket(packet, decoded.get(1));
+        }
+    }
+
+    @Test
+    public void garbageIsRejected() throws IOException {
+        assertRejected("not a packet!".getBytes(StandardCharsets.UTF_8));
+        assertRejected(new byte[0]);
+        assertRejected("   ".getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void assertRejected(byte[] data) throws IOException {
+        try {
+            decode(data);
+            fail("Decoded " + data.length + " bytes of garbage");
+        } catch (ProtocolException e) {
+            // Expected
+        }
+    }
+}